@@ -0,0 +1,152 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import io.sf.carte.doc.dom.CSSDOMImplementation;
+import io.sf.carte.doc.style.css.CSSElement;
+import io.sf.carte.doc.style.css.nsac.Parser;
+
+/**
+ * Generates the documents used by the benchmarks.
+ * <p>
+ * The same generator works on any W3C DOM implementation, so that the DOM4J
+ * classes can be compared with the native css4j DOM on identical input.
+ * </p>
+ */
+class BenchmarkDocuments {
+
+	static final String DOM4J = "dom4j";
+
+	static final String CSS4J = "css4j";
+
+	private BenchmarkDocuments() {
+	}
+
+	/**
+	 * Create an empty document.
+	 * 
+	 * @param implementation the implementation, either {@code dom4j} or
+	 *                       {@code css4j}.
+	 * @return the document.
+	 */
+	static Document createDocument(String implementation) {
+		if (DOM4J.equals(implementation)) {
+			return new XHTMLDocumentFactory(EnumSet.noneOf(Parser.Flag.class))
+					.createDocument(null, null, null);
+		} else if (CSS4J.equals(implementation)) {
+			return new CSSDOMImplementation().createDocument(null, null, null);
+		}
+		throw new IllegalArgumentException("Unknown implementation: " + implementation);
+	}
+
+	/**
+	 * Populate the given document with approximately {@code size} elements.
+	 * <p>
+	 * The tree is made of sections, each one with a heading, a list whose items
+	 * have a class, a data attribute and sometimes a child, and a paragraph.
+	 * </p>
+	 * 
+	 * @param document the empty document.
+	 * @param size     the number of elements to create.
+	 * @return the list of elements, in document order.
+	 */
+	static List<CSSElement> populate(Document document, int size) {
+		List<CSSElement> list = new ArrayList<>(size + 16);
+		Element html = document.createElement("html");
+		document.appendChild(html);
+		list.add((CSSElement) html);
+		Element body = document.createElement("body");
+		html.appendChild(body);
+		list.add((CSSElement) body);
+		int section = 0;
+		while (list.size() < size) {
+			Element div = appendElement(body, "div", list);
+			div.setAttribute("id", "s" + section);
+			div.setAttribute("class", (section & 1) == 0 ? "section even" : "section odd");
+			Element h2 = appendElement(div, "h2", list);
+			h2.setAttribute("class", "title");
+			h2.appendChild(document.createTextNode("Section " + section));
+			Element ul = appendElement(div, "ul", list);
+			for (int i = 0; i < 8; i++) {
+				Element li = appendElement(ul, "li", list);
+				li.setAttribute("class", "item");
+				li.setAttribute("data-index", Integer.toString(i));
+				if (i % 3 == 0) {
+					Element span = appendElement(li, "span", list);
+					span.setAttribute("class", "badge");
+				}
+				li.appendChild(document.createTextNode("Item " + i));
+			}
+			Element p = appendElement(div, "p", list);
+			p.setAttribute("lang", "en");
+			p.appendChild(document.createTextNode("Some text."));
+			section++;
+		}
+		return list;
+	}
+
+	/**
+	 * Generate the serialized XHTML for a document of approximately {@code size}
+	 * elements.
+	 * <p>
+	 * The structure is the same as the one produced by
+	 * {@link #populate(Document, int)}, plus a {@code head} with the given style
+	 * sheet.
+	 * </p>
+	 * 
+	 * @param size the number of elements.
+	 * @param css  the style sheet to embed in a {@code style} element.
+	 * @return the XHTML document.
+	 */
+	static String generateXHTML(int size, String css) {
+		StringBuilder buf = new StringBuilder(size * 48 + css.length() + 256);
+		buf.append("<!DOCTYPE html><html xmlns=\"http://www.w3.org/1999/xhtml\"><head><title>Benchmark</title>");
+		buf.append("<style type=\"text/css\">").append(css).append("</style></head><body>");
+		int count = 6;
+		int section = 0;
+		while (count < size) {
+			buf.append("<div id=\"s").append(section).append("\" class=\"section ")
+					.append((section & 1) == 0 ? "even" : "odd").append("\">");
+			buf.append("<h2 class=\"title\">Section ").append(section).append("</h2><ul>");
+			count += 3;
+			for (int i = 0; i < 8; i++) {
+				buf.append("<li class=\"item\" data-index=\"").append(i).append("\">");
+				if (i % 3 == 0) {
+					buf.append("<span class=\"badge\"></span>");
+					count++;
+				}
+				buf.append("Item ").append(i).append("</li>");
+				count++;
+			}
+			buf.append("</ul><p lang=\"en\">Some text.</p></div>");
+			count++;
+			section++;
+		}
+		buf.append("</body></html>");
+		return buf.toString();
+	}
+
+	private static Element appendElement(Element parent, String name, List<CSSElement> list) {
+		Element elm = parent.getOwnerDocument().createElement(name);
+		parent.appendChild(elm);
+		list.add((CSSElement) elm);
+		return elm;
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.sf.carte.doc.style.css.nsac.Parser;
+
+/**
+ * Whole-document computed style benchmark.
+ * <p>
+ * Loads a generated XHTML document through {@link XHTMLDocumentFactory}, with
+ * the per-element style cache enabled or disabled, and then computes the style
+ * of every element.
+ * </p>
+ * <p>
+ * The caches are invalidated before each invocation (the document is parsed
+ * only once per trial), so each invocation styles a cold document.
+ * </p>
+ * <p>
+ * Run it with {@code ./gradlew jmh -PjmhInclude=ComputedStyleBenchmark}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ComputedStyleBenchmark {
+
+	static final String CSS = "body{font-family:Arial,sans-serif;font-size:12pt;color:#333}"
+			+ "h2{font-size:150%;margin:0.5em 0}.title{color:navy}ul{margin-left:2em}"
+			+ "li{line-height:1.4}.item{padding:2px}.odd .item{background-color:#eee}"
+			+ "li:first-child{font-weight:bold}.section .badge{display:inline-block;width:1em}"
+			+ "p[lang]{font-style:italic}#s7{border:1px solid red}";
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int size;
+
+	@Param({ "false", "true" })
+	public boolean styleCache;
+
+	private XHTMLDocument document;
+
+	private List<CSSStylableElement> elements;
+
+	@Setup(Level.Trial)
+	public void loadDocument() throws Exception {
+		XHTMLDocumentFactory factory = new XHTMLDocumentFactory(EnumSet.noneOf(Parser.Flag.class));
+		factory.getStyleSheetFactory().setDefaultHTMLUserAgentSheet();
+		factory.setStyleCache(styleCache);
+		SAXReader reader = new SAXReader(factory);
+		String xhtml = BenchmarkDocuments.generateXHTML(size, CSS);
+		document = (XHTMLDocument) reader.read(new StringReader(xhtml));
+		elements = new ArrayList<>(size + 16);
+		addElements(document.getRootElement(), elements);
+	}
+
+	private static void addElements(Element element, List<CSSStylableElement> list) {
+		list.add((CSSStylableElement) element);
+		Iterator<Element> it = element.elementIterator();
+		while (it.hasNext()) {
+			addElements(it.next(), list);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void invalidateStyles() {
+		document.rebuildCascade();
+	}
+
+	/**
+	 * Compute the style of every element, once.
+	 * 
+	 * @param blackhole the blackhole.
+	 */
+	@Benchmark
+	public void computeAll(Blackhole blackhole) {
+		for (CSSStylableElement element : elements) {
+			blackhole.consume(element.getComputedStyle());
+		}
+	}
+
+	/**
+	 * Compute the style of every element, and then read the computed style of
+	 * its parent, as layout or serialization jobs usually do.
+	 * 
+	 * @param blackhole the blackhole.
+	 */
+	@Benchmark
+	public void computeAllWithParent(Blackhole blackhole) {
+		for (CSSStylableElement element : elements) {
+			blackhole.consume(element.getComputedStyle().getParentComputedStyle());
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.io.StringReader;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.sf.carte.doc.style.css.nsac.Parser;
+
+/**
+ * Parser backend benchmark.
+ * <p>
+ * Parses the same generated pages with each of the {@link DOM4JUserAgent}
+ * parser backends, measuring the number of documents parsed per second. The
+ * allocation rate of each backend is reported by the {@code gc} profiler,
+ * which the {@code jmh} task enables.
+ * </p>
+ * <p>
+ * Run it with {@code ./gradlew jmh -PjmhInclude=ParserBackendBenchmark}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParserBackendBenchmark {
+
+	@Param({ "20", "200", "2000" })
+	public int size;
+
+	@Param({ "SAX", "XPP3", "HTML5" })
+	public DOM4JUserAgent.Backend backend;
+
+	private DOM4JUserAgent agent;
+
+	private String xhtml;
+
+	@Setup(Level.Trial)
+	public void createAgent() {
+		agent = new DOM4JUserAgent(EnumSet.noneOf(Parser.Flag.class), backend);
+		agent.setParserReuse(true);
+		xhtml = BenchmarkDocuments.generateXHTML(size, ComputedStyleBenchmark.CSS);
+	}
+
+	/**
+	 * Parse one page.
+	 * 
+	 * @return the document.
+	 * @throws Exception if the page could not be parsed.
+	 */
+	@Benchmark
+	public XHTMLDocument parse() throws Exception {
+		return agent.parseDocument(new StringReader(xhtml));
+	}
+
+}
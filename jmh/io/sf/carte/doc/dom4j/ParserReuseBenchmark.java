@@ -0,0 +1,86 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.io.StringReader;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.sf.carte.doc.style.css.nsac.Parser;
+
+/**
+ * Parser reuse benchmark.
+ * <p>
+ * Parses many small generated XHTML pages with a {@link DOM4JUserAgent}, with
+ * parser reuse enabled or disabled, and with either the SAX or the XPP3
+ * backend. The throughput is measured with several threads sharing the same
+ * user agent, as a crawler would do.
+ * </p>
+ * <p>
+ * Run it with {@code ./gradlew jmh -PjmhInclude=ParserReuseBenchmark}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class ParserReuseBenchmark {
+
+	@Param({ "20", "200" })
+	public int size;
+
+	@Param({ "false", "true" })
+	public boolean parserReuse;
+
+	@Param({ "false", "true" })
+	public boolean useXPP3;
+
+	private DOM4JUserAgent agent;
+
+	private String xhtml;
+
+	@Setup(Level.Trial)
+	public void createAgent() {
+		agent = new DOM4JUserAgent(EnumSet.noneOf(Parser.Flag.class), useXPP3);
+		agent.setParserReuse(parserReuse);
+		xhtml = BenchmarkDocuments.generateXHTML(size, ComputedStyleBenchmark.CSS);
+	}
+
+	/**
+	 * Parse one page.
+	 * 
+	 * @return the document.
+	 * @throws Exception if the page could not be parsed.
+	 */
+	@Benchmark
+	public XHTMLDocument parse() throws Exception {
+		return agent.parseDocument(new StringReader(xhtml));
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.sf.carte.doc.dom4j.XHTMLDocumentFactory.DOM4JCSSStyleSheetFactory;
+import io.sf.carte.doc.style.css.CSSElement;
+import io.sf.carte.doc.style.css.nsac.Condition;
+import io.sf.carte.doc.style.css.nsac.Parser;
+import io.sf.carte.doc.style.css.om.BaseDocumentCSSStyleSheet;
+import io.sf.carte.doc.style.css.om.ComputedCSSStyle;
+import io.sf.carte.doc.style.css.om.InlineStyle;
+
+/**
+ * Measures the rule index on large style sheets.
+ * <p>
+ * Styles the document of {@link ComputedStyleBenchmark} with a generated sheet
+ * of {@code rules} rules, most of which require an identifier, class or tag
+ * name that the elements do not have. Without the rule index, the same rules
+ * are matched by the cascade of {@link BaseDocumentCSSStyleSheet}.
+ * </p>
+ * <p>
+ * Run it with {@code ./gradlew jmh -PjmhInclude=RuleIndexBenchmark}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RuleIndexBenchmark {
+
+	@Param({ "1000", "5000", "10000" })
+	public int rules;
+
+	@Param({ "false", "true" })
+	public boolean ruleIndex;
+
+	private List<CSSStylableElement> elements;
+
+	private BaseDocumentCSSStyleSheet sheet;
+
+	@Setup(Level.Trial)
+	public void loadDocument() throws Exception {
+		XHTMLDocumentFactory factory = new XHTMLDocumentFactory(EnumSet.noneOf(Parser.Flag.class));
+		factory.getStyleSheetFactory().setDefaultHTMLUserAgentSheet();
+		SAXReader reader = new SAXReader(factory);
+		String xhtml = BenchmarkDocuments.generateXHTML(10000, generateSheet(rules));
+		XHTMLDocument document = (XHTMLDocument) reader.read(new StringReader(xhtml));
+		DOM4JDocumentCSSStyleSheet css = (DOM4JDocumentCSSStyleSheet) document.getStyleSheet();
+		if (ruleIndex) {
+			sheet = css;
+		} else {
+			UnindexedSheet unindexed = new UnindexedSheet(css);
+			unindexed.setOwnerDocument(document);
+			unindexed.addStyleSheet(css);
+			sheet = unindexed;
+		}
+		elements = new ArrayList<>(10016);
+		addElements(document.getRootElement(), elements);
+	}
+
+	/*
+	 * A sheet like those of large sites: the rules of the computed style
+	 * benchmark, plus rules for components that are not in the document.
+	 */
+	private static String generateSheet(int count) {
+		StringBuilder buf = new StringBuilder(count * 40 + 512);
+		buf.append(ComputedStyleBenchmark.CSS);
+		for (int i = 0; i < count; i++) {
+			switch (i % 4) {
+			case 0:
+				buf.append(".c").append(i).append(" span{color:#").append(i % 1000 + 100).append('}');
+				break;
+			case 1:
+				buf.append("#id").append(i).append("{margin-left:").append(i % 50).append("px}");
+				break;
+			case 2:
+				buf.append("div.section .w").append(i).append(">p{padding:1px}");
+				break;
+			default:
+				buf.append("x-").append(i).append(" li{font-size:").append(i % 20 + 8).append("pt}");
+			}
+		}
+		return buf.toString();
+	}
+
+	private static void addElements(Element element, List<CSSStylableElement> list) {
+		list.add((CSSStylableElement) element);
+		Iterator<Element> it = element.elementIterator();
+		while (it.hasNext()) {
+			addElements(it.next(), list);
+		}
+	}
+
+	/**
+	 * Compute the style of every element, once.
+	 * 
+	 * @param blackhole the blackhole.
+	 */
+	@Benchmark
+	public void computeAll(Blackhole blackhole) {
+		for (CSSStylableElement element : elements) {
+			blackhole.consume(sheet.getComputedStyle(element, null));
+		}
+	}
+
+	/*
+	 * A document sheet that computes the styles like its superclasses, without
+	 * the rule index.
+	 */
+	private static class UnindexedSheet extends DOM4JDocumentCSSStyleSheet {
+
+		private static final long serialVersionUID = 1L;
+
+		private final DOM4JDocumentCSSStyleSheet indexedSheet;
+
+		UnindexedSheet(DOM4JDocumentCSSStyleSheet indexedSheet) {
+			super(indexedSheet.getTargetMedium(), indexedSheet.getOrigin());
+			this.indexedSheet = indexedSheet;
+		}
+
+		@Override
+		public ComputedCSSStyle getComputedStyle(CSSElement elm, Condition pseudoElt) {
+			DOM4JComputedStyle style = createComputedCSSStyle();
+			style.setOwnerNode(elm);
+			return computeStyle(style, elm.getSelectorMatcher(), pseudoElt, (InlineStyle) elm.getStyle());
+		}
+
+		@Override
+		protected DOM4JComputedStyle createComputedCSSStyle() {
+			return indexedSheet.createComputedCSSStyle();
+		}
+
+		@Override
+		public DOM4JCSSStyleSheetFactory getStyleSheetFactory() {
+			return indexedSheet.getStyleSheetFactory();
+		}
+
+	}
+
+}
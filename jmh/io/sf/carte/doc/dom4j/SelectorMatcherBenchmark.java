@@ -0,0 +1,105 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.sf.carte.doc.style.css.CSSElement;
+import io.sf.carte.doc.style.css.nsac.SelectorList;
+import io.sf.carte.doc.style.css.parser.CSSParser;
+
+/**
+ * Selector matching benchmark.
+ * <p>
+ * Matches a selector against every element of a generated document, with the
+ * DOM4J selector matcher and (for comparison) the native css4j DOM.
+ * </p>
+ * <p>
+ * Run it with {@code ./gradlew jmh -PjmhInclude=SelectorMatcherBenchmark}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SelectorMatcherBenchmark {
+
+	private static final Map<String, String> selectors = new HashMap<>();
+
+	static {
+		selectors.put("type", "li");
+		selectors.put("class", ".item");
+		selectors.put("id", "#s7");
+		selectors.put("attribute", "[data-index=\"3\"]");
+		selectors.put("nth-child", "li:nth-child(2n+1)");
+		selectors.put("nth-of-type", "li:nth-of-type(3n)");
+		selectors.put("first-child", "li:first-child");
+		selectors.put("child", "ul>li");
+		selectors.put("descendant", ".section .badge");
+		selectors.put("adjacent", "h2+ul");
+		selectors.put("sibling", "h2~p");
+		selectors.put("has", "div:has(.badge)");
+	}
+
+	@Param({ BenchmarkDocuments.DOM4J, BenchmarkDocuments.CSS4J })
+	public String implementation;
+
+	@Param({ "100", "1000", "10000" })
+	public int size;
+
+	@Param({ "type", "class", "id", "attribute", "nth-child", "nth-of-type", "first-child", "child",
+			"descendant", "adjacent", "sibling", "has" })
+	public String selector;
+
+	private CSSElement[] elements;
+
+	private SelectorList selectorList;
+
+	@Setup
+	public void setup() throws Exception {
+		List<CSSElement> list = BenchmarkDocuments
+				.populate(BenchmarkDocuments.createDocument(implementation), size);
+		elements = list.toArray(new CSSElement[0]);
+		CSSParser parser = new CSSParser();
+		selectorList = parser.parseSelectors(new StringReader(selectors.get(selector)));
+	}
+
+	@Benchmark
+	public int matchAll() {
+		int count = 0;
+		for (CSSElement element : elements) {
+			if (element.getSelectorMatcher().matches(selectorList) != -1) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+}
@@ -14,7 +14,9 @@ package io.sf.carte.doc.dom4j;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -33,6 +35,7 @@ import org.xml.sax.InputSource;
 
 import io.sf.carte.doc.style.css.CSSMediaException;
 import io.sf.carte.doc.style.css.CSSStyleDeclaration;
+import io.sf.carte.doc.style.css.om.ComputedCSSStyle;
 import io.sf.carte.doc.style.css.om.SampleCSS;
 
 public class CSSStylableElementTest {
@@ -107,6 +110,78 @@ public class CSSStylableElementTest {
 		pList.clear();
 	}
 
+	@Test
+	public void getComputedStyleCache() throws CSSMediaException {
+		assertFalse(xhtmlDoc.isStyleCacheOn());
+		xhtmlDoc.setStyleCache(true);
+		assertTrue(xhtmlDoc.isStyleCacheOn());
+		CSSStylableElement elm = (CSSStylableElement) xhtmlDoc
+				.selectSingleNode("/*[name()='html']//*[name()='p']");
+		assertNotNull(elm);
+		ComputedCSSStyle style = elm.getComputedStyle();
+		assertNotNull(style);
+		assertEquals("bold", style.getPropertyValue("font-weight"));
+		assertSame(style, elm.getComputedStyle());
+		assertSame(style, elm.getComputedStyle(null));
+		// Pseudo-element
+		ComputedCSSStyle peStyle = elm.getComputedStyle("::first-line");
+		assertNotNull(peStyle);
+		assertSame(peStyle, elm.getComputedStyle("::first-line"));
+		// Attribute change in the element
+		elm.setAttribute("class", "foo");
+		ComputedCSSStyle style2 = elm.getComputedStyle();
+		assertNotSame(style, style2);
+		assertSame(style2, elm.getComputedStyle());
+		assertNotSame(peStyle, elm.getComputedStyle("::first-line"));
+		// Attribute change in the parent
+		((CSSStylableElement) elm.getParent()).setAttribute("style", "font-weight: normal");
+		ComputedCSSStyle style3 = elm.getComputedStyle();
+		assertNotSame(style2, style3);
+		// Change the value of an existing attribute
+		elm.attribute("class").setValue("bar");
+		assertNotSame(style3, elm.getComputedStyle());
+		// Inline style modified through the CSSOM
+		elm.setAttribute("style", "color: blue");
+		style3 = elm.getComputedStyle();
+		assertSame(style3, elm.getComputedStyle());
+		elm.getStyle().setCssText("color: red");
+		ComputedCSSStyle style4 = elm.getComputedStyle();
+		assertNotSame(style3, style4);
+		assertEquals("#f00", style4.getPropertyValue("color"));
+		elm.getStyle().setProperty("color", "green", null);
+		assertNotSame(style4, elm.getComputedStyle());
+		assertEquals("#008000", elm.getComputedStyle().getPropertyValue("color"));
+		// Style sheet change
+		style3 = elm.getComputedStyle();
+		xhtmlDoc.rebuildCascade();
+		assertNotSame(style3, elm.getComputedStyle());
+		// Disable the cache
+		xhtmlDoc.setStyleCache(false);
+		assertNotSame(elm.getComputedStyle(), elm.getComputedStyle());
+	}
+
+	@Test
+	public void getComputedStyleCacheFactory() {
+		XHTMLDocumentFactory factory = new TestDocumentFactory();
+		assertFalse(factory.createDocument().isStyleCacheOn());
+		factory.setStyleCache(true);
+		XHTMLDocument doc = factory.createDocument();
+		assertTrue(doc.isStyleCacheOn());
+		XHTMLElement html = doc.createElement("html");
+		doc.setRootElement(html);
+		XHTMLElement body = doc.createElement("body");
+		html.appendChild(body);
+		// Nothing was cached yet, so modifications are not tracked
+		int serial = doc.getComputedStyleSerial();
+		body.appendChild(doc.createElement("p"));
+		assertEquals(serial, doc.getComputedStyleSerial());
+		ComputedCSSStyle style = body.getComputedStyle();
+		assertSame(style, body.getComputedStyle());
+		// Child addition
+		body.appendChild(doc.createElement("div"));
+		assertNotSame(style, body.getComputedStyle());
+	}
+
 	@SuppressWarnings("deprecation")
 	@Test
 	public void testSetIdAttributeNodeAttrBoolean() {
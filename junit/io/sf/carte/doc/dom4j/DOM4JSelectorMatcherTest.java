@@ -1094,6 +1094,34 @@ public class DOM4JSelectorMatcherTest {
 		CSSOMBridge.assertSpecificity(0, 1, 2, selist.item(selidx), matcher);
 	}
 
+	@Test
+	public void testMatchSelectorSiblingUpdate() throws Exception {
+		SelectorList adjacent = cssParser.parseSelectors(new StringReader("p.foo + p"));
+		SelectorList lastChild = cssParser.parseSelectors(new StringReader("p:last-child"));
+		CSSStylableElement parent = createElement("div");
+		document.getDocumentElement().appendChild(parent);
+		CSSStylableElement foo = createElement("p");
+		foo.setAttribute("class", "foo");
+		parent.appendChild(foo);
+		parent.appendChild(factory.createText("foo"));
+		CSSStylableElement elm = createElement("p");
+		parent.appendChild(elm);
+		assertTrue(elm.matches(adjacent, null));
+		assertTrue(elm.matches(lastChild, null));
+		assertFalse(foo.matches(lastChild, null));
+
+		CSSStylableElement span = createElement("span");
+		parent.insertBefore(span, elm);
+		assertFalse(elm.matches(adjacent, null));
+		assertTrue(elm.matches(lastChild, null));
+
+		parent.removeChild(span);
+		assertTrue(elm.matches(adjacent, null));
+
+		parent.appendChild(createElement("p"));
+		assertFalse(elm.matches(lastChild, null));
+	}
+
 	@Test
 	public void testMatchSelectorDescendant() throws Exception {
 		AbstractCSSStyleSheet css = parseStyle("ul li a{padding:20px}");
@@ -1335,6 +1363,51 @@ public class DOM4JSelectorMatcherTest {
 		assertEquals(0, lastp.getSelectorMatcher().matches(selist));
 	}
 
+	@Test
+	public void testMatchSelectorPseudoNthChildIndexUpdate() throws Exception {
+		CSSStylableElement parent = createElement("ul");
+		CSSStylableElement[] items = new CSSStylableElement[50];
+		for (int i = 0; i < items.length; i++) {
+			items[i] = createElement(i % 5 == 0 ? "p" : "li");
+			parent.add(items[i]);
+			parent.add(factory.createText(" "));
+		}
+		SelectorList nth = cssParser.parseSelectors(new StringReader("li:nth-child(3n+1)"));
+		SelectorList nthOfType = cssParser.parseSelectors(new StringReader("li:nth-of-type(4)"));
+		SelectorList nthLastOfType = cssParser.parseSelectors(new StringReader("p:nth-last-of-type(2)"));
+		SelectorList firstOfType = cssParser.parseSelectors(new StringReader("li:first-of-type"));
+		for (int i = 0; i < items.length; i++) {
+			SelectorMatcher matcher = items[i].getSelectorMatcher();
+			boolean isLi = i % 5 != 0;
+			assertEquals(isLi && i % 3 == 0, matcher.matches(nth) >= 0);
+			assertEquals(i == 4, matcher.matches(nthOfType) >= 0);
+			assertEquals(i == 40, matcher.matches(nthLastOfType) >= 0);
+			assertEquals(i == 1, matcher.matches(firstOfType) >= 0);
+		}
+
+		// Remove the first two elements
+		parent.removeChild(items[0]);
+		parent.remove(items[1]);
+		assertEquals(0, items[2].getSelectorMatcher().matches(firstOfType));
+		assertEquals(0, items[2].getSelectorMatcher().matches(nth));
+		assertEquals(-1, items[3].getSelectorMatcher().matches(nth));
+		assertEquals(0, items[8].getSelectorMatcher().matches(nth));
+		assertEquals(0, items[6].getSelectorMatcher().matches(nthOfType));
+
+		// Insert one at the beginning
+		parent.insertBefore(createElement("li"), items[2]);
+		assertEquals(-1, items[2].getSelectorMatcher().matches(firstOfType));
+		assertEquals(-1, items[3].getSelectorMatcher().matches(nth));
+		assertEquals(0, items[4].getSelectorMatcher().matches(nth));
+
+		// Clear the content
+		parent.clearContent();
+		CSSStylableElement li = createElement("li");
+		parent.add(li);
+		assertEquals(0, li.getSelectorMatcher().matches(nth));
+		assertEquals(0, li.getSelectorMatcher().matches(firstOfType));
+	}
+
 	@Test
 	public void testMatchSelectorPseudoAnyLink() throws Exception {
 		CSSStylableElement a = createElement("a");
@@ -12,18 +12,33 @@
 package io.sf.carte.doc.dom4j;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
+import org.dom4j.Element;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.w3c.dom.DOMStringList;
 
+import io.sf.carte.doc.DocumentException;
 import io.sf.carte.doc.agent.MockURLConnectionFactory;
 import io.sf.carte.doc.agent.net.DefaultOriginPolicy;
 import io.sf.carte.doc.style.css.nsac.Parser;
@@ -96,6 +111,143 @@ public class DOM4JUserAgentTest {
 		assertEquals("Alter 2", xhtmlDoc.getSelectedStyleSheetSet());
 	}
 
+	@Test
+	public void testParserReuse() throws Exception {
+		assertFalse(agent.isParserReuse());
+		agent.setParserReuse(true);
+		assertTrue(agent.isParserReuse());
+		URL url = new URI("http://www.example.com/xhtml/meta-default-style.html").toURL();
+		agent.getTestDocumentFactory().getConnectionFactory().registerURL(url.toExternalForm(),
+				"meta-default-style.html");
+		XHTMLDocument xhtmlDoc = agent.readURL(url);
+		assertEquals("Alter 1", xhtmlDoc.getSelectedStyleSheetSet());
+		// A parse error must not affect the next documents
+		assertThrows(DocumentException.class,
+				() -> agent.parseDocument(new StringReader("<html><body></html>")));
+		XHTMLDocument doc = agent.parseDocument(
+				new StringReader("<html><head><title>Reuse</title></head><body><p>Text</p></body></html>"));
+		assertNotNull(doc.getRootElement());
+		assertEquals("html", doc.getRootElement().getName());
+		assertEquals(1, doc.getElementsByTagName("p").getLength());
+		// Parse the first document again
+		xhtmlDoc = agent.readURL(url);
+		assertEquals("Alter 1", xhtmlDoc.getSelectedStyleSheetSet());
+		DOMStringList list = xhtmlDoc.getStyleSheetSets();
+		assertEquals(3, list.getLength());
+	}
+
+	@Test
+	public void testReadURLs() throws Exception {
+		agent.setMaxConcurrentReads(2);
+		assertEquals(2, agent.getMaxConcurrentReads());
+		URL url = new URI("http://www.example.com/xhtml/meta-default-style.html").toURL();
+		URL url2 = new URI("http://www.example.com/xhtml/htmlsample.html").toURL();
+		agent.getTestDocumentFactory().getConnectionFactory().registerURL(url.toExternalForm(),
+				"meta-default-style.html");
+		List<URL> urls = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			urls.add(url);
+			urls.add(url2);
+		}
+		List<CompletableFuture<XHTMLDocument>> futures = agent.readURLs(urls);
+		assertEquals(urls.size(), futures.size());
+		for (int i = 0; i < futures.size(); i++) {
+			XHTMLDocument xhtmlDoc = futures.get(i).get(30, TimeUnit.SECONDS);
+			assertNotNull(xhtmlDoc);
+			assertEquals(urls.get(i).toExternalForm(), xhtmlDoc.getDocumentURI());
+			assertEquals(3, xhtmlDoc.getStyleSheetSets().getLength());
+		}
+		assertTrue(agent.readURLs(new ArrayList<>()).isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> agent.setMaxConcurrentReads(0));
+	}
+
+	@Test
+	public void testReadBytes() throws Exception {
+		String html = "<html><head><title>Caf\u00e9</title></head><body><p>Text</p></body></html>";
+		byte[] latin1 = ("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" + html)
+				.getBytes(StandardCharsets.ISO_8859_1);
+		ByteArrayOutputStream utf16 = new ByteArrayOutputStream();
+		utf16.write(0xfe);
+		utf16.write(0xff);
+		utf16.write(html.getBytes(StandardCharsets.UTF_16BE));
+		DOM4JUserAgent xpp3Agent = (DOM4JUserAgent) DOM4JUserAgent
+				.createUserAgent(EnumSet.noneOf(Parser.Flag.class), true);
+		for (DOM4JUserAgent ua : new DOM4JUserAgent[] { agent, xpp3Agent }) {
+			XHTMLDocument xhtmlDoc = ua.readBytes(latin1, "http://www.example.com/xhtml/latin1.html");
+			assertEquals("Caf\u00e9", title(xhtmlDoc));
+			assertEquals("http://www.example.com/xhtml/latin1.html", xhtmlDoc.getDocumentURI());
+			ByteBuffer buffer = ByteBuffer.allocateDirect(utf16.size());
+			buffer.put(utf16.toByteArray());
+			buffer.flip();
+			xhtmlDoc = ua.readByteBuffer(buffer, null);
+			assertEquals("Caf\u00e9", title(xhtmlDoc));
+			// The buffer is not consumed
+			assertEquals(0, buffer.position());
+			Path path = Files.createTempFile("dom4j-agent", ".html");
+			try {
+				Files.write(path, html.getBytes(StandardCharsets.UTF_8));
+				xhtmlDoc = ua.readFile(path);
+				assertEquals("Caf\u00e9", title(xhtmlDoc));
+				assertEquals(path.toUri().toString(), xhtmlDoc.getDocumentURI());
+			} finally {
+				Files.delete(path);
+			}
+			assertThrows(DocumentException.class,
+					() -> ua.readBytes("<html><body></html>".getBytes(StandardCharsets.UTF_8), null));
+		}
+	}
+
+	@Test
+	public void testHTML5Backend() throws Exception {
+		DOM4JUserAgent html5Agent = (DOM4JUserAgent) DOM4JUserAgent
+				.createUserAgent(EnumSet.noneOf(Parser.Flag.class), DOM4JUserAgent.Backend.HTML5);
+		assertEquals(DOM4JUserAgent.Backend.HTML5, html5Agent.getBackend());
+		assertEquals(DOM4JUserAgent.Backend.SAX, agent.getBackend());
+		String html = "<!DOCTYPE html><title>Caf\u00e9</title><style>p{color:blue}</style><p id=\"p1\">One<p>Two";
+		XHTMLDocument xhtmlDoc = html5Agent.parseDocument(new StringReader(html));
+		assertEquals("Caf\u00e9", title(xhtmlDoc));
+		CSSStylableElement body = (CSSStylableElement) xhtmlDoc.getRootElement().element("body");
+		assertEquals(2, body.elements("p").size());
+		assertEquals("#00f", xhtmlDoc.getElementById("p1").getComputedStyle().getPropertyValue("color"));
+		// The encoding is found in the meta element
+		byte[] latin1 = "<!DOCTYPE html><meta charset=\"iso-8859-1\"><title>Caf\u00e9</title><p>Text"
+				.getBytes(StandardCharsets.ISO_8859_1);
+		xhtmlDoc = html5Agent.readBytes(latin1, null);
+		assertEquals("Caf\u00e9", title(xhtmlDoc));
+		// Not well-formed
+		assertThrows(DocumentException.class, () -> agent.parseDocument(new StringReader(html)));
+	}
+
+	@Test
+	public void testBuiltinEntities() throws Exception {
+		assertFalse(agent.isBuiltinEntities());
+		DOM4JUserAgent xpp3Agent = (DOM4JUserAgent) DOM4JUserAgent
+				.createUserAgent(EnumSet.noneOf(Parser.Flag.class), true);
+		String[] doctypes = { "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" "
+				+ "\"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">", "<!DOCTYPE html>" };
+		for (DOM4JUserAgent ua : new DOM4JUserAgent[] { agent, xpp3Agent }) {
+			// The DTD must not be resolved
+			ua.setEntityResolver((publicId, systemId) -> {
+				throw new IllegalStateException("Resolving " + systemId);
+			});
+			ua.setBuiltinEntities(true);
+			assertTrue(ua.isBuiltinEntities());
+			for (String doctype : doctypes) {
+				String html = doctype + "<html xmlns=\"http://www.w3.org/1999/xhtml\"><head>"
+						+ "<title>Caf&eacute;&nbsp;&Omega;&hellip;&amp;&euro;</title></head><body>"
+						+ "<p title=\"Caf&eacute;&nbsp;&amp;&euro;\">x</p></body></html>";
+				XHTMLDocument xhtmlDoc = ua.parseDocument(new StringReader(html));
+				assertEquals("Caf\u00e9\u00a0\u03a9\u2026&\u20ac", title(xhtmlDoc));
+				Element p = xhtmlDoc.getRootElement().element("body").element("p");
+				assertEquals("Caf\u00e9\u00a0&\u20ac", p.attributeValue("title"));
+			}
+		}
+	}
+
+	private static String title(XHTMLDocument xhtmlDoc) {
+		return xhtmlDoc.getRootElement().element("head").element("title").getText();
+	}
+
 	/**
 	 * Test User Agent based on DOM4J document trees.
 	 * <p>
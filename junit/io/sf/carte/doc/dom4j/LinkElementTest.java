@@ -14,16 +14,25 @@ package io.sf.carte.doc.dom4j;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.net.MalformedURLException;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.dom4j.Namespace;
 import org.dom4j.QName;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import io.sf.carte.doc.style.css.nsac.Parser;
+import io.sf.carte.doc.style.css.om.AbstractCSSRule;
 import io.sf.carte.doc.style.css.om.AbstractCSSStyleSheet;
 
 public class LinkElementTest {
@@ -151,4 +160,128 @@ public class LinkElementTest {
 		assertEquals(iniSerial, xDoc.getStyleCacheSerial());
 	}
 
+	@Test
+	public void getSheetCache() {
+		TestDocumentFactory factory = new TestDocumentFactory();
+		LinkedStyleSheetCache cache = new LinkedStyleSheetCache(4);
+		cache.setDefaultFreshness(3600000L);
+		factory.setLinkedStyleSheetCache(cache);
+		assertSame(cache, factory.getLinkedStyleSheetCache());
+
+		LinkElement link1 = createLink(factory, "http://www.example.com/css/common.css", null);
+		AbstractCSSStyleSheet sheet1 = link1.getSheet();
+		assertNotNull(sheet1);
+		assertEquals(3, sheet1.getCssRules().getLength());
+		assertFalse(link1.getOwnerDocument().hasStyleIssues());
+		assertEquals(1, cache.size());
+
+		// Another document linking to the same sheet gets a copy of the rules
+		LinkElement link2 = createLink(factory, "http://www.example.com/css/common.css", null);
+		AbstractCSSStyleSheet sheet2 = link2.getSheet();
+		assertNotNull(sheet2);
+		assertNotSame(sheet1, sheet2);
+		assertSame(link2, sheet2.getOwnerNode());
+		assertEquals(3, sheet2.getCssRules().getLength());
+		for (int i = 0; i < 3; i++) {
+			AbstractCSSRule rule = sheet2.getCssRules().item(i);
+			assertNotSame(sheet1.getCssRules().item(i), rule);
+			assertEquals(sheet1.getCssRules().item(i).getCssText(), rule.getCssText());
+			assertSame(sheet2, rule.getParentStyleSheet());
+		}
+		assertFalse(link2.getOwnerDocument().hasStyleIssues());
+		assertEquals(1, cache.size());
+
+		// Modifying the rules of a document does not affect the others
+		String cssText = sheet1.getCssRules().item(0).getCssText();
+		sheet2.deleteRule(0);
+		assertEquals(2, sheet2.getCssRules().getLength());
+		assertEquals(3, sheet1.getCssRules().getLength());
+		assertEquals(cssText, sheet1.getCssRules().item(0).getCssText());
+		LinkElement link2b = createLink(factory, "http://www.example.com/css/common.css", null);
+		assertEquals(3, link2b.getSheet().getCssRules().getLength());
+		assertEquals(cssText, link2b.getSheet().getCssRules().item(0).getCssText());
+		assertEquals(1, cache.size());
+
+		// Different media
+		LinkElement link3 = createLink(factory, "http://www.example.com/css/common.css", "print");
+		AbstractCSSStyleSheet sheet3 = link3.getSheet();
+		assertNotNull(sheet3);
+		assertEquals(3, sheet3.getCssRules().getLength());
+		assertEquals(2, cache.size());
+
+		// Errors are not cached
+		LinkElement link4 = createLink(factory, "http://www.example.com/css/example.css", null);
+		link4.getSheet();
+		assertTrue(link4.getOwnerDocument().hasStyleIssues());
+		assertEquals(2, cache.size());
+
+		// A factory with different parser flags does not use the same entries
+		TestDocumentFactory factory2 = new TestDocumentFactory(EnumSet.of(Parser.Flag.IEVALUES));
+		factory2.setLinkedStyleSheetCache(cache);
+		LinkElement link5 = createLink(factory2, "http://www.example.com/css/common.css", null);
+		assertEquals(3, link5.getSheet().getCssRules().getLength());
+		assertEquals(3, cache.size());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void getSheetPrefetch() throws InterruptedException {
+		TestDocumentFactory factory = new TestDocumentFactory();
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		AtomicInteger prefetchCount = new AtomicInteger();
+		factory.setStyleSheetExecutor(task -> {
+			prefetchCount.incrementAndGet();
+			pool.execute(task);
+		});
+		try {
+			LinkElement link = createLink(factory, "http://www.example.com/css/common.css", "screen");
+			assertEquals(1, prefetchCount.get());
+			AbstractCSSStyleSheet sheet = link.getSheet();
+			assertNotNull(sheet);
+			assertEquals(3, sheet.getCssRules().getLength());
+			assertFalse(link.getOwnerDocument().hasStyleIssues());
+
+			// Errors are reported to the document
+			link = createLink(factory, "http://www.example.com/css/example.css", null);
+			assertEquals(2, prefetchCount.get());
+			assertTrue(link.getOwnerDocument().getErrorHandler().hasErrors());
+			assertTrue(link.getOwnerDocument().hasStyleIssues());
+
+			// Unauthorized URLs are not prefetched
+			link = createLink(factory, "jar:http://www.example.com/evil.jar!/file", null);
+			assertEquals(2, prefetchCount.get());
+			assertTrue(link.getOwnerDocument().getErrorHandler().hasPolicyErrors());
+
+			// With the sheet cache
+			LinkedStyleSheetCache cache = new LinkedStyleSheetCache(4);
+			cache.setDefaultFreshness(3600000L);
+			factory.setLinkedStyleSheetCache(cache);
+			link = createLink(factory, "http://www.example.com/css/common.css", null);
+			assertEquals(3, link.getSheet().getCssRules().getLength());
+			assertEquals(1, cache.size());
+			LinkElement link2 = createLink(factory, "http://www.example.com/css/common.css", null);
+			assertSame(link.getSheet().getCssRules().item(0), link2.getSheet().getCssRules().item(0));
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
+
+	private static LinkElement createLink(XHTMLDocumentFactory factory, String href, String media) {
+		HeadElement head = (HeadElement) factory.createElement("head", XHTMLDocument.XHTML_NAMESPACE_URI);
+		XHTMLDocument doc = factory.createDocument(head);
+		QName qname = new QName("link", new Namespace("", XHTMLDocument.XHTML_NAMESPACE_URI));
+		qname.setDocumentFactory(factory);
+		LinkElement link = (LinkElement) head.addElement(qname);
+		link.addAttribute("rel", "stylesheet");
+		if (media != null) {
+			link.addAttribute("media", media);
+		}
+		link.addAttribute("href", href);
+		doc.getStyleSheet();
+		return link;
+	}
+
 }
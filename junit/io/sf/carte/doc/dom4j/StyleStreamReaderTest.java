@@ -0,0 +1,181 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.dom4j.Element;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.InputSource;
+
+import io.sf.carte.doc.style.css.om.ComputedCSSStyle;
+
+public class StyleStreamReaderTest {
+
+	@Test
+	public void testRead() throws Exception {
+		String html = createDocument("li{color:blue} .x li{margin-left:4px} ul>li span{font-weight:bold}");
+		HashMap<String, String> expected = computeStyles(html);
+		HashMap<String, String> streamed = new HashMap<>();
+		HashMap<String, String> paths = new HashMap<>();
+		StyleStreamReader reader = new StyleStreamReader(createFactory());
+		XHTMLDocument doc = reader.read(new InputSource(new StringReader(html)), (path, element, style) -> {
+			assertSame(element, style.getOwnerNode());
+			String id = element.getAttributeValue("id");
+			if (id != null) {
+				assertNull(streamed.put(id, style.getCssText()));
+				paths.put(id, path);
+			}
+		});
+		assertEquals(expected, streamed);
+		assertEquals("/html[1]/body[1]/ul[2]/li[3]", paths.get("b3"));
+		assertEquals("/html[1]/body[1]/ul[1]/li[1]/span[1]", paths.get("s1"));
+		// Only the style definers and their ancestors are left
+		assertNotNull(doc.getElementById("sheet"));
+		assertNull(doc.getElementById("a1"));
+		assertEquals(1, doc.getRootElement().elements().size());
+	}
+
+	@Test
+	public void testReadStructural() throws Exception {
+		String html = createDocument(
+				"li{color:blue} li+li{margin-left:4px} li:first-child{margin-right:3px} p~ul li:nth-child(2n){color:red}");
+		HashMap<String, String> expected = computeStyles(html);
+		HashMap<String, String> streamed = new HashMap<>();
+		StyleStreamReader reader = new StyleStreamReader(createFactory());
+		reader.read(new InputSource(new StringReader(html)), (path, element, style) -> {
+			String id = element.getAttributeValue("id");
+			if (id != null) {
+				streamed.put(id, style.getCssText());
+				if ("b5".equals(id)) {
+					// The general sibling combinator keeps the finished siblings as stubs
+					List<Element> siblings = element.getParent().elements();
+					assertEquals(5, siblings.size());
+					assertEquals(0, siblings.get(0).nodeCount());
+				}
+			}
+		});
+		assertEquals(expected, streamed);
+		assertTrue(streamed.get("b2").contains("color: #f00"));
+
+		// Same results with the ancestor filter
+		HashMap<String, String> filtered = new HashMap<>();
+		reader.setAncestorFilterEnabled(true);
+		reader.read(new InputSource(new StringReader(html)), (path, element, style) -> {
+			String id = element.getAttributeValue("id");
+			if (id != null) {
+				filtered.put(id, style.getCssText());
+			}
+		});
+		assertEquals(expected, filtered);
+	}
+
+	@Test
+	public void testReadInheritance() throws Exception {
+		/*
+		 * The style of the list is computed when its first item ends, and is then
+		 * both inherited by the items and reported for the list.
+		 */
+		String html = "<html><head><style>ul:has(li+li){color:red}</style></head><body><ul id=\"u\">"
+				+ "<li id=\"l1\">One</li><li id=\"l2\">Two</li></ul></body></html>";
+		HashMap<String, ComputedCSSStyle> streamed = new HashMap<>();
+		StyleStreamReader reader = new StyleStreamReader(createFactory());
+		reader.read(new InputSource(new StringReader(html)), (path, element, style) -> {
+			String id = element.getAttributeValue("id");
+			if (id != null) {
+				streamed.put(id, style);
+			}
+		});
+		String color = streamed.get("u").getPropertyValue("color");
+		assertEquals(color, streamed.get("l1").getPropertyValue("color"));
+		assertEquals(color, streamed.get("l2").getPropertyValue("color"));
+	}
+
+	@Test
+	public void testReadFollowingSiblings() throws Exception {
+		String html = "<html><head><style>li:last-child{color:red} li:only-child{color:green}"
+				+ " li+li{margin-left:4px} p:last-of-type{margin-right:2px} span:only-of-type{margin-top:3px}"
+				+ " li:nth-last-child(1){margin-bottom:5px}</style></head><body><ul><li id=\"l1\">One</li>"
+				+ "<li id=\"l2\">Two</li><li id=\"l3\">Three</li></ul><div id=\"d\"><p id=\"p1\">P1</p>"
+				+ "<span id=\"t1\">T1</span><p id=\"p2\">P2</p><em id=\"e1\">E1</em></div>"
+				+ "<ol id=\"o\"><li id=\"o1\">Only</li></ol></body></html>";
+		HashMap<String, String> expected = computeStyles(html);
+		HashMap<String, String> streamed = new HashMap<>();
+		ArrayList<String> order = new ArrayList<>();
+		StyleStreamReader reader = new StyleStreamReader(createFactory());
+		reader.read(new InputSource(new StringReader(html)), (path, element, style) -> {
+			String id = element.getAttributeValue("id");
+			if (id != null) {
+				streamed.put(id, style.getCssText());
+				order.add(id);
+				if ("l3".equals(id)) {
+					// Only the previous sibling is kept
+					assertEquals(2, element.getParent().elements().size());
+				}
+			}
+		});
+		assertEquals(expected, streamed);
+		assertTrue(streamed.get("l3").contains("color: #f00"));
+		assertFalse(streamed.get("l2").contains("color: #f00"));
+		assertTrue(streamed.get("p2").contains("margin-right: 2px"));
+		assertFalse(streamed.get("p1").contains("margin-right: 2px"));
+		assertTrue(streamed.get("t1").contains("margin-top: 3px"));
+		// Siblings wait for the following siblings of the same type
+		assertEquals(Arrays.asList("l1", "l2", "l3", "p1", "t1", "p2", "e1", "o1", "d", "o"), order);
+	}
+
+	private static XHTMLDocumentFactory createFactory() {
+		TestDocumentFactory factory = new TestDocumentFactory();
+		factory.getStyleSheetFactory().setDefaultHTMLUserAgentSheet();
+		return factory;
+	}
+
+	private static String createDocument(String sheet) {
+		StringBuilder buf = new StringBuilder(1024);
+		buf.append("<html><head><title>Stream</title><style id=\"sheet\">").append(sheet)
+				.append("</style></head><body><ul class=\"x\">");
+		for (int i = 1; i <= 5; i++) {
+			buf.append("<li id=\"a").append(i).append("\">Item <span id=\"s").append(i).append("\">").append(i)
+					.append("</span></li>");
+		}
+		buf.append("</ul><p id=\"p1\">Text</p><ul>");
+		for (int i = 1; i <= 5; i++) {
+			buf.append("<li id=\"b").append(i).append("\">Item ").append(i).append("</li>");
+		}
+		buf.append("</ul></body></html>");
+		return buf.toString();
+	}
+
+	private static HashMap<String, String> computeStyles(String html) throws Exception {
+		HashMap<String, String> styles = new HashMap<>();
+		XHTMLDocument doc = TestUtil.parseXML(new InputSource(new StringReader(html)));
+		doc.computeStyles((element, style) -> {
+			String id = element.getAttributeValue("id");
+			if (id != null) {
+				styles.put(id, style.getCssText());
+			}
+		});
+		return styles;
+	}
+
+}
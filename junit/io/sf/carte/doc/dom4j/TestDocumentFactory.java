@@ -15,6 +15,7 @@ import java.io.IOException;
 import java.io.Reader;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.EnumSet;
 
 import org.dom4j.DocumentException;
 import org.dom4j.dom.DOMDocumentType;
@@ -24,6 +25,7 @@ import org.xml.sax.ErrorHandler;
 
 import io.sf.carte.doc.agent.MockURLConnectionFactory;
 import io.sf.carte.doc.style.css.StyleDatabase;
+import io.sf.carte.doc.style.css.nsac.Parser;
 import io.sf.carte.doc.style.css.om.DummyDeviceFactory;
 import io.sf.carte.doc.style.css.om.TestStyleDatabase;
 import nu.validator.htmlparser.common.XmlViolationPolicy;
@@ -48,6 +50,11 @@ public class TestDocumentFactory extends XHTMLDocumentFactory {
 		getStyleSheetFactory().setDeviceFactory(new TestDeviceFactory());
 	}
 
+	public TestDocumentFactory(EnumSet<Parser.Flag> flags) {
+		super(flags);
+		getStyleSheetFactory().setDeviceFactory(new TestDeviceFactory());
+	}
+
 	public MockURLConnectionFactory getConnectionFactory() {
 		return urlFactory;
 	}
@@ -12,16 +12,29 @@
 package io.sf.carte.doc.dom4j;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.URI;
 import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import org.dom4j.Attribute;
+import org.dom4j.Namespace;
+import org.dom4j.QName;
 import org.dom4j.io.SAXReader;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -59,6 +72,119 @@ public class XHTMLDocumentFactoryTest {
 		assertEquals(CSSDocument.ComplianceMode.STRICT, document.getComplianceMode());
 	}
 
+	@Test
+	public void testRegisterCreator() throws Exception {
+		TestDocumentFactory factory = new TestDocumentFactory();
+		factory.registerElementCreator("Section", SectionElement::new);
+		factory.registerAttributeCreator("data-x", DocumentStyleEventAttribute::new);
+		SAXReader reader = new SAXReader(factory);
+		XHTMLDocument doc = (XHTMLDocument) reader.read(new StringReader(
+				"<html xmlns=\"http://www.w3.org/1999/xhtml\" xml:base=\"http://www.example.com/\"><head>"
+						+ "<style>p{color:blue}</style></head><body><section data-x=\"1\"><p>x</p></section>"
+						+ "<SECTION/></body></html>"));
+		CSSStylableElement root = (CSSStylableElement) doc.getRootElement();
+		Attribute base = root.attribute(QName.get("base", Namespace.XML_NAMESPACE));
+		assertTrue(base instanceof BaseAttribute);
+		assertTrue(root.element("head").element("style") instanceof StyleElement);
+		CSSStylableElement body = (CSSStylableElement) root.element("body");
+		assertTrue(body.element("section") instanceof SectionElement);
+		assertTrue(body.element("SECTION") instanceof SectionElement);
+		assertTrue(body.element("section").attribute("data-x") instanceof DocumentStyleEventAttribute);
+		assertSame(XHTMLElement.class, body.element("section").element("p").getClass());
+		// Restore the defaults
+		factory.registerElementCreator("section", null);
+		factory.registerElementCreator("style", null);
+		assertSame(XHTMLElement.class, factory.createElement("section").getClass());
+		assertTrue(factory.createElement("style") instanceof StyleElement);
+		assertSame(XHTMLElement.class, XHTMLDocumentFactory.getInstance().createElement("section").getClass());
+	}
+
+	@Test
+	public void testFlyweightSelectorMatchers() throws Exception {
+		String html = "<html xmlns=\"http://www.w3.org/1999/xhtml\"><head><style>div p{color:blue}"
+				+ "p:first-child{margin-left:4px}li+li{color:red}</style></head><body><div><p>x</p><p>y</p></div>"
+				+ "<p>z</p><ul><li>1</li><li>2</li></ul></body></html>";
+		TestDocumentFactory factory = new TestDocumentFactory();
+		assertFalse(factory.isFlyweightSelectorMatchers());
+		SAXReader reader = new SAXReader(factory);
+		XHTMLDocument doc = (XHTMLDocument) reader.read(new StringReader(html));
+		List<String> styles = new ArrayList<>();
+		doc.computeStyles((element, style) -> styles.add(style.getCssText()));
+		CSSStylableElement body = (CSSStylableElement) doc.getRootElement().element("body");
+		assertSame(body.getSelectorMatcher(), body.getSelectorMatcher());
+
+		factory.setFlyweightSelectorMatchers(true);
+		doc = (XHTMLDocument) reader.read(new StringReader(html));
+		body = (CSSStylableElement) doc.getRootElement().element("body");
+		assertNotSame(body.getSelectorMatcher(), body.getSelectorMatcher());
+		Iterator<String> it = styles.iterator();
+		doc.computeStyles((element, style) -> assertEquals(it.next(), style.getCssText()));
+		assertFalse(it.hasNext());
+		assertTrue(((CSSStylableElement) body.element("div").element("p")).matches("div>p:first-child", null));
+		assertFalse(((CSSStylableElement) body.element("p")).matches("div p", null));
+
+		// Concurrent styling with the ancestor filter
+		assertFalse(doc.isAncestorFilterEnabled());
+		doc.setAncestorFilterEnabled(true);
+		List<String> parallelStyles = new ArrayList<>();
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			doc.computeStyles((element, style) -> {
+				synchronized (parallelStyles) {
+					parallelStyles.add(style.getCssText());
+				}
+			}, pool);
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(styles.size(), parallelStyles.size());
+		assertTrue(parallelStyles.containsAll(styles));
+	}
+
+	@Test
+	public void testInlineStyleInterning() throws Exception {
+		TestDocumentFactory factory = new TestDocumentFactory();
+		assertFalse(factory.isInlineStyleInterning());
+		factory.setInlineStyleInterning(true);
+		SAXReader reader = new SAXReader(factory);
+		XHTMLDocument doc = (XHTMLDocument) reader.read(new StringReader(
+				"<html xmlns=\"http://www.w3.org/1999/xhtml\"><body><p style=\"margin-left:4px\">1</p>"
+						+ "<p style=\"margin-left:4px\">2</p><p style=\"margin-left:4px\">3</p></body></html>"));
+		List<CSSStylableElement> paras = new ArrayList<>();
+		doc.computeStyles((element, style) -> {
+			if ("p".equals(element.getName())) {
+				assertEquals("4px", style.getPropertyValue("margin-left"));
+				paras.add(element);
+			}
+		});
+		assertEquals(3, paras.size());
+		StyleAttribute attr2 = (StyleAttribute) paras.get(1).attribute("style");
+		StyleAttribute attr3 = (StyleAttribute) paras.get(2).attribute("style");
+		assertSame(attr2.getStyleForReading(), attr3.getStyleForReading());
+
+		// Copy on write
+		paras.get(1).getStyle().setCssText("margin-left:6px");
+		assertNotSame(attr2.getStyleForReading(), attr3.getStyleForReading());
+		assertEquals("6px", paras.get(1).getComputedStyle().getPropertyValue("margin-left"));
+		assertEquals("4px", paras.get(2).getComputedStyle().getPropertyValue("margin-left"));
+		paras.get(2).setAttribute("style", "margin-left:5px");
+		assertEquals("5px", paras.get(2).getComputedStyle().getPropertyValue("margin-left"));
+		assertEquals("4px", paras.get(0).getComputedStyle().getPropertyValue("margin-left"));
+
+		factory.setInlineStyleInterning(false);
+		assertNull(factory.getInternedInlineStyle("margin-left:4px"));
+	}
+
+	static class SectionElement extends XHTMLElement {
+
+		private static final long serialVersionUID = 1L;
+
+		SectionElement(QName qname, int attributeCount) {
+			super(qname, attributeCount);
+		}
+
+	}
+
 	@Test
 	public void testGetRootElement() {
 		assertEquals("html", xhtmlDoc.getRootElement().getName());
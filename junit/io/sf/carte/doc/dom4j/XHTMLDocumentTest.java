@@ -15,6 +15,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -24,10 +25,17 @@ import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.w3c.dom.DOMException;
 import org.w3c.dom.DOMStringList;
 import org.w3c.dom.DocumentType;
 import org.w3c.dom.Element;
@@ -317,6 +325,354 @@ public class XHTMLDocumentTest {
 		assertEquals("  foo  bar  ", style.getPropertyValue("content"));
 	}
 
+	@Test
+	public void testComputeStyles() {
+		IdentityHashMap<CSSStylableElement, ComputedCSSStyle> styles = new IdentityHashMap<>();
+		xhtmlDoc.computeStyles((element, style) -> {
+			assertNotNull(style);
+			assertSame(element, style.getOwnerNode());
+			// Document order: the parent must have been visited before
+			org.dom4j.Element parent = element.getParent();
+			if (parent != null) {
+				assertSame(styles.get(parent), style.getParentComputedStyle());
+			} else {
+				assertNull(style.getParentComputedStyle());
+			}
+			assertNull(styles.put(element, style));
+		});
+		assertEquals(xhtmlDoc.getElementsByTagName("*").getLength(), styles.size());
+		XHTMLElement elm = xhtmlDoc.getElementById("tablerow1");
+		assertEquals(elm.getComputedStyle().getCssText(), styles.get(elm).getCssText());
+		elm = xhtmlDoc.getElementById("firstH3");
+		assertEquals(elm.getComputedStyle().getCssText(), styles.get(elm).getCssText());
+	}
+
+	@Test
+	public void testComputeStylesAncestorFilter() throws IOException {
+		xhtmlDoc.addStyleSheet(new InputSource(new StringReader(
+				"body .foo, table td, ul>li a, #tablerow1 td, .nosuchclass p, html div.nosuch span, p+ul li {color:#123}")));
+		assertFalse(xhtmlDoc.isAncestorFilterEnabled());
+		IdentityHashMap<CSSStylableElement, String> styles = new IdentityHashMap<>();
+		xhtmlDoc.computeStyles((element, style) -> styles.put(element, style.getCssText()));
+		xhtmlDoc.setAncestorFilterEnabled(true);
+		xhtmlDoc.computeStyles((element, style) -> assertEquals(styles.get(element), style.getCssText()));
+	}
+
+	@Test
+	public void testComputeStylesAncestorFilterSiblings() throws Exception {
+		String html = "<html><head><style>p~ul li{color:red} h1+div p~ul>li{margin-left:4px}</style></head>"
+				+ "<body><h1>Title</h1><div><p>Text</p><ul><li>One</li><li>Two</li></ul></div></body></html>";
+		XHTMLDocument doc = TestUtil.parseXML(new org.xml.sax.InputSource(new StringReader(html)));
+		IdentityHashMap<CSSStylableElement, String> styles = new IdentityHashMap<>();
+		doc.computeStyles((element, style) -> styles.put(element, style.getCssText()));
+		doc.setAncestorFilterEnabled(true);
+		doc.computeStyles((element, style) -> {
+			assertEquals(styles.get(element), style.getCssText());
+			if ("li".equals(element.getName())) {
+				assertEquals("#f00", style.getPropertyValue("color"));
+				assertEquals("4px", style.getPropertyValue("margin-left"));
+			}
+		});
+	}
+
+	@Test
+	public void testComputedStyleRuleIndex() throws IOException {
+		XHTMLElement elm = xhtmlDoc.getElementById("tablerow1");
+		String cssText = elm.getComputedStyle().getCssText();
+		xhtmlDoc.addStyleSheet(new InputSource(new StringReader(
+				"p, .nosuchclass, #nosuchid {margin-left:23px}")));
+		assertEquals(cssText, elm.getComputedStyle().getCssText());
+		// Rules added after the index was built
+		xhtmlDoc.addStyleSheet(new InputSource(new StringReader(
+				"p, .nosuchclass, #tablerow1 {margin-left:23px}")));
+		assertEquals("23px", elm.getComputedStyle().getPropertyValue("margin-left"));
+		DocumentCSSStyleSheet sheet = xhtmlDoc.getStyleSheet();
+		sheet.insertRule("tr.nosuchclass, tr {padding-left:17px}", sheet.getCssRules().getLength());
+		assertEquals("17px", elm.getComputedStyle().getPropertyValue("padding-left"));
+	}
+
+	@Test
+	public void testCloneTemplate() {
+		xhtmlDoc.setStyleCache(true);
+		XHTMLElement elm = xhtmlDoc.getElementById("tablerow1");
+		elm.setAttribute("style", "margin-left:7px");
+		List<String> styles = new ArrayList<>();
+		xhtmlDoc.computeStyles((element, style) -> styles.add(style.getCssText()));
+		StyleElement styleElm = (StyleElement) xhtmlDoc.getElementsByTagName("style").item(0);
+		AbstractCSSStyleSheet sheet = styleElm.getSheet();
+		int ruleCount = sheet.getCssRules().getLength();
+		assertTrue(ruleCount > 0);
+
+		XHTMLDocument clone = xhtmlDoc.cloneTemplate();
+		assertTrue(clone.isStyleCacheOn());
+		assertEquals(xhtmlDoc.getDocumentURI(), clone.getDocumentURI());
+		Iterator<String> it = styles.iterator();
+		clone.computeStyles((element, style) -> {
+			assertSame(clone, element.getOwnerDocument());
+			assertSame(element, style.getOwnerNode());
+			assertEquals(it.next(), style.getCssText());
+		});
+		assertFalse(it.hasNext());
+
+		// The sheet rules are shared
+		StyleElement cloneStyleElm = (StyleElement) clone.getElementsByTagName("style").item(0);
+		AbstractCSSStyleSheet cloneSheet = cloneStyleElm.getSheet();
+		assertSame(cloneStyleElm, cloneSheet.getOwnerNode());
+		assertEquals(ruleCount, cloneSheet.getCssRules().getLength());
+		assertSame(sheet.getCssRules().item(0), cloneSheet.getCssRules().item(0));
+
+		// Modifying the copy does not modify the template
+		XHTMLElement cloneElm = clone.getElementById("tablerow1");
+		assertEquals("7px", cloneElm.getComputedStyle().getPropertyValue("margin-left"));
+		cloneElm.setAttribute("style", "margin-left:9px");
+		assertEquals("9px", cloneElm.getComputedStyle().getPropertyValue("margin-left"));
+		assertEquals("7px", elm.getComputedStyle().getPropertyValue("margin-left"));
+		assertEquals("7px", elm.getStyle().getPropertyValue("margin-left"));
+
+		cloneStyleElm.setTextContent("p{margin-left:3px}");
+		assertEquals(1, cloneStyleElm.getSheet().getCssRules().getLength());
+		assertEquals(ruleCount, styleElm.getSheet().getCssRules().getLength());
+		assertEquals("7px", elm.getComputedStyle().getPropertyValue("margin-left"));
+	}
+
+	@Test
+	public void testComputeStylesInterning() {
+		assertFalse(xhtmlDoc.isComputedStyleInterning());
+		IdentityHashMap<CSSStylableElement, String> styles = new IdentityHashMap<>();
+		xhtmlDoc.computeStyles((element, style) -> styles.put(element, style.getCssText()));
+		xhtmlDoc.setComputedStyleInterning(true);
+		IdentityHashMap<ComputedCSSStyle, Boolean> instances = new IdentityHashMap<>();
+		xhtmlDoc.computeStyles((element, style) -> {
+			assertEquals(styles.get(element), style.getCssText());
+			instances.put(style, Boolean.TRUE);
+		});
+		assertTrue(instances.size() < styles.size());
+		// Parallel
+		IdentityHashMap<ComputedCSSStyle, Boolean> parallelInstances = new IdentityHashMap<>();
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			xhtmlDoc.computeStyles((element, style) -> {
+				assertEquals(styles.get(element), style.getCssText());
+				synchronized (parallelInstances) {
+					parallelInstances.put(style, Boolean.TRUE);
+				}
+			}, pool);
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(instances.size(), parallelInstances.size());
+
+		// The cached styles belong to their elements
+		xhtmlDoc.setStyleCache(true);
+		IdentityHashMap<ComputedCSSStyle, Boolean> cachedInstances = new IdentityHashMap<>();
+		xhtmlDoc.computeStyles((element, style) -> {
+			assertEquals(styles.get(element), style.getCssText());
+			cachedInstances.put(style, Boolean.TRUE);
+		});
+		assertEquals(instances.size(), cachedInstances.size());
+		for (CSSStylableElement element : styles.keySet()) {
+			ComputedCSSStyle style = element.getComputedStyle();
+			assertSame(element, style.getOwnerNode());
+			assertEquals(styles.get(element), style.getCssText());
+			// The children inherit from the style of their own parent
+			if (element.getParent() instanceof CSSStylableElement) {
+				assertSame(((CSSStylableElement) element.getParent()).getComputedStyle(),
+						style.getParentComputedStyle());
+			}
+		}
+	}
+
+	@Test
+	public void testMemoryReport() {
+		MemoryReport report = xhtmlDoc.memoryReport();
+		int elementCount = xhtmlDoc.getElementsByTagName("*").getLength();
+		assertEquals(elementCount, report.getElementCount());
+		assertTrue(report.getElementBytes() > 0);
+		assertTrue(report.getAttributeCount() > 0);
+		assertEquals(0, report.getComputedStyleCount());
+		assertEquals(0, report.getMergedStyleSheetBytes());
+		long total = report.getTotalBytes();
+
+		xhtmlDoc.setStyleCache(true);
+		xhtmlDoc.computeStyles((element, style) -> {
+		});
+		report = xhtmlDoc.memoryReport();
+		assertEquals(elementCount, report.getElementCount());
+		assertEquals(elementCount, report.getComputedStyleCount());
+		assertTrue(report.getComputedStyleBytes() > 0);
+		assertTrue(report.getStyleSheetCount() > 0);
+		assertTrue(report.getStyleSheetBytes() > 0);
+		assertTrue(report.getMergedStyleSheetBytes() > 0);
+		assertTrue(report.getTotalBytes() > total);
+		assertTrue(report.toString().contains("Computed styles: " + elementCount));
+		assertEquals(0, report.getInternedStyleCount());
+		total = report.getTotalBytes();
+
+		// The elements keep caching their own styles
+		xhtmlDoc.setComputedStyleInterning(true);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			xhtmlDoc.computeStyles((element, style) -> {
+			}, pool);
+		} finally {
+			pool.shutdown();
+		}
+		report = xhtmlDoc.memoryReport();
+		assertEquals(elementCount, report.getComputedStyleCount());
+		assertTrue(report.getInternedStyleCount() > 0);
+		assertTrue(report.getInternedStyleCount() < elementCount);
+		assertTrue(report.getInternedStyleTableBytes() > 0);
+		// The parallel styling builds the child element indexes
+		assertTrue(report.getChildIndexCount() > 0);
+		assertTrue(report.getChildIndexBytes() > 0);
+		assertTrue(report.getTotalBytes() > total);
+	}
+
+	@Test
+	public void testComputeStylesSharing() throws IOException {
+		assertFalse(xhtmlDoc.isStyleSharingEnabled());
+		IdentityHashMap<CSSStylableElement, String> styles = new IdentityHashMap<>();
+		xhtmlDoc.computeStyles((element, style) -> styles.put(element, style.getCssText()));
+		xhtmlDoc.setStyleSharingEnabled(true);
+		xhtmlDoc.computeStyles((element, style) -> {
+			assertSame(element, style.getOwnerNode());
+			assertEquals(styles.get(element), style.getCssText());
+		});
+	}
+
+	@Test
+	public void testComputeStylesSharingSiblings() throws Exception {
+		StringBuilder buf = new StringBuilder(512);
+		buf.append("<!DOCTYPE html><html><head><style>li{color:blue} .x li{margin-left:4px}</style></head>");
+		buf.append("<body><ul class=\"x\">");
+		for (int i = 0; i < 6; i++) {
+			buf.append("<li class=\"item\">Item</li>");
+		}
+		buf.append("</ul><ul>");
+		for (int i = 0; i < 6; i++) {
+			buf.append("<li class=\"item\">Item</li>");
+		}
+		buf.append("</ul></body></html>");
+		XHTMLDocument doc = TestUtil.parseXML(new org.xml.sax.InputSource(new StringReader(buf.toString())));
+		doc.setStyleSharingEnabled(true);
+		doc.computeStyles((element, style) -> {
+			assertEquals(element.getComputedStyle().getCssText(), style.getCssText());
+			if ("li".equals(element.getName())) {
+				assertEquals("#00f", style.getPropertyValue("color"));
+				if ("x".equals(element.getParent().attributeValue("class"))) {
+					assertEquals("4px", style.getPropertyValue("margin-left"));
+				}
+			}
+		});
+
+		// A sibling combinator set through the object model prevents sharing
+		CSSRuleArrayList rules = (CSSRuleArrayList) doc.getStyleSheet().getCssRules();
+		for (AbstractCSSRule rule : rules) {
+			if (rule instanceof StyleRule && ".x li".equals(((StyleRule) rule).getSelectorText())) {
+				((StyleRule) rule).setSelectorText("li+li");
+			}
+		}
+		doc.computeStyles((element, style) -> {
+			if ("li".equals(element.getName())) {
+				boolean first = element.getParent().elements().get(0) == element;
+				assertEquals(!first, "4px".equals(style.getPropertyValue("margin-left")));
+			}
+		});
+
+		// Sibling combinators prevent sharing
+		doc.addStyleSheet(new InputSource(new StringReader("li+li{color:red}")));
+		doc.computeStyles((element, style) -> {
+			if ("li".equals(element.getName())) {
+				String color = element.getParent().elements().get(0) == element ? "#00f" : "#f00";
+				assertEquals(color, style.getPropertyValue("color"));
+			}
+		});
+	}
+
+	@Test
+	public void testComputeStylesParallel() {
+		IdentityHashMap<CSSStylableElement, String> styles = new IdentityHashMap<>();
+		xhtmlDoc.computeStyles((element, style) -> styles.put(element, style.getCssText()));
+		Map<CSSStylableElement, String> parallelStyles = Collections.synchronizedMap(new IdentityHashMap<>());
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			xhtmlDoc.computeStyles((element, style) -> {
+				assertSame(element, style.getOwnerNode());
+				assertNull(parallelStyles.put(element, style.getCssText()));
+			}, pool);
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(styles, parallelStyles);
+	}
+
+	@Test
+	public void testFreeze() throws Exception {
+		xhtmlDoc.setStyleCache(true);
+		IdentityHashMap<CSSStylableElement, String> styles = new IdentityHashMap<>();
+		xhtmlDoc.computeStyles((element, style) -> styles.put(element, style.getCssText()));
+		assertFalse(xhtmlDoc.isFrozen());
+		xhtmlDoc.freeze();
+		assertTrue(xhtmlDoc.isFrozen());
+		assertFalse(xhtmlDoc.isStyleCacheOn());
+
+		XHTMLElement elm = xhtmlDoc.getElementById("tablerow1");
+		DOMException ex = assertThrows(DOMException.class, () -> elm.setAttribute("class", "foo"));
+		assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, ex.code);
+		ex = assertThrows(DOMException.class, () -> elm.setAttribute("style", "color: red"));
+		assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, ex.code);
+		ex = assertThrows(DOMException.class, () -> elm.appendChild(xhtmlDoc.createElement("td")));
+		assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, ex.code);
+		ex = assertThrows(DOMException.class, () -> elm.getParentNode().removeChild(elm));
+		assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, ex.code);
+		ex = assertThrows(DOMException.class, () -> xhtmlDoc.setTargetMedium("print"));
+		assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, ex.code);
+		ex = assertThrows(DOMException.class, () -> ((CSSStylableElement) elm).getOverrideStyle(null));
+		assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, ex.code);
+		assertFalse(((CSSStylableElement) elm).hasOverrideStyle(null));
+		org.dom4j.Node comment = xhtmlDoc.getDocumentFactory().createComment("comment");
+		ex = assertThrows(DOMException.class, () -> xhtmlDoc.add(comment));
+		assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, ex.code);
+		ex = assertThrows(DOMException.class, () -> xhtmlDoc.remove(xhtmlDoc.getRootElement()));
+		assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, ex.code);
+		assertSame(elm, xhtmlDoc.getElementById("tablerow1"));
+
+		// The styles were computed when the document was frozen
+		CSSStylableElement row = (CSSStylableElement) elm;
+		ComputedCSSStyle rowStyle = row.getComputedStyle();
+		assertSame(rowStyle, row.getComputedStyle());
+		assertSame(row, rowStyle.getOwnerNode());
+		assertSame(((CSSStylableElement) row.getParent()).getComputedStyle(), rowStyle.getParentComputedStyle());
+		assertSame(rowStyle, row.getComputedStyle(null));
+		// Pseudo-element styles are computed once
+		ComputedCSSStyle beforeStyle = row.getComputedStyle("::before");
+		assertNotNull(beforeStyle);
+		assertSame(beforeStyle, row.getComputedStyle("::before"));
+
+		// Concurrent queries
+		List<CSSStylableElement> elements = new ArrayList<>(styles.keySet());
+		Map<CSSStylableElement, String> frozenStyles = Collections.synchronizedMap(new IdentityHashMap<>());
+		Map<CSSStylableElement, Boolean> matches = Collections.synchronizedMap(new IdentityHashMap<>());
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			pool.submit(() -> elements.parallelStream().forEach(element -> {
+				frozenStyles.put(element, element.getComputedStyle().getCssText());
+				matches.put(element, element.matches("body *", null));
+			})).get();
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(styles, frozenStyles);
+		for (CSSStylableElement element : elements) {
+			assertEquals(element.matches("body *", null), matches.get(element));
+		}
+
+		// A copy can be modified
+		XHTMLDocument copy = xhtmlDoc.cloneTemplate();
+		assertFalse(copy.isFrozen());
+		copy.getElementById("tablerow1").setAttribute("class", "foo");
+	}
+
 	@Test
 	public void getOverrideStyle() {
 		Element elm = xhtmlDoc.getElementById("tablerow1");
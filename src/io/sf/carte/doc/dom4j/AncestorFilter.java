@@ -0,0 +1,342 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.util.IdentityHashMap;
+
+import io.sf.carte.doc.style.css.nsac.AttributeCondition;
+import io.sf.carte.doc.style.css.nsac.CombinatorCondition;
+import io.sf.carte.doc.style.css.nsac.CombinatorSelector;
+import io.sf.carte.doc.style.css.nsac.Condition;
+import io.sf.carte.doc.style.css.nsac.ConditionalSelector;
+import io.sf.carte.doc.style.css.nsac.ElementSelector;
+import io.sf.carte.doc.style.css.nsac.Selector;
+import io.sf.carte.doc.style.css.nsac.SimpleSelector;
+
+/**
+ * Counting Bloom filter with the tag names, identifiers and classes of the
+ * ancestors of the element being styled.
+ * <p>
+ * It is maintained by a cascade that walks the tree (adding each element before
+ * descending to its children, and removing it afterwards), and allows the
+ * selector matcher to reject selectors that require an ancestor that cannot be
+ * present, without walking up the ancestor chain.
+ * </p>
+ * <p>
+ * All the hashes are case-insensitive, so the filter gives the same answers in
+ * quirks and strict mode. False positives are possible (and harmless), false
+ * negatives are not.
+ * </p>
+ */
+final class AncestorFilter {
+
+	private static final int SIZE_BITS = 12;
+
+	private static final int MASK = (1 << SIZE_BITS) - 1;
+
+	private static final int TAG_SALT = 0x2b;
+
+	private static final int ID_SALT = 0x3d;
+
+	private static final int CLASS_SALT = 0x59;
+
+	private static final int[] NO_HASHES = new int[0];
+
+	private final byte[] counters;
+
+	/*
+	 * Ancestor hashes required by the selectors of the style sheet, which are
+	 * never modified and thus shared by all the copies of this filter.
+	 */
+	private final IdentityHashMap<Selector, int[]> sheetHashes;
+
+	/*
+	 * Ancestor hashes required by other selectors, lazily computed. Each copy
+	 * starts with none.
+	 */
+	private IdentityHashMap<Selector, int[]> selectorHashes = null;
+
+	/**
+	 * Construct a filter that computes the hashes of each selector when it is
+	 * first seen.
+	 */
+	AncestorFilter() {
+		this(new IdentityHashMap<>(0));
+	}
+
+	/**
+	 * Construct a filter that uses the given precomputed selector hashes.
+	 * 
+	 * @param sheetHashes the hashes of the selectors of the style sheet, as
+	 *                    returned by {@link RuleIndex#getAncestorHashes()}. They
+	 *                    are not modified.
+	 */
+	AncestorFilter(IdentityHashMap<Selector, int[]> sheetHashes) {
+		super();
+		counters = new byte[1 << SIZE_BITS];
+		this.sheetHashes = sheetHashes;
+	}
+
+	private AncestorFilter(AncestorFilter copied) {
+		super();
+		counters = copied.counters.clone();
+		sheetHashes = copied.sheetHashes;
+	}
+
+	/**
+	 * Create a copy of this filter, with the same ancestors.
+	 * <p>
+	 * The copy can be used by a different thread than this filter. Only the
+	 * counters are copied, the precomputed selector hashes are shared.
+	 * </p>
+	 * 
+	 * @return the copy.
+	 */
+	AncestorFilter copy() {
+		return new AncestorFilter(this);
+	}
+
+	/**
+	 * Add an element that is going to be an ancestor of the next elements to be
+	 * matched.
+	 * 
+	 * @param element the element.
+	 */
+	void push(CSSStylableElement element) {
+		update(element, 1);
+	}
+
+	/**
+	 * Remove an element that was added with {@link #push(CSSStylableElement)}.
+	 * 
+	 * @param element the element.
+	 */
+	void pop(CSSStylableElement element) {
+		update(element, -1);
+	}
+
+	private void update(CSSStylableElement element, int delta) {
+		String name = element.getName();
+		updateHash(hash(TAG_SALT, name, 0, name.length()), delta);
+		String id = element.getId();
+		if (id.length() != 0) {
+			updateHash(hash(ID_SALT, id, 0, id.length()), delta);
+		}
+		String classes = element.getAttributeValue("class");
+		int len = classes.length();
+		int i = 0;
+		while (i < len) {
+			while (i < len && isWhitespace(classes.charAt(i))) {
+				i++;
+			}
+			int start = i;
+			while (i < len && !isWhitespace(classes.charAt(i))) {
+				i++;
+			}
+			if (start < i) {
+				updateHash(hash(CLASS_SALT, classes, start, i), delta);
+			}
+		}
+	}
+
+	private void updateHash(int hash, int delta) {
+		updateCounter(firstIndex(hash), delta);
+		updateCounter(secondIndex(hash), delta);
+	}
+
+	private void updateCounter(int index, int delta) {
+		byte count = counters[index];
+		// A saturated counter stays saturated, which only causes false positives
+		if (count != Byte.MAX_VALUE) {
+			counters[index] = (byte) (count + delta);
+		}
+	}
+
+	/**
+	 * Check whether the ancestors required by the given selector could be present.
+	 * 
+	 * @param selector the selector.
+	 * @return {@code false} if the selector cannot match because one of its
+	 *         required ancestors is not present, {@code true} otherwise.
+	 */
+	boolean mightMatch(Selector selector) {
+		int[] hashes = sheetHashes.get(selector);
+		if (hashes == null) {
+			if (selectorHashes == null) {
+				selectorHashes = new IdentityHashMap<>();
+			} else {
+				hashes = selectorHashes.get(selector);
+			}
+			if (hashes == null) {
+				hashes = requiredHashes(selector);
+				selectorHashes.put(selector, hashes);
+			}
+		}
+		for (int hash : hashes) {
+			if (counters[firstIndex(hash)] == 0 || counters[secondIndex(hash)] == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compute the hashes that the given selector requires to be present among the
+	 * ancestors.
+	 * 
+	 * @param selector the selector.
+	 * @return the hashes.
+	 */
+	static int[] requiredHashes(Selector selector) {
+		HashList list = new HashList();
+		addRequiredHashes(selector, false, list);
+		return list.toArray();
+	}
+
+	/**
+	 * Add the hashes that the given selector requires to be present among the
+	 * ancestors.
+	 * 
+	 * @param selector the selector.
+	 * @param ancestor {@code true} if the subject of {@code selector} is an
+	 *                 ancestor of the element being matched.
+	 * @param list     the list where to add the hashes.
+	 */
+	private static void addRequiredHashes(Selector selector, boolean ancestor, HashList list) {
+		switch (selector.getSelectorType()) {
+		case DESCENDANT:
+		case CHILD:
+			CombinatorSelector comb = (CombinatorSelector) selector;
+			if (ancestor) {
+				addCompoundHashes(comb.getSecondSelector(), list);
+			}
+			addRequiredHashes(comb.getSelector(), true, list);
+			break;
+		case DIRECT_ADJACENT:
+		case SUBSEQUENT_SIBLING:
+			comb = (CombinatorSelector) selector;
+			if (ancestor) {
+				addCompoundHashes(comb.getSecondSelector(), list);
+			}
+			/*
+			 * The left side is a sibling of the subject, so it is never an ancestor of
+			 * the element, but its own ancestors are.
+			 */
+			addRequiredHashes(comb.getSelector(), false, list);
+			break;
+		case ELEMENT:
+		case CONDITIONAL:
+			if (ancestor) {
+				addCompoundHashes((SimpleSelector) selector, list);
+			}
+			break;
+		default:
+		}
+	}
+
+	private static void addCompoundHashes(SimpleSelector selector, HashList list) {
+		switch (selector.getSelectorType()) {
+		case ELEMENT:
+			String name = ((ElementSelector) selector).getLocalName();
+			if (name != null && !"*".equals(name)) {
+				list.add(hash(TAG_SALT, name, 0, name.length()));
+			}
+			break;
+		case CONDITIONAL:
+			ConditionalSelector condsel = (ConditionalSelector) selector;
+			addCompoundHashes(condsel.getSimpleSelector(), list);
+			addConditionHashes(condsel.getCondition(), list);
+			break;
+		default:
+		}
+	}
+
+	private static void addConditionHashes(Condition condition, HashList list) {
+		String value;
+		switch (condition.getConditionType()) {
+		case ID:
+			value = ((AttributeCondition) condition).getValue();
+			if (value != null) {
+				list.add(hash(ID_SALT, value, 0, value.length()));
+			}
+			break;
+		case CLASS:
+			value = ((AttributeCondition) condition).getValue();
+			if (value != null) {
+				list.add(hash(CLASS_SALT, value, 0, value.length()));
+			}
+			break;
+		case AND:
+			CombinatorCondition comb = (CombinatorCondition) condition;
+			addConditionHashes(comb.getFirstCondition(), list);
+			addConditionHashes(comb.getSecondCondition(), list);
+			break;
+		default:
+		}
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	/**
+	 * Compute a case-insensitive hash of a substring, without allocating.
+	 * 
+	 * @param salt  the salt, that depends on the kind of name.
+	 * @param s     the string.
+	 * @param begin the beginning index, inclusive.
+	 * @param end   the ending index, exclusive.
+	 * @return the hash.
+	 */
+	private static int hash(int salt, String s, int begin, int end) {
+		int h = salt;
+		for (int i = begin; i < end; i++) {
+			h = 31 * h + Character.toLowerCase(s.charAt(i));
+		}
+		return h * 0x9e3779b9;
+	}
+
+	private static int firstIndex(int hash) {
+		return hash >>> (32 - SIZE_BITS);
+	}
+
+	private static int secondIndex(int hash) {
+		return (hash >>> 8) & MASK;
+	}
+
+	private static class HashList {
+
+		private int[] hashes = NO_HASHES;
+
+		private int length = 0;
+
+		void add(int hash) {
+			if (length == hashes.length) {
+				int[] expanded = new int[length + 4];
+				System.arraycopy(hashes, 0, expanded, 0, length);
+				hashes = expanded;
+			}
+			hashes[length++] = hash;
+		}
+
+		int[] toArray() {
+			if (length == hashes.length) {
+				return hashes;
+			}
+			int[] array = new int[length];
+			System.arraycopy(hashes, 0, array, 0, length);
+			return array;
+		}
+
+	}
+
+}
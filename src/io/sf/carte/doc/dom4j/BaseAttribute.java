@@ -39,6 +39,10 @@ class BaseAttribute extends DOMAttribute {
 
 	@Override
 	public void setValue(String value) {
+		Element parent = getParent();
+		if (parent instanceof CSSStylableElement) {
+			((CSSStylableElement) parent).checkModifiable();
+		}
 		super.setValue(value);
 		XHTMLDocument doc = (XHTMLDocument) getDocument();
 
@@ -53,8 +57,8 @@ class BaseAttribute extends DOMAttribute {
 			}
 			HrefAttribute.onBaseModify(doc);
 
-			if (owner instanceof CachedXHTMLElement) {
-				((CachedXHTMLElement) owner).onStyleModify();
+			if (owner instanceof CSSStylableElement) {
+				((CSSStylableElement) owner).onStyleModify();
 			}
 		}
 	}
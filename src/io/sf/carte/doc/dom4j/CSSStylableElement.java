@@ -13,6 +13,8 @@ package io.sf.carte.doc.dom4j;
 
 import java.io.StringReader;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -45,6 +47,7 @@ import io.sf.carte.doc.style.css.nsac.SelectorList;
 import io.sf.carte.doc.style.css.nsac.SimpleSelector;
 import io.sf.carte.doc.style.css.om.AbstractSelectorMatcher;
 import io.sf.carte.doc.style.css.om.ComputedCSSStyle;
+import io.sf.carte.doc.style.css.om.InlineStyle;
 import io.sf.carte.doc.style.css.parser.CSSParser;
 
 /**
@@ -57,10 +60,49 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 
 	private static final long serialVersionUID = 8L;
 
+	/*
+	 * Value of cacheSerial once the owner document is frozen, which the computed
+	 * style serial of a document never takes as it only grows from zero. A copy
+	 * of a frozen element keeps it until its first modification, so the owner
+	 * document is checked too.
+	 */
+	private static final int FROZEN_SERIAL = Integer.MIN_VALUE;
+
 	private SelectorMatcher selectorMatcher = null;
 
 	private Map<Condition, CSSStyleDeclaration> overrideStyleSet = null;
 
+	private transient ChildElementIndex childIndex = null;
+
+	/*
+	 * Computed style cache, valid while cacheSerial equals the computed style
+	 * serial of the owner document. If the style belongs to another element, it is
+	 * the style of the template element that this one was copied from, and is
+	 * copied when it is first requested. If cacheSerial is FROZEN_SERIAL, it is
+	 * the style that was computed when the owner document was frozen.
+	 */
+	private transient ComputedCSSStyle cachedComputedStyle = null;
+
+	/*
+	 * Pseudo-element styles. Once the owner document is frozen, they are
+	 * replaced instead of modified, so they can be read without locking.
+	 */
+	private transient volatile Map<String, ComputedCSSStyle> cachedPseudoStyles = null;
+
+	private transient int cacheSerial = 0;
+
+	/*
+	 * Whether the owner document may have cached computed styles, so the
+	 * modifications of this element have to be notified to it.
+	 */
+	private transient boolean styleCacheInUse = false;
+
+	/*
+	 * Last known position of this element in the index of its parent, used as a
+	 * lookup hint.
+	 */
+	transient int childPositionHint = -1;
+
 	protected CSSStylableElement(String name) {
 		super(name);
 	}
@@ -99,6 +141,222 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 		return (XHTMLDocumentFactory) super.getDocumentFactory();
 	}
 
+	@Override
+	public void setQName(QName name) {
+		checkModifiable();
+		super.setQName(name);
+		selectorMatcher = null;
+		Element parent = getParent();
+		if (parent instanceof CSSStylableElement) {
+			((CSSStylableElement) parent).childIndex = null;
+		}
+	}
+
+	@Override
+	protected void childAdded(org.dom4j.Node node) {
+		checkModifiable();
+		super.childAdded(node);
+		if (node instanceof Element) {
+			childIndex = null;
+			if (node instanceof CSSStylableElement) {
+				CSSStylableElement child = (CSSStylableElement) node;
+				if (styleCacheInUse) {
+					if (!child.styleCacheInUse) {
+						child.setStyleCacheInUse();
+					}
+				} else if (child.styleCacheInUse) {
+					// The child may bring cached styles from elsewhere
+					enableStyleCache();
+				}
+			}
+		}
+		onStyleModify();
+	}
+
+	@Override
+	protected void childRemoved(org.dom4j.Node node) {
+		checkModifiable();
+		super.childRemoved(node);
+		if (node instanceof Element) {
+			childIndex = null;
+		}
+		onStyleModify();
+	}
+
+	@Override
+	protected void contentRemoved() {
+		checkModifiable();
+		super.contentRemoved();
+		childIndex = null;
+		onStyleModify();
+	}
+
+	@Override
+	protected void addNode(org.dom4j.Node node) {
+		checkModifiable();
+		super.addNode(node);
+	}
+
+	@Override
+	protected void addNode(int index, org.dom4j.Node node) {
+		checkModifiable();
+		super.addNode(index, node);
+	}
+
+	@Override
+	protected boolean removeNode(org.dom4j.Node node) {
+		checkModifiable();
+		return super.removeNode(node);
+	}
+
+	@Override
+	public void add(Attribute attribute) {
+		checkModifiable();
+		super.add(attribute);
+	}
+
+	@Override
+	public boolean remove(Attribute attribute) {
+		checkModifiable();
+		return super.remove(attribute);
+	}
+
+	@Override
+	public void setText(String text) {
+		checkModifiable();
+		super.setText(text);
+	}
+
+	/**
+	 * Check whether this element can be modified.
+	 * 
+	 * @throws DOMException NO_MODIFICATION_ALLOWED_ERR if the owner document is
+	 *                      frozen.
+	 */
+	void checkModifiable() throws DOMException {
+		if (cacheSerial == FROZEN_SERIAL) {
+			org.dom4j.Document doc = super.getDocument();
+			if (doc instanceof XHTMLDocument && ((XHTMLDocument) doc).isFrozen()) {
+				throw new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR, "The document is frozen");
+			}
+			// A copy of a frozen element
+			cachedComputedStyle = null;
+			cachedPseudoStyles = null;
+			cacheSerial = 0;
+		}
+	}
+
+	/**
+	 * Make this element read-only, as part of freezing the owner document.
+	 * <p>
+	 * The content and attribute lists are created if they were not, so that
+	 * reading them does not modify the element, and trimmed to their size. The
+	 * cached computed styles are replaced by the given style, which is kept in
+	 * the same slot.
+	 * </p>
+	 * 
+	 * @param style the computed style of this element, which is returned by
+	 *              {@link #getComputedStyle()} while the document is frozen.
+	 */
+	void freeze(ComputedCSSStyle style) {
+		trimToSize(contentList());
+		trimToSize(attributeList());
+		cachedComputedStyle = style;
+		cachedPseudoStyles = null;
+		cacheSerial = FROZEN_SERIAL;
+	}
+
+	static void trimToSize(List<?> list) {
+		if (list instanceof ArrayList) {
+			((ArrayList<?>) list).trimToSize();
+		}
+	}
+
+	/**
+	 * Notifies the element about a change that may affect the computed styles of
+	 * the document, like a modification of an attribute or of the child nodes.
+	 * <p>
+	 * The computed styles cached by the elements of the owner document are
+	 * invalidated. If no computed style was ever cached in the document, nothing
+	 * is done, so building a document does not have to look up the owner
+	 * document at each new node.
+	 * </p>
+	 */
+	void onStyleModify() {
+		checkModifiable();
+		if (styleCacheInUse) {
+			cachedComputedStyle = null;
+			cachedPseudoStyles = null;
+			org.dom4j.Document doc = super.getDocument();
+			if (doc instanceof XHTMLDocument) {
+				((XHTMLDocument) doc).onComputedStyleModify();
+			}
+		}
+	}
+
+	/**
+	 * Mark this element and its descendants as belonging to a document that may
+	 * have cached computed styles, so their modifications are notified.
+	 */
+	void setStyleCacheInUse() {
+		ArrayDeque<CSSStylableElement> stack = new ArrayDeque<>();
+		stack.push(this);
+		while (!stack.isEmpty()) {
+			CSSStylableElement element = stack.pop();
+			element.styleCacheInUse = true;
+			int count = element.nodeCount();
+			for (int i = 0; i < count; i++) {
+				org.dom4j.Node node = element.node(i);
+				if (node instanceof CSSStylableElement && !((CSSStylableElement) node).styleCacheInUse) {
+					stack.push((CSSStylableElement) node);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Make sure that the owner document knows that styles are going to be cached.
+	 */
+	private void enableStyleCache() {
+		if (!styleCacheInUse) {
+			org.dom4j.Document doc = super.getDocument();
+			if (doc instanceof XHTMLDocument) {
+				((XHTMLDocument) doc).onStyleCacheUse();
+			}
+			if (!styleCacheInUse) {
+				setStyleCacheInUse();
+			}
+		}
+	}
+
+	/**
+	 * Gets the index of the child elements of this element.
+	 * <p>
+	 * The index is built lazily, and discarded each time that an element child is
+	 * added or removed.
+	 * </p>
+	 * 
+	 * @return the child element index.
+	 */
+	ChildElementIndex getChildIndex() {
+		ChildElementIndex index = childIndex;
+		if (index == null) {
+			index = new ChildElementIndex(this);
+			childIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Set the index of the child elements of this element, which is used until
+	 * the next addition or removal of an element child.
+	 * 
+	 * @param index the child element index.
+	 */
+	void setChildIndex(ChildElementIndex index) {
+		childIndex = index;
+	}
+
 	@Override
 	public Attr setAttributeNode(Attr newAttr) throws DOMException {
 		if (isReadOnly()) {
@@ -193,6 +451,32 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 	 */
 	@Override
 	public CSSStyleDeclaration getStyle() {
+		StyleAttribute styleAttr = getStyleAttribute();
+		if (styleAttr == null) {
+			return null;
+		}
+		return styleAttr.getStyle();
+	}
+
+	/**
+	 * Gets the inline style declaration for the purpose of computing styles.
+	 * <p>
+	 * If this element was copied from a template document, the style parsed by
+	 * the template may be returned. It must not be modified.
+	 * </p>
+	 * 
+	 * @return the style declaration, or <code>null</code> if the element has no
+	 *         <code>style</code> attribute.
+	 */
+	InlineStyle getInlineStyleForReading() {
+		StyleAttribute styleAttr = getStyleAttribute();
+		if (styleAttr == null) {
+			return null;
+		}
+		return (InlineStyle) styleAttr.getStyleForReading();
+	}
+
+	private StyleAttribute getStyleAttribute() {
 		StyleAttribute styleAttr = (StyleAttribute) getAttributeNode("style");
 		if (styleAttr == null) {
 			Iterator<Attribute> it = attributeIterator();
@@ -203,11 +487,8 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 					break;
 				}
 			}
-			if (styleAttr == null) {
-				return null;
-			}
 		}
-		return styleAttr.getStyle();
+		return styleAttr;
 	}
 
 	@Override
@@ -229,6 +510,7 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 
 	@Override
 	public CSSStyleDeclaration getOverrideStyle(Condition pseudoElt) {
+		checkModifiable();
 		CSSStyleDeclaration overrideStyle = null;
 		if (overrideStyleSet == null) {
 			overrideStyleSet = new HashMap<>(1);
@@ -238,20 +520,38 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 		if (overrideStyle == null) {
 			overrideStyle = getDocumentFactory().createInlineStyle(this);
 			overrideStyleSet.put(pseudoElt, overrideStyle);
+			// Elements with override styles are not cached, but their descendants are
+			onStyleModify();
 		}
 		return overrideStyle;
 	}
 
 	/**
 	 * Gets the computed style declaration that applies to this element.
+	 * <p>
+	 * If the style cache of the owner document is enabled, the returned style may
+	 * be a cached one. If the owner document is frozen, the returned style is
+	 * shared by all the callers.
+	 * </p>
 	 * 
 	 * @param pseudoElt the pseudo-element name.
 	 * @return the computed style declaration.
+	 * @see XHTMLDocument#setStyleCache(boolean)
+	 * @see XHTMLDocument#freeze()
 	 */
 	@Override
 	public ComputedCSSStyle getComputedStyle(String pseudoElt) {
 		XHTMLDocument doc = getOwnerDocument();
 		if (doc != null) {
+			if (doc.isFrozen() && cacheSerial == FROZEN_SERIAL) {
+				return pseudoElt == null ? cachedComputedStyle : getFrozenPseudoStyle(doc, pseudoElt);
+			}
+			boolean cacheOn = doc.isStyleCacheOn();
+			int serial = doc.getComputedStyleSerial();
+			ComputedCSSStyle styledecl;
+			if (cacheOn && (styledecl = getCachedComputedStyle(pseudoElt, serial)) != null) {
+				return styledecl;
+			}
 			Condition peCond;
 			if (pseudoElt != null) {
 				CSSParser parser = new CSSParser();
@@ -260,7 +560,10 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 				peCond = null;
 			}
 			// Get the style declaration
-			ComputedCSSStyle styledecl = (ComputedCSSStyle) doc.getStyleSheet().getComputedStyle(this, peCond);
+			styledecl = (ComputedCSSStyle) doc.getStyleSheet().getComputedStyle(this, peCond);
+			if (cacheOn) {
+				cacheComputedStyle(pseudoElt, styledecl, serial);
+			}
 			return styledecl;
 		} else {
 			return null;
@@ -269,20 +572,185 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 
 	/**
 	 * Gets the computed style declaration that applies to this element.
+	 * <p>
+	 * If the style cache of the owner document is enabled, the returned style may
+	 * be a cached one. If the owner document is frozen, the style that was
+	 * computed when it was frozen is returned.
+	 * </p>
 	 * 
 	 * @return the computed style declaration, or null if none applies.
+	 * @see XHTMLDocument#setStyleCache(boolean)
+	 * @see XHTMLDocument#freeze()
 	 */
 	public ComputedCSSStyle getComputedStyle() {
-		DocumentCSSStyleSheet css = getOwnerDocument().getStyleSheet();
+		XHTMLDocument doc = getOwnerDocument();
+		if (doc.isFrozen() && cacheSerial == FROZEN_SERIAL) {
+			return cachedComputedStyle;
+		}
+		boolean cacheOn = doc.isStyleCacheOn();
+		int serial = doc.getComputedStyleSerial();
+		ComputedCSSStyle styledecl;
+		if (cacheOn && (styledecl = getCachedComputedStyle(null, serial)) != null) {
+			return styledecl;
+		}
+		DocumentCSSStyleSheet css = doc.getStyleSheet();
 		if (css != null) {
 			// Get the style declaration
-			ComputedCSSStyle styledecl = (ComputedCSSStyle) css.getComputedStyle(this, null);
+			styledecl = (ComputedCSSStyle) css.getComputedStyle(this, null);
+			if (cacheOn) {
+				cacheComputedStyle(null, styledecl, serial);
+			}
 			return styledecl;
 		} else {
 			return null;
 		}
 	}
 
+	/*
+	 * Get the style of a pseudo-element of a frozen element, which is computed
+	 * when first requested. The map of styles is replaced by a new one, so
+	 * concurrent callers never see it modified; at worst, a style is computed
+	 * more than once.
+	 */
+	private ComputedCSSStyle getFrozenPseudoStyle(XHTMLDocument doc, String pseudoElt) {
+		Map<String, ComputedCSSStyle> pseudoStyles = cachedPseudoStyles;
+		ComputedCSSStyle style;
+		if (pseudoStyles != null && (style = pseudoStyles.get(pseudoElt)) != null) {
+			return style;
+		}
+		CSSParser parser = new CSSParser();
+		Condition peCond = parser.parsePseudoElement(pseudoElt);
+		style = (ComputedCSSStyle) doc.getStyleSheet().getComputedStyle(this, peCond);
+		if (style != null) {
+			HashMap<String, ComputedCSSStyle> map = pseudoStyles == null ? new HashMap<>(2)
+					: new HashMap<>(pseudoStyles);
+			map.put(pseudoElt, style);
+			cachedPseudoStyles = map;
+		}
+		return style;
+	}
+
+	/**
+	 * Gets the cached computed style for the given pseudo-element.
+	 * 
+	 * @param pseudoElt the pseudo-element, or {@code null} for the element itself.
+	 * @param serial    the current computed style serial of the owner document.
+	 * @return the cached style, or {@code null} if there is no valid cached style.
+	 */
+	ComputedCSSStyle getCachedComputedStyle(String pseudoElt, int serial) {
+		if (serial != cacheSerial || overrideStyleSet != null) {
+			return null;
+		}
+		if (pseudoElt == null) {
+			ComputedCSSStyle style = cachedComputedStyle;
+			if (style != null && style.getOwnerNode() != this) {
+				style = copyTemplateComputedStyle((DOM4JComputedStyle) style);
+			}
+			return style;
+		}
+		Map<String, ComputedCSSStyle> pseudoStyles = cachedPseudoStyles;
+		return pseudoStyles == null ? null : pseudoStyles.get(pseudoElt);
+	}
+
+	/**
+	 * Puts a computed style in the cache.
+	 * <p>
+	 * Styles of elements that have override styles are not cached.
+	 * </p>
+	 * 
+	 * @param pseudoElt the pseudo-element, or {@code null} for the element itself.
+	 * @param style     the computed style.
+	 * @param serial    the computed style serial of the owner document at the time
+	 *                  when the computation started.
+	 */
+	void cacheComputedStyle(String pseudoElt, ComputedCSSStyle style, int serial) {
+		if (overrideStyleSet != null || style == null) {
+			return;
+		}
+		enableStyleCache();
+		if (serial != cacheSerial) {
+			cachedComputedStyle = null;
+			cachedPseudoStyles = null;
+			cacheSerial = serial;
+		}
+		if (pseudoElt == null) {
+			cachedComputedStyle = style;
+		} else {
+			if (cachedPseudoStyles == null) {
+				cachedPseudoStyles = new HashMap<>(2);
+			}
+			cachedPseudoStyles.put(pseudoElt, style);
+		}
+	}
+
+	/**
+	 * Check whether this element keeps a selector matcher.
+	 * 
+	 * @return {@code true} if the element keeps a selector matcher.
+	 */
+	boolean hasSelectorMatcher() {
+		return selectorMatcher != null;
+	}
+
+	/**
+	 * Gets the computed style kept by this element, even if it is no longer
+	 * valid. It may be the style of the template element that this element was
+	 * copied from, or the style computed when the document was frozen.
+	 * 
+	 * @return the cached computed style, or {@code null} if none.
+	 */
+	ComputedCSSStyle peekCachedComputedStyle() {
+		return cachedComputedStyle;
+	}
+
+	/**
+	 * Gets the pseudo-element computed styles kept by this element, even if they
+	 * are no longer valid.
+	 * 
+	 * @return the cached pseudo-element styles, or {@code null} if none.
+	 */
+	Map<String, ComputedCSSStyle> peekCachedPseudoStyles() {
+		return cachedPseudoStyles;
+	}
+
+	/**
+	 * Gets the index of the child elements, if it was built.
+	 * 
+	 * @return the child element index, or {@code null} if it was not built or is
+	 *         no longer valid.
+	 */
+	ChildElementIndex peekChildIndex() {
+		return childIndex;
+	}
+
+	/**
+	 * Set the computed style of the template element that this element was copied
+	 * from.
+	 * <p>
+	 * The style is copied the first time that the cached style of this element is
+	 * requested, unless the cache was invalidated by then.
+	 * </p>
+	 * 
+	 * @param style  the computed style of the template element.
+	 * @param serial the current computed style serial of the owner document.
+	 */
+	void setTemplateComputedStyle(DOM4JComputedStyle style, int serial) {
+		if (overrideStyleSet != null) {
+			return;
+		}
+		enableStyleCache();
+		cachedComputedStyle = style;
+		cachedPseudoStyles = null;
+		cacheSerial = serial;
+	}
+
+	private ComputedCSSStyle copyTemplateComputedStyle(DOM4JComputedStyle templateStyle) {
+		DOM4JComputedStyle style = (DOM4JComputedStyle) templateStyle.clone();
+		style.setOwnerNode(this);
+		cachedComputedStyle = style;
+		return style;
+	}
+
 	String getAttributeValue(String attrName) {
 		String value = null;
 		Attribute attr = attribute(attrName);
@@ -338,9 +806,41 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 
 		private static final long serialVersionUID = 1L;
 
-		DOM4JSelectorMatcher() {
+		/*
+		 * Filter from the rule index, only set in the matchers that are created to
+		 * compute the style of this element.
+		 */
+		private final transient RuleIndex.ElementFilter ruleFilter;
+
+		/*
+		 * Filter with the ancestors of this element, only set in the matchers that
+		 * are created to compute the style of this element in a tree-walking cascade.
+		 */
+		private final transient AncestorFilter ancestorFilter;
+
+		DOM4JSelectorMatcher(RuleIndex.ElementFilter ruleFilter, AncestorFilter ancestorFilter) {
 			super();
-			setLocalName(getName().toLowerCase(Locale.ROOT).intern());
+			this.ruleFilter = ruleFilter;
+			this.ancestorFilter = ancestorFilter;
+			setLocalName(getDocumentFactory().lowerCaseLocalName(getName()));
+		}
+
+		@Override
+		public int matches(SelectorList selist) {
+			RuleIndex.ElementFilter filter = ruleFilter;
+			if (filter != null && !filter.mightMatch(selist)) {
+				return -1;
+			}
+			return super.matches(selist);
+		}
+
+		@Override
+		public boolean matches(Selector selector) {
+			AncestorFilter filter = ancestorFilter;
+			if (filter != null && !filter.mightMatch(selector)) {
+				return false;
+			}
+			return super.matches(selector);
 		}
 
 		@Override
@@ -359,37 +859,43 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 			if (parent == null) {
 				return null;
 			}
-			@SuppressWarnings("rawtypes")
-			List elements = parent.elements();
 			// Determine previous sibling
-			int sibindex = elements.indexOf(CSSStylableElement.this) - 1;
-			if (sibindex != -1) {
-				Object sibling = elements.get(sibindex);
-				if (sibling instanceof CSSStylableElement) {
-					return (AbstractSelectorMatcher) ((CSSStylableElement) sibling).getSelectorMatcher();
-				}
+			ChildElementIndex index = getParentChildIndex(parent);
+			int sibindex = index.positionOf(CSSStylableElement.this) - 1;
+			CSSStylableElement sibling;
+			if (sibindex >= 0 && (sibling = index.item(sibindex)) != null) {
+				return (AbstractSelectorMatcher) sibling.getSelectorMatcher();
 			}
 			return null;
 		}
 
+		private ChildElementIndex getParentChildIndex(Element parent) {
+			if (parent instanceof CSSStylableElement) {
+				return ((CSSStylableElement) parent).getChildIndex();
+			}
+			return new ChildElementIndex(parent);
+		}
+
 		@Override
 		protected int indexOf(SelectorList selectors) {
 			Element parent = getParent();
 			if (parent == null) {
 				return 1; // root element
 			}
-			NodeList list = getParentNode().getChildNodes();
-			int sz = list.getLength();
+			ChildElementIndex index = getParentChildIndex(parent);
+			int pos = index.positionOf(CSSStylableElement.this);
+			if (pos == -1 || selectors == null) {
+				return pos == -1 ? -1 : pos + 1;
+			}
 			int idx = 0;
-			for (int i = 0; i < sz; i++) {
-				Node node = list.item(i);
-				if (node.getNodeType() == Node.ELEMENT_NODE && matchSelectors(selectors, (CSSStylableElement) node)) {
+			for (int i = 0; i < pos; i++) {
+				if (matchSelectors(selectors, index.item(i))) {
 					idx++;
-					if (node == CSSStylableElement.this) {
-						return idx;
-					}
 				}
 			}
+			if (matchSelectors(selectors, CSSStylableElement.this)) {
+				return idx + 1;
+			}
 			return -1;
 		}
 
@@ -399,16 +905,17 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 			if (parent == null) {
 				return 1; // root element
 			}
-			NodeList list = getParentNode().getChildNodes();
-			int sz = list.getLength();
+			ChildElementIndex index = getParentChildIndex(parent);
+			int pos = index.positionOf(CSSStylableElement.this);
+			int last = index.getLength() - 1;
+			if (selectors == null && pos != -1) {
+				return last - pos + 1;
+			}
+			int end = pos == -1 ? 0 : pos;
 			int idx = 0;
-			for (int i = sz - 1; i >= 0; i--) {
-				Node node = list.item(i);
-				if (node.getNodeType() == Node.ELEMENT_NODE && matchSelectors(selectors, (CSSStylableElement) node)) {
+			for (int i = last; i >= end; i--) {
+				if (matchSelectors(selectors, index.item(i))) {
 					idx++;
-					if (node == CSSStylableElement.this) {
-						break;
-					}
 				}
 			}
 			return idx;
@@ -418,6 +925,10 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 			if (selectors == null) {
 				return true;
 			}
+			if (node == null) {
+				// Not available in a running index
+				return false;
+			}
 			int sz = selectors.getLength();
 			for (int i = 0; i < sz; i++) {
 				if (node.getSelectorMatcher().matches(selectors.item(i))) {
@@ -443,7 +954,7 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 			if (parent == null) {
 				return true; // root element
 			}
-			return parent.elements().indexOf(CSSStylableElement.this) == 0;
+			return getParentChildIndex(parent).positionOf(CSSStylableElement.this) == 0;
 		}
 
 		@Override
@@ -452,35 +963,30 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 			if (parent == null) {
 				return true; // root element
 			}
-			@SuppressWarnings("rawtypes")
-			List elems = parent.elements();
-			return elems.indexOf(CSSStylableElement.this) == elems.size() - 1;
+			ChildElementIndex index = getParentChildIndex(parent);
+			return index.positionOf(CSSStylableElement.this) == index.getLength() - 1;
 		}
 
 		@Override
 		protected boolean isFirstOfType() {
-			Node sibling = getPreviousSibling();
-			while (sibling != null) {
-				if (sibling.getNodeType() == Node.ELEMENT_NODE
-						&& getLocalName().equalsIgnoreCase(sibling.getLocalName())) {
-					return false;
-				}
-				sibling = sibling.getPreviousSibling();
+			Element parent = getParent();
+			if (parent == null) {
+				return true; // root element
 			}
-			return true;
+			ChildElementIndex index = getParentChildIndex(parent);
+			int pos = index.positionOf(CSSStylableElement.this);
+			return pos == -1 || index.typePosition(pos) == 1;
 		}
 
 		@Override
 		protected boolean isLastOfType() {
-			Node sibling = getNextSibling();
-			while (sibling != null) {
-				if (sibling.getNodeType() == Node.ELEMENT_NODE
-						&& getLocalName().equalsIgnoreCase(sibling.getLocalName())) {
-					return false;
-				}
-				sibling = sibling.getNextSibling();
+			Element parent = getParent();
+			if (parent == null) {
+				return true; // root element
 			}
-			return true;
+			ChildElementIndex index = getParentChildIndex(parent);
+			int pos = index.positionOf(CSSStylableElement.this);
+			return pos == -1 || index.typePosition(pos) == index.typeCount(pos);
 		}
 
 		@Override
@@ -488,17 +994,10 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 			int idx = 0;
 			Element parent = getParent();
 			if (parent != null) {
-				NodeList list = getParentNode().getChildNodes();
-				int sz = list.getLength();
-				for (int i = 0; i < sz; i++) {
-					Node node = list.item(i);
-					if (node.getNodeType() == Node.ELEMENT_NODE
-							&& getLocalName().equalsIgnoreCase(node.getLocalName())) {
-						idx++;
-						if (node == CSSStylableElement.this) {
-							break;
-						}
-					}
+				ChildElementIndex index = getParentChildIndex(parent);
+				int pos = index.positionOf(CSSStylableElement.this);
+				if (pos != -1) {
+					idx = index.typePosition(pos);
 				}
 			} else {
 				idx = 1;
@@ -512,17 +1011,10 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 			int idx = 0;
 			Element parent = getParent();
 			if (parent != null) {
-				NodeList list = getParentNode().getChildNodes();
-				int sz = list.getLength();
-				for (int i = sz - 1; i >= 0; i--) {
-					Node node = list.item(i);
-					if (node.getNodeType() == Node.ELEMENT_NODE
-							&& getLocalName().equalsIgnoreCase(node.getLocalName())) {
-						idx++;
-						if (node == CSSStylableElement.this) {
-							break;
-						}
-					}
+				ChildElementIndex index = getParentChildIndex(parent);
+				int pos = index.positionOf(CSSStylableElement.this);
+				if (pos != -1) {
+					idx = index.typeCount(pos) - index.typePosition(pos) + 1;
 				}
 			} else {
 				idx = 1;
@@ -804,16 +1296,14 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 
 		@Override
 		protected boolean scopeMatchDirectAdjacent(CombinatorSelector selector) {
-			SelectorMatcher siblingSM = null;
-			Node sibling = getNextSibling();
-			while (sibling != null) {
-				if (sibling.getNodeType() == Node.ELEMENT_NODE) {
-					siblingSM = ((CSSStylableElement) sibling).getSelectorMatcher();
-					break;
-				}
-				sibling = sibling.getNextSibling();
+			Element parent = getParent();
+			if (parent == null) {
+				return false;
 			}
-			if (siblingSM != null) {
+			ChildElementIndex index = getParentChildIndex(parent);
+			int sibindex = index.positionOf(CSSStylableElement.this) + 1;
+			if (sibindex > 0 && sibindex < index.getLength()) {
+				SelectorMatcher siblingSM = index.item(sibindex).getSelectorMatcher();
 				return siblingSM.matches(selector.getSecondSelector());
 			}
 			return false;
@@ -822,15 +1312,42 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 
 	/**
 	 * Gets the selector matcher for this element.
+	 * <p>
+	 * The matcher is kept by the element, unless the document factory uses
+	 * flyweight selector matchers (see
+	 * {@link XHTMLDocumentFactory#setFlyweightSelectorMatchers(boolean)}), in which
+	 * case a new matcher is returned each time.
+	 * </p>
 	 * 
 	 * @return the selector matcher.
 	 */
 	@Override
 	public SelectorMatcher getSelectorMatcher() {
-		if (selectorMatcher == null) {
-			selectorMatcher = new DOM4JSelectorMatcher();
+		SelectorMatcher matcher = selectorMatcher;
+		if (matcher == null) {
+			matcher = new DOM4JSelectorMatcher(null, null);
+			if (!getDocumentFactory().isFlyweightSelectorMatchers()) {
+				selectorMatcher = matcher;
+			}
 		}
-		return selectorMatcher;
+		return matcher;
+	}
+
+	/**
+	 * Create a selector matcher for a single matching operation.
+	 * <p>
+	 * The matcher is not kept by the element, so its state can be set without
+	 * affecting concurrent operations on this element.
+	 * </p>
+	 * 
+	 * @param ruleFilter     the rule index filter for this element, or
+	 *                       {@code null} if no filter is used.
+	 * @param ancestorFilter the filter with the ancestors of this element, or
+	 *                       {@code null} if no filter is used.
+	 * @return the new selector matcher.
+	 */
+	DOM4JSelectorMatcher createSelectorMatcher(RuleIndex.ElementFilter ruleFilter, AncestorFilter ancestorFilter) {
+		return new DOM4JSelectorMatcher(ruleFilter, ancestorFilter);
 	}
 
 	@Override
@@ -857,7 +1374,8 @@ abstract public class CSSStylableElement extends DOMElement implements CSSElemen
 
 	@Override
 	public boolean matches(SelectorList selist, Condition pseudoElement) {
-		SelectorMatcher matcher = getSelectorMatcher();
+		// The pseudo-element is per call, so the matcher kept by the element is not used
+		SelectorMatcher matcher = createSelectorMatcher(null, null);
 		matcher.setPseudoElement(pseudoElement);
 		return matcher.matches(selist) != -1;
 	}
@@ -0,0 +1,162 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+import org.dom4j.Branch;
+import org.dom4j.Node;
+
+/**
+ * Immutable index of the child elements of a parent node, with the position of
+ * each child among all the element children and among the children of the same
+ * type.
+ * <p>
+ * Instances are lazily built by the parent and discarded when an element child
+ * is added or removed, so a stale index is never used.
+ * </p>
+ * <p>
+ * Subclasses may keep their own elements and override all the accessors, like
+ * the running index used by {@link StyleStreamReader}.
+ * </p>
+ */
+class ChildElementIndex {
+
+	private final CSSStylableElement[] elements;
+
+	/*
+	 * One-based position of each element among its siblings of the same type.
+	 */
+	private final int[] typePosition;
+
+	/*
+	 * Number of siblings with the same type as each element (including itself).
+	 */
+	private final int[] typeCount;
+
+	/**
+	 * Construct an empty index, for subclasses that keep their own elements.
+	 */
+	ChildElementIndex() {
+		super();
+		this.elements = new CSSStylableElement[0];
+		this.typePosition = new int[0];
+		this.typeCount = typePosition;
+	}
+
+	ChildElementIndex(Branch parent) {
+		int nodeCount = parent.nodeCount();
+		CSSStylableElement[] list = new CSSStylableElement[nodeCount];
+		int[] typePos = new int[nodeCount];
+		int[][] counters = new int[nodeCount][];
+		HashMap<String, int[]> typeCounters = new HashMap<>();
+		int len = 0;
+		for (int i = 0; i < nodeCount; i++) {
+			Node node = parent.node(i);
+			if (node instanceof CSSStylableElement) {
+				CSSStylableElement element = (CSSStylableElement) node;
+				String type = element.getName().toLowerCase(Locale.ROOT);
+				int[] counter = typeCounters.get(type);
+				if (counter == null) {
+					counter = new int[1];
+					typeCounters.put(type, counter);
+				}
+				counter[0]++;
+				list[len] = element;
+				typePos[len] = counter[0];
+				counters[len] = counter;
+				element.childPositionHint = len;
+				len++;
+			}
+		}
+		if (len != nodeCount) {
+			CSSStylableElement[] trimmed = new CSSStylableElement[len];
+			System.arraycopy(list, 0, trimmed, 0, len);
+			list = trimmed;
+			int[] trimmedPos = new int[len];
+			System.arraycopy(typePos, 0, trimmedPos, 0, len);
+			typePos = trimmedPos;
+		}
+		int[] typeTot = new int[len];
+		for (int i = 0; i < len; i++) {
+			typeTot[i] = counters[i][0];
+		}
+		this.elements = list;
+		this.typePosition = typePos;
+		this.typeCount = typeTot;
+	}
+
+	/**
+	 * Get the number of child elements.
+	 * 
+	 * @return the number of child elements.
+	 */
+	int getLength() {
+		return elements.length;
+	}
+
+	/**
+	 * Get the child element at the given position.
+	 * 
+	 * @param index the zero-based position.
+	 * @return the child element, or {@code null} if the index does not keep the
+	 *         element at that position anymore.
+	 */
+	CSSStylableElement item(int index) {
+		return elements[index];
+	}
+
+	/**
+	 * Get the position of the given child element.
+	 * 
+	 * @param element the child element.
+	 * @return the zero-based position of the element, or {@code -1} if it is not
+	 *         in this index.
+	 */
+	int positionOf(CSSStylableElement element) {
+		int hint = element.childPositionHint;
+		if (hint >= 0 && hint < elements.length && elements[hint] == element) {
+			return hint;
+		}
+		for (int i = 0; i < elements.length; i++) {
+			if (elements[i] == element) {
+				element.childPositionHint = i;
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the one-based position of the element at the given position among its
+	 * siblings of the same type.
+	 * 
+	 * @param index the zero-based position of the element.
+	 * @return the position among the elements of the same type.
+	 */
+	int typePosition(int index) {
+		return typePosition[index];
+	}
+
+	/**
+	 * Get the number of siblings that have the same type as the element at the
+	 * given position, including itself.
+	 * 
+	 * @param index the zero-based position of the element.
+	 * @return the number of elements of the same type.
+	 */
+	int typeCount(int index) {
+		return typeCount[index];
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.sf.carte.doc.style.css.om.ComputedCSSStyle;
+
+/**
+ * Table of canonical computed styles, so that the elements whose styles are
+ * identical share a single instance.
+ * <p>
+ * Two styles are considered identical if they have the same declarations and
+ * the same (canonical) parent style. The table is valid for a single computed
+ * style serial of its document.
+ * </p>
+ * <p>
+ * The declarations are compared through their serialization, so interning a
+ * style has the cost of its {@link ComputedCSSStyle#getCssText()}.
+ * </p>
+ */
+final class ComputedStyleTable {
+
+	private final ConcurrentHashMap<Key, ComputedCSSStyle> styles = new ConcurrentHashMap<>();
+
+	private final int serial;
+
+	ComputedStyleTable(int serial) {
+		super();
+		this.serial = serial;
+	}
+
+	/**
+	 * Gets the computed style serial for which this table is valid.
+	 * 
+	 * @return the serial.
+	 */
+	int getSerial() {
+		return serial;
+	}
+
+	/**
+	 * Gets the canonical instance of the given style.
+	 * 
+	 * @param style       the computed style.
+	 * @param parentStyle the canonical computed style of the parent element, or
+	 *                    {@code null} if the element has no parent.
+	 * @return the canonical instance, which is {@code style} if no identical style
+	 *         was interned before.
+	 */
+	ComputedCSSStyle intern(ComputedCSSStyle style, ComputedCSSStyle parentStyle) {
+		Key key = new Key(parentStyle, style.getCssText());
+		ComputedCSSStyle interned = styles.putIfAbsent(key, style);
+		return interned != null ? interned : style;
+	}
+
+	/**
+	 * Gets the number of canonical styles in this table.
+	 * 
+	 * @return the number of styles.
+	 */
+	int size() {
+		return styles.size();
+	}
+
+	/**
+	 * Gets the canonical styles in this table.
+	 * 
+	 * @return the canonical styles.
+	 */
+	Collection<ComputedCSSStyle> styles() {
+		return styles.values();
+	}
+
+	/**
+	 * Gets the total length of the serializations that are used as keys.
+	 * 
+	 * @return the number of characters in the keys.
+	 */
+	long keyLength() {
+		long len = 0;
+		for (Key key : styles.keySet()) {
+			len += key.cssText.length();
+		}
+		return len;
+	}
+
+	private static final class Key {
+
+		private final ComputedCSSStyle parentStyle;
+
+		private final String cssText;
+
+		private final int hash;
+
+		Key(ComputedCSSStyle parentStyle, String cssText) {
+			super();
+			this.parentStyle = parentStyle;
+			this.cssText = cssText;
+			hash = 31 * System.identityHashCode(parentStyle) + cssText.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			// The parent styles are canonical, so they are compared by identity
+			return parentStyle == other.parentStyle && cssText.equals(other.cssText);
+		}
+
+	}
+
+}
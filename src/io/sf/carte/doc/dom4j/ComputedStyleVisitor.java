@@ -0,0 +1,31 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import io.sf.carte.doc.style.css.om.ComputedCSSStyle;
+
+/**
+ * Receives the computed styles produced by
+ * {@link XHTMLDocument#computeStyles(ComputedStyleVisitor)}.
+ */
+@FunctionalInterface
+public interface ComputedStyleVisitor {
+
+	/**
+	 * Visit the computed style of an element.
+	 * 
+	 * @param element the element.
+	 * @param style   the computed style of {@code element}.
+	 */
+	void visit(CSSStylableElement element, ComputedCSSStyle style);
+
+}
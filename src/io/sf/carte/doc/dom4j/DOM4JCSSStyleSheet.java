@@ -21,6 +21,7 @@ import io.sf.carte.doc.style.css.CSSDocument;
 import io.sf.carte.doc.style.css.MediaQueryList;
 import io.sf.carte.doc.style.css.om.AbstractCSSRule;
 import io.sf.carte.doc.style.css.om.BaseCSSStyleSheet;
+import io.sf.carte.doc.style.css.om.CSSRuleArrayList;
 
 /**
  * CSS Style Sheet for DOM4J.
@@ -73,6 +74,36 @@ abstract class DOM4JCSSStyleSheet extends BaseCSSStyleSheet implements Cloneable
 		return null;
 	}
 
+	/**
+	 * Copy the rules and namespace declarations of this sheet to the given sheet.
+	 * <p>
+	 * The rules are not cloned, so they become shared by both sheets.
+	 * </p>
+	 * 
+	 * @param target the sheet to copy the rules to.
+	 */
+	void copyRulesTo(DOM4JCSSStyleSheet target) {
+		copyAllTo(target);
+	}
+
+	/**
+	 * Copy the rules and namespace declarations of this sheet to the given sheet,
+	 * cloning the rules.
+	 * <p>
+	 * The target sheet can then be modified without affecting this one.
+	 * </p>
+	 * 
+	 * @param target the sheet to copy the rules to.
+	 */
+	void cloneRulesTo(DOM4JCSSStyleSheet target) {
+		CSSRuleArrayList rules = target.getCssRules();
+		int start = rules.size();
+		copyAllTo(target);
+		for (int i = start; i < rules.size(); i++) {
+			rules.set(i, rules.get(i).clone(target));
+		}
+	}
+
 	/**
 	 * Creates and returns a copy of this style sheet.
 	 * <p>
@@ -64,6 +64,16 @@ abstract class DOM4JComputedStyle extends ComputedCSSStyle {
 		return parentStyle;
 	}
 
+	/**
+	 * Set the computed style of the parent element, so it is not looked up (and
+	 * computed again) when it is needed.
+	 * 
+	 * @param parentStyle the parent computed style.
+	 */
+	void setParentComputedStyle(ComputedCSSStyle parentStyle) {
+		this.parentStyle = parentStyle;
+	}
+
 	/**
 	 * Gets the (whitespace-trimmed) text content of the node associated to this
 	 * style.
@@ -14,6 +14,7 @@ package io.sf.carte.doc.dom4j;
 import io.sf.carte.doc.dom4j.XHTMLDocumentFactory.DOM4JCSSStyleSheetFactory;
 import io.sf.carte.doc.style.css.CSSDocument;
 import io.sf.carte.doc.style.css.CSSElement;
+import io.sf.carte.doc.style.css.SelectorMatcher;
 import io.sf.carte.doc.style.css.nsac.Condition;
 import io.sf.carte.doc.style.css.om.BaseDocumentCSSStyleSheet;
 import io.sf.carte.doc.style.css.om.ComputedCSSStyle;
@@ -31,6 +32,8 @@ abstract class DOM4JDocumentCSSStyleSheet extends BaseDocumentCSSStyleSheet {
 
 	private XHTMLDocument ownerElement = null;
 
+	private transient volatile RuleIndex ruleIndex = null;
+
 	DOM4JDocumentCSSStyleSheet(int origin) {
 		super(null, origin);
 	}
@@ -69,15 +72,139 @@ abstract class DOM4JDocumentCSSStyleSheet extends BaseDocumentCSSStyleSheet {
 	 */
 	@Override
 	public ComputedCSSStyle getComputedStyle(CSSElement elm, Condition pseudoElt) {
+		return getComputedStyle(elm, pseudoElt, null);
+	}
+
+	/**
+	 * Gets the computed style for the given DOM4J element and pseudo-element,
+	 * given the already computed style of the parent element.
+	 * 
+	 * @param elm         the element.
+	 * @param pseudoElt   the pseudo-element.
+	 * @param parentStyle the computed style of the parent element, or
+	 *                    {@code null} if it has to be looked up.
+	 * @return the computed style declaration.
+	 */
+	ComputedCSSStyle getComputedStyle(CSSElement elm, Condition pseudoElt, ComputedCSSStyle parentStyle) {
+		return getComputedStyle(elm, pseudoElt, parentStyle, null);
+	}
+
+	/**
+	 * Gets the computed style for the given DOM4J element and pseudo-element,
+	 * given the already computed style of the parent element and a filter with
+	 * its ancestors.
+	 * <p>
+	 * The selector matcher used for the computation is created for this call, so
+	 * the styles of different elements can be computed concurrently.
+	 * </p>
+	 * 
+	 * @param elm            the element.
+	 * @param pseudoElt      the pseudo-element.
+	 * @param parentStyle    the computed style of the parent element, or
+	 *                       {@code null} if it has to be looked up.
+	 * @param ancestorFilter the filter with the ancestors of the element, or
+	 *                       {@code null} if no filter is used.
+	 * @return the computed style declaration.
+	 */
+	ComputedCSSStyle getComputedStyle(CSSElement elm, Condition pseudoElt, ComputedCSSStyle parentStyle,
+			AncestorFilter ancestorFilter) {
 		// Get the inline style
-		InlineStyle inline = (InlineStyle) elm.getStyle();
+		InlineStyle inline;
+		if (elm instanceof CSSStylableElement) {
+			inline = ((CSSStylableElement) elm).getInlineStyleForReading();
+		} else {
+			inline = (InlineStyle) elm.getStyle();
+		}
 		// Compute style
 		DOM4JComputedStyle styledecl = createComputedCSSStyle();
 		styledecl.setOwnerNode(elm);
-		ComputedCSSStyle style = computeStyle(styledecl, elm.getSelectorMatcher(), pseudoElt, inline);
+		if (parentStyle != null) {
+			styledecl.setParentComputedStyle(parentStyle);
+		}
+		SelectorMatcher matcher;
+		if (elm instanceof CSSStylableElement) {
+			CSSStylableElement stylable = (CSSStylableElement) elm;
+			// Reject the rules that cannot match, before running the matcher
+			matcher = stylable.createSelectorMatcher(getRuleIndex().createFilter(stylable), ancestorFilter);
+		} else {
+			matcher = elm.getSelectorMatcher();
+		}
+		ComputedCSSStyle style = computeStyle(styledecl, matcher, pseudoElt, inline);
 		return style;
 	}
 
+	/**
+	 * Gets the index of the style rules in this sheet.
+	 * <p>
+	 * The index is lazily built, and built again if the number of rules changed.
+	 * </p>
+	 * 
+	 * @return the rule index.
+	 */
+	RuleIndex getRuleIndex() {
+		RuleIndex index = ruleIndex;
+		if (index == null || index.getRuleCount() != getCssRules().getLength()) {
+			index = new RuleIndex(getCssRules());
+			ruleIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Gets the index of the style rules in this sheet, built again if any of the
+	 * selectors of the sheet is not indexed.
+	 * <p>
+	 * Unlike {@link #getRuleIndex()}, this detects the modifications that keep
+	 * the number of top-level rules, like a selector set through the object model
+	 * or a rule inserted in a grouping rule, so it must be used to read the style
+	 * sharing flags. It visits all the rules, so it is meant to be called once
+	 * per styling pass.
+	 * </p>
+	 * 
+	 * @return the up-to-date rule index.
+	 */
+	RuleIndex getCurrentRuleIndex() {
+		RuleIndex index = getRuleIndex();
+		if (!index.indexesAll(getCssRules())) {
+			index = new RuleIndex(getCssRules());
+			ruleIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Gets the rule index if it was already built.
+	 * 
+	 * @return the rule index, or {@code null} if it was not built.
+	 */
+	RuleIndex peekRuleIndex() {
+		return ruleIndex;
+	}
+
+	/**
+	 * Discard the rule index, so it is built again when needed.
+	 */
+	void resetRuleIndex() {
+		ruleIndex = null;
+	}
+
+	/**
+	 * Create a copy of this sheet for a document that was copied from the owner
+	 * document of this sheet.
+	 * <p>
+	 * The rules and the rule index are shared with this sheet.
+	 * </p>
+	 * 
+	 * @param document the document that owns the copy.
+	 * @return the copy.
+	 */
+	DOM4JDocumentCSSStyleSheet copyForDocument(XHTMLDocument document) {
+		DOM4JDocumentCSSStyleSheet copy = clone();
+		copy.setOwnerDocument(document);
+		copy.ruleIndex = ruleIndex;
+		return copy;
+	}
+
 	/**
 	 * Creates and returns a copy of this style sheet.
 	 * <p>
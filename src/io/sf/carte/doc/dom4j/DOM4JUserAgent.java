@@ -11,24 +11,55 @@
 
 package io.sf.carte.doc.dom4j;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.dom.DOMDocumentType;
 import org.dom4j.dom.DOMElement;
+import org.dom4j.io.SAXContentHandler;
 import org.dom4j.io.SAXReader;
 import org.dom4j.io.XPP3Reader;
 import org.w3c.dom.NodeList;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import io.sf.carte.doc.agent.AbstractUserAgent;
@@ -37,10 +68,25 @@ import io.sf.carte.doc.style.css.nsac.Parser;
 import io.sf.carte.doc.style.css.nsac.Parser.Flag;
 import io.sf.carte.doc.xml.dtd.DefaultEntityResolver;
 import io.sf.carte.util.agent.AgentUtil;
+import nu.validator.htmlparser.common.XmlViolationPolicy;
+import nu.validator.htmlparser.sax.HtmlParser;
 
 /**
  * User Agent based on DOM4J document trees.
  * <p>
+ * Documents are parsed with one of the {@link Backend backends}: a SAX parser
+ * (the default) or the XPP3 pull parser for XHTML, or the validator.nu HTML5
+ * parser for any HTML document.
+ * </p>
+ * <p>
+ * Once configured, the user agent can read documents from several threads at
+ * the same time, either by calling {@link #readURL(URL)} concurrently or with
+ * {@link #readURLs(Collection)}. The document factory and the parser pool are
+ * safe for concurrent use, but the configuration methods (like
+ * {@link #setEntityResolver(EntityResolver)} or
+ * {@link #setParserReuse(boolean)}) should be called before the documents are
+ * read, and a custom entity resolver must be thread-safe.
+ * </p>
  * 
  * @author Carlos Amengual
  */
@@ -50,17 +96,66 @@ public class DOM4JUserAgent extends AbstractUserAgent {
 
 	protected EntityResolver resolver = createEntityResolver();
 
-	private final boolean useXPP3;
+	private final Backend backend;
 
 	private final XHTMLDocumentFactory factory;
 
+	private boolean parserReuse = false;
+
+	private boolean builtinEntities = false;
+
+	private int maxConcurrentReads = 16;
+
+	/*
+	 * The method that creates a virtual thread executor, if available (Java 21
+	 * and later).
+	 */
+	private static final Method newVirtualThreadPerTaskExecutor = findVirtualThreadExecutorMethod();
+
+	/*
+	 * Idle parsers, kept for reuse when parser reuse is enabled.
+	 */
+	private transient Queue<AgentSAXReader> saxReaderPool = null;
+
+	private transient Queue<AgentXPP3Reader> xpp3ReaderPool = null;
+
+	/**
+	 * The parsers that can be used to read the documents.
+	 */
+	public enum Backend {
+
+		/**
+		 * The default SAX parser, which requires well-formed XHTML.
+		 */
+		SAX,
+
+		/**
+		 * The XPP3 pull parser, which requires well-formed XHTML.
+		 */
+		XPP3,
+
+		/**
+		 * The validator.nu HTML5 parser, which reads any HTML document as a browser
+		 * would.
+		 */
+		HTML5
+
+	}
+
 	protected DOM4JUserAgent(EnumSet<Parser.Flag> parserFlags) {
-		this(parserFlags, false);
+		this(parserFlags, Backend.SAX);
 	}
 
 	protected DOM4JUserAgent(EnumSet<Parser.Flag> parserFlags, boolean useXPP3) {
+		this(parserFlags, useXPP3 ? Backend.XPP3 : Backend.SAX);
+	}
+
+	protected DOM4JUserAgent(EnumSet<Parser.Flag> parserFlags, Backend backend) {
 		super(parserFlags);
-		this.useXPP3 = useXPP3;
+		if (backend == null) {
+			throw new NullPointerException("Null backend.");
+		}
+		this.backend = backend;
 		factory = new AgentXHTMLDocumentFactory(getParserFlags());
 	}
 
@@ -74,6 +169,31 @@ public class DOM4JUserAgent extends AbstractUserAgent {
 		return new DOM4JUserAgent(parserFlags, useXPP3);
 	}
 
+	/**
+	 * Creates an user agent that reads documents with DOM4J, using the given
+	 * parser backend.
+	 * <p>
+	 * The {@link Backend#HTML5 HTML5} backend requires the validator.nu
+	 * {@code htmlparser} library, and the {@link Backend#XPP3 XPP3} backend
+	 * requires the XPP3 pull parser.
+	 * </p>
+	 * 
+	 * @param backend the parser backend.
+	 * @return the user agent.
+	 */
+	public static AbstractUserAgent createUserAgent(EnumSet<Parser.Flag> parserFlags, Backend backend) {
+		return new DOM4JUserAgent(parserFlags, backend);
+	}
+
+	/**
+	 * Gets the parser backend used to read the documents.
+	 * 
+	 * @return the parser backend.
+	 */
+	public Backend getBackend() {
+		return backend;
+	}
+
 	protected EntityResolver createEntityResolver() {
 		return new DefaultEntityResolver();
 	}
@@ -88,8 +208,201 @@ public class DOM4JUserAgent extends AbstractUserAgent {
 		this.resolver = resolver;
 	}
 
+	/**
+	 * Enable or disable the reuse of parsers across documents.
+	 * <p>
+	 * If enabled, the {@code SAXReader} or {@code XPP3Reader} instances (and the
+	 * underlying XML parsers) used to parse documents are kept in a small pool
+	 * and reused by the next parse, instead of creating new ones for each
+	 * document. The pool is safe to use from several threads, and holds at most
+	 * one idle parser per available processor.
+	 * </p>
+	 * <p>
+	 * Applications that parse many small documents benefit the most from parser
+	 * reuse. It is disabled by default.
+	 * </p>
+	 * 
+	 * @param reuse {@code true} to reuse parsers, {@code false} otherwise.
+	 */
+	public void setParserReuse(boolean reuse) {
+		parserReuse = reuse;
+		if (!reuse) {
+			synchronized (this) {
+				saxReaderPool = null;
+				xpp3ReaderPool = null;
+			}
+		}
+	}
+
+	/**
+	 * Check whether parsers are reused across documents.
+	 * 
+	 * @return {@code true} if parsers are reused.
+	 */
+	public boolean isParserReuse() {
+		return parserReuse;
+	}
+
+	/**
+	 * Enable or disable the resolution of named entities from a built-in table.
+	 * <p>
+	 * If enabled, the DTDs of the standard XHTML 1.0, XHTML 1.1, XHTML Basic and
+	 * HTML 4.01 public identifiers (as well as the implicit DTD of a
+	 * <code>&lt;!DOCTYPE html&gt;</code> declaration) are not processed, and the
+	 * named character entities of HTML 4.01 are instead resolved from a table
+	 * held in memory. Other DTDs are still resolved through the entity resolver.
+	 * The XPP3 backend, which does not process DTDs, is also able to resolve
+	 * named entities in this mode.
+	 * </p>
+	 * <p>
+	 * The default attribute values declared by the skipped DTDs are not added to
+	 * the documents. This mode is disabled by default.
+	 * </p>
+	 * 
+	 * @param enable {@code true} to use the built-in entity table.
+	 */
+	public void setBuiltinEntities(boolean enable) {
+		builtinEntities = enable;
+	}
+
+	/**
+	 * Check whether named entities are resolved from a built-in table instead of
+	 * processing the DTD.
+	 * 
+	 * @return {@code true} if the built-in entity table is used.
+	 */
+	public boolean isBuiltinEntities() {
+		return builtinEntities;
+	}
+
+	/**
+	 * Gets the maximum number of documents that {@link #readURLs(Collection)} reads
+	 * at the same time.
+	 * 
+	 * @return the maximum number of concurrent reads.
+	 */
+	public int getMaxConcurrentReads() {
+		return maxConcurrentReads;
+	}
+
+	/**
+	 * Sets the maximum number of documents that {@link #readURLs(Collection)} reads
+	 * at the same time.
+	 * <p>
+	 * The default is 16.
+	 * </p>
+	 * 
+	 * @param maxConcurrentReads the maximum number of concurrent reads.
+	 * @throws IllegalArgumentException if {@code maxConcurrentReads} is not
+	 *                                  positive.
+	 */
+	public void setMaxConcurrentReads(int maxConcurrentReads) {
+		if (maxConcurrentReads <= 0) {
+			throw new IllegalArgumentException("The maximum number of concurrent reads must be positive.");
+		}
+		this.maxConcurrentReads = maxConcurrentReads;
+	}
+
+	/**
+	 * Reads and parses the XHTML documents located in the given URLs,
+	 * concurrently.
+	 * <p>
+	 * Each document is read as with {@link #readURL(URL)}, with at most
+	 * {@link #getMaxConcurrentReads()} documents being read at the same time. On
+	 * Java 21 and later each read runs in its own virtual thread, otherwise a
+	 * pool of daemon threads is used. The threads are released once all the
+	 * documents have been read.
+	 * </p>
+	 * <p>
+	 * This method does not block: the returned futures are completed with the
+	 * documents as they are read, or completed exceptionally with the
+	 * {@code IOException} or {@code io.sf.carte.doc.DocumentException} thrown by
+	 * {@code readURL}. Cancelling a future that has not started yet prevents its
+	 * document from being read.
+	 * </p>
+	 * 
+	 * @param urls the URLs that point to the documents.
+	 * @return the list of futures, in the same order as the given URLs.
+	 */
+	public List<CompletableFuture<XHTMLDocument>> readURLs(Collection<URL> urls) {
+		List<CompletableFuture<XHTMLDocument>> futures = new ArrayList<>(urls.size());
+		if (urls.isEmpty()) {
+			return futures;
+		}
+		int limit = maxConcurrentReads;
+		Semaphore permits = new Semaphore(limit);
+		ExecutorService executor = createReaderExecutor(Math.min(limit, urls.size()));
+		try {
+			for (URL url : urls) {
+				CompletableFuture<XHTMLDocument> future = new CompletableFuture<>();
+				futures.add(future);
+				executor.execute(() -> {
+					try {
+						permits.acquire();
+					} catch (InterruptedException e) {
+						future.completeExceptionally(e);
+						return;
+					}
+					try {
+						if (!future.isDone()) {
+							future.complete(readURL(url));
+						}
+					} catch (Throwable e) {
+						future.completeExceptionally(e);
+					} finally {
+						permits.release();
+					}
+				});
+			}
+		} finally {
+			// Already submitted reads are completed
+			executor.shutdown();
+		}
+		return futures;
+	}
+
+	private static ExecutorService createReaderExecutor(int maxThreads) {
+		if (newVirtualThreadPerTaskExecutor != null) {
+			try {
+				return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				// Use a thread pool
+			}
+		}
+		return Executors.newFixedThreadPool(maxThreads, new ReaderThreadFactory());
+	}
+
+	private static Method findVirtualThreadExecutorMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException | SecurityException e) {
+			return null;
+		}
+	}
+
+	private static class ReaderThreadFactory implements ThreadFactory {
+
+		private static final AtomicInteger poolNumber = new AtomicInteger(1);
+
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		private final String prefix = "dom4j-agent-reader-" + poolNumber.getAndIncrement() + '-';
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
 	/**
 	 * Reads and parses an XHTML document located in the given URL.
+	 * <p>
+	 * To read a local file without going through a {@code URLConnection}, use
+	 * {@link #readFile(Path)} instead.
+	 * </p>
 	 * 
 	 * @param url the URL that points to the document.
 	 * @return the XHTMLDocument.
@@ -121,7 +434,126 @@ public class DOM4JUserAgent extends AbstractUserAgent {
 		xdoc.setLoadingTime(time);
 		xdoc.setDocumentURI(url.toExternalForm());
 		// Check for preferred style
-		String defStyle = con.getHeaderField("Default-Style");
+		selectDefaultStyle(xdoc, con.getHeaderField("Default-Style"));
+		// Referrer Policy
+		String referrerPolicy = con.getHeaderField("Referrer-Policy");
+		if (referrerPolicy != null) {
+			xdoc.setReferrerPolicyHeader(referrerPolicy);
+		}
+		// Close connection if appropriate
+		if (con instanceof HttpURLConnection) {
+			HttpURLConnection hcon = (HttpURLConnection) con;
+			hcon.disconnect();
+		}
+		return xdoc;
+	}
+
+	/**
+	 * Reads and parses an XHTML document from the given bytes.
+	 * <p>
+	 * The array is parsed in place, without copying it, and the character encoding
+	 * is detected from the bytes themselves (byte order mark, XML declaration or,
+	 * with the HTML5 backend, {@code meta} charset declaration).
+	 * </p>
+	 * 
+	 * @param data        the bytes of the document.
+	 * @param documentURI the URI of the document, used to resolve relative URLs
+	 *                    (like those of linked style sheets), or {@code null} if
+	 *                    not known.
+	 * @return the XHTMLDocument.
+	 * @throws IOException                       if the document declares an
+	 *                                           unsupported encoding.
+	 * @throws io.sf.carte.doc.DocumentException if there is a problem parsing the
+	 *                                           document.
+	 */
+	public XHTMLDocument readBytes(byte[] data, String documentURI)
+			throws IOException, io.sf.carte.doc.DocumentException {
+		return readByteBuffer(ByteBuffer.wrap(data), documentURI);
+	}
+
+	/**
+	 * Reads and parses an XHTML document from the remaining bytes of the given
+	 * buffer.
+	 * <p>
+	 * The buffer (which can be a direct or a memory-mapped buffer) is parsed in
+	 * place, without copying it, and its position is not modified. The character
+	 * encoding is detected from the bytes themselves (byte order mark, XML
+	 * declaration or, with the HTML5 backend, {@code meta} charset declaration).
+	 * </p>
+	 * 
+	 * @param buffer      the buffer that holds the document.
+	 * @param documentURI the URI of the document, used to resolve relative URLs
+	 *                    (like those of linked style sheets), or {@code null} if
+	 *                    not known.
+	 * @return the XHTMLDocument.
+	 * @throws IOException                       if the document declares an
+	 *                                           unsupported encoding.
+	 * @throws io.sf.carte.doc.DocumentException if there is a problem parsing the
+	 *                                           document.
+	 */
+	public XHTMLDocument readByteBuffer(ByteBuffer buffer, String documentURI)
+			throws IOException, io.sf.carte.doc.DocumentException {
+		long time = System.currentTimeMillis();
+		AgentXHTMLDocument xdoc;
+		try {
+			xdoc = parseDocument(buffer.duplicate(), documentURI);
+		} catch (io.sf.carte.doc.DocumentException e) {
+			if (documentURI == null) {
+				throw e;
+			}
+			throw new io.sf.carte.doc.DocumentException("Error parsing document " + documentURI, e.getCause());
+		}
+		xdoc.setLoadingTime(time);
+		if (documentURI != null) {
+			xdoc.setDocumentURI(documentURI);
+		}
+		selectDefaultStyle(xdoc, null);
+		return xdoc;
+	}
+
+	/**
+	 * Reads and parses an XHTML document from a local file.
+	 * <p>
+	 * The file is mapped into memory and parsed from there, so its contents are
+	 * neither copied nor decoded into an intermediate buffer. Files too large to
+	 * be mapped in a single buffer are read as a stream. The character encoding
+	 * is detected from the bytes of the file (byte order mark, XML declaration or,
+	 * with the HTML5 backend, {@code meta} charset declaration).
+	 * </p>
+	 * 
+	 * @param path the path to the file.
+	 * @return the XHTMLDocument, with the URI of the file as its document URI.
+	 * @throws IOException                       if there is an I/O problem reading
+	 *                                           the file.
+	 * @throws io.sf.carte.doc.DocumentException if there is a problem parsing the
+	 *                                           document.
+	 */
+	public XHTMLDocument readFile(Path path) throws IOException, io.sf.carte.doc.DocumentException {
+		String documentURI = path.toUri().toString();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size <= Integer.MAX_VALUE) {
+				return readByteBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), documentURI);
+			}
+			long time = System.currentTimeMillis();
+			AgentXHTMLDocument xdoc;
+			try {
+				xdoc = parseDocument(Channels.newInputStream(channel), null, documentURI);
+			} catch (io.sf.carte.doc.DocumentException e) {
+				throw new io.sf.carte.doc.DocumentException("Error parsing document " + documentURI, e.getCause());
+			}
+			xdoc.setLoadingTime(time);
+			xdoc.setDocumentURI(documentURI);
+			selectDefaultStyle(xdoc, null);
+			return xdoc;
+		}
+	}
+
+	/*
+	 * Select the preferred style sheet set, from the META elements or, if none,
+	 * from the given Default-Style header.
+	 */
+	private static void selectDefaultStyle(AgentXHTMLDocument xdoc, String defStyle) {
 		NodeList list = xdoc.getElementsByTagName("meta");
 		int listL = list.getLength();
 		for (int i = listL - 1; i >= 0; i--) {
@@ -139,17 +571,6 @@ public class DOM4JUserAgent extends AbstractUserAgent {
 		if (defStyle != null) {
 			xdoc.setSelectedStyleSheetSet(defStyle);
 		}
-		// Referrer Policy
-		String referrerPolicy = con.getHeaderField("Referrer-Policy");
-		if (referrerPolicy != null) {
-			xdoc.setReferrerPolicyHeader(referrerPolicy);
-		}
-		// Close connection if appropriate
-		if (con instanceof HttpURLConnection) {
-			HttpURLConnection hcon = (HttpURLConnection) con;
-			hcon.disconnect();
-		}
-		return xdoc;
 	}
 
 	protected InputStream openInputStream(URLConnection con) throws IOException {
@@ -158,7 +579,7 @@ public class DOM4JUserAgent extends AbstractUserAgent {
 
 	protected AgentXHTMLDocument parseDocument(Reader re) throws io.sf.carte.doc.DocumentException, IOException {
 		try {
-			if (useXPP3) {
+			if (backend == Backend.XPP3) {
 				return parseWithXPP3Reader(re);
 			} else {
 				return parseWithSAXReader(re);
@@ -168,22 +589,371 @@ public class DOM4JUserAgent extends AbstractUserAgent {
 		}
 	}
 
+	private AgentXHTMLDocument parseDocument(ByteBuffer buffer, String documentURI)
+			throws io.sf.carte.doc.DocumentException, IOException {
+		Charset charset = null;
+		if (backend == Backend.XPP3) {
+			// The pull parser works on characters, so the encoding must be known
+			charset = detectEncoding(buffer);
+		}
+		return parseDocument(new ByteBufferInputStream(buffer), charset, documentURI);
+	}
+
+	/*
+	 * Parse a document from a byte stream. The encoding is detected by the SAX or
+	 * HTML5 parser, but the pull parser requires the charset to decode the stream.
+	 * The document URI, if known, is the system identifier of the SAX input, so
+	 * that relative system identifiers can be resolved.
+	 */
+	private AgentXHTMLDocument parseDocument(InputStream is, Charset charset, String documentURI)
+			throws io.sf.carte.doc.DocumentException, IOException {
+		try {
+			if (backend == Backend.XPP3) {
+				if (charset == null) {
+					if (!is.markSupported()) {
+						is = new BufferedInputStream(is);
+					}
+					charset = detectEncoding(is);
+				}
+				return parseWithXPP3Reader(new InputStreamReader(is, charset));
+			} else {
+				InputSource source = new InputSource(is);
+				if (documentURI != null) {
+					source.setSystemId(documentURI);
+				}
+				return parseWithSAXReader(source);
+			}
+		} catch (DocumentException e) {
+			throw new io.sf.carte.doc.DocumentException("Error parsing document", e);
+		}
+	}
+
+	private static final int ENCODING_SNIFF_LENGTH = 256;
+
+	private static Charset detectEncoding(InputStream is) throws IOException {
+		is.mark(ENCODING_SNIFF_LENGTH);
+		byte[] head = new byte[ENCODING_SNIFF_LENGTH];
+		int len = 0;
+		int n;
+		while (len < head.length && (n = is.read(head, len, head.length - len)) != -1) {
+			len += n;
+		}
+		is.reset();
+		ByteBuffer buffer = ByteBuffer.wrap(head, 0, len);
+		Charset charset = detectEncoding(buffer);
+		// Skip the byte order mark, if any
+		long skip = buffer.position();
+		while (skip > 0) {
+			skip -= is.skip(skip);
+		}
+		return charset;
+	}
+
+	/**
+	 * Detect the encoding of an XML document from its byte order mark or its XML
+	 * declaration, as described in appendix F of the XML specification.
+	 * <p>
+	 * If there is a byte order mark, the position of the buffer is moved past it.
+	 * </p>
+	 * 
+	 * @param buffer the buffer that holds the document.
+	 * @return the charset.
+	 * @throws UnsupportedEncodingException if the declared encoding is not
+	 *                                      supported.
+	 */
+	private static Charset detectEncoding(ByteBuffer buffer) throws UnsupportedEncodingException {
+		int pos = buffer.position();
+		int len = Math.min(buffer.remaining(), ENCODING_SNIFF_LENGTH);
+		if (len >= 3 && (buffer.get(pos) & 0xff) == 0xef && (buffer.get(pos + 1) & 0xff) == 0xbb
+				&& (buffer.get(pos + 2) & 0xff) == 0xbf) {
+			buffer.position(pos + 3);
+			return StandardCharsets.UTF_8;
+		}
+		if (len >= 2) {
+			int b0 = buffer.get(pos) & 0xff;
+			int b1 = buffer.get(pos + 1) & 0xff;
+			if (b0 == 0xfe && b1 == 0xff) {
+				buffer.position(pos + 2);
+				return StandardCharsets.UTF_16BE;
+			} else if (b0 == 0xff && b1 == 0xfe) {
+				buffer.position(pos + 2);
+				return StandardCharsets.UTF_16LE;
+			} else if (b0 == 0 && b1 == '<') {
+				return StandardCharsets.UTF_16BE;
+			} else if (b0 == '<' && b1 == 0) {
+				return StandardCharsets.UTF_16LE;
+			}
+		}
+		// Look for the encoding in the XML declaration
+		StringBuilder decl = new StringBuilder(len);
+		for (int i = 0; i < len; i++) {
+			char c = (char) (buffer.get(pos + i) & 0xff);
+			decl.append(c);
+			if (c == '>') {
+				break;
+			}
+		}
+		if (decl.length() > 5 && decl.indexOf("<?xml") == 0) {
+			int idx = decl.indexOf("encoding");
+			if (idx != -1) {
+				idx += 8;
+				int declLen = decl.length();
+				while (idx < declLen && (decl.charAt(idx) == '=' || Character.isWhitespace(decl.charAt(idx)))) {
+					idx++;
+				}
+				if (idx < declLen) {
+					char quote = decl.charAt(idx);
+					int end = decl.indexOf(String.valueOf(quote), idx + 1);
+					if ((quote == '"' || quote == '\'') && end != -1) {
+						String encoding = decl.substring(idx + 1, end);
+						try {
+							return Charset.forName(encoding);
+						} catch (IllegalArgumentException e) {
+							throw new UnsupportedEncodingException(encoding);
+						}
+					}
+				}
+			}
+		}
+		return StandardCharsets.UTF_8;
+	}
+
+	/*
+	 * An input stream that reads from a byte buffer, without copying it.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			super();
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			int remaining = buffer.remaining();
+			if (remaining == 0) {
+				return -1;
+			}
+			len = Math.min(len, remaining);
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public long skip(long n) {
+			int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+
+	}
+
 	private AgentXHTMLDocument parseWithSAXReader(Reader re) throws DocumentException {
-		InputSource isrc = new InputSource(re);
-		XHTMLDocumentFactory factory = getXHTMLDocumentFactory();
-		SAXReader reader = new SAXReader(factory);
-		reader.setEntityResolver(resolver);
-		return (AgentXHTMLDocument) reader.read(isrc);
+		return parseWithSAXReader(new InputSource(re));
+	}
+
+	private AgentXHTMLDocument parseWithSAXReader(InputSource isrc) throws DocumentException {
+		Queue<AgentSAXReader> pool = parserReuse ? getSAXReaderPool() : null;
+		AgentSAXReader reader = pool != null ? pool.poll() : null;
+		if (reader == null) {
+			reader = createSAXReader();
+		}
+		// The configuration may have changed since the reader was last used
+		boolean entityTable = builtinEntities;
+		reader.entityTable = entityTable;
+		reader.setEntityResolver(entityTable ? new XHTMLEntities.SkipDTDResolver(resolver) : resolver);
+		AgentXHTMLDocument doc = (AgentXHTMLDocument) reader.read(isrc);
+		if (pool != null) {
+			// SAXReader creates a new content handler for each document
+			reader.release();
+			pool.offer(reader);
+		}
+		return doc;
+	}
+
+	private AgentSAXReader createSAXReader() {
+		AgentSAXReader reader = new AgentSAXReader(getXHTMLDocumentFactory());
+		if (backend == Backend.HTML5) {
+			HtmlParser parser = new HtmlParser(XmlViolationPolicy.ALTER_INFOSET);
+			parser.setCommentPolicy(XmlViolationPolicy.ALLOW);
+			parser.setXmlnsPolicy(XmlViolationPolicy.ALLOW);
+			reader.setXMLReader(parser);
+		}
+		return reader;
 	}
 
 	private AgentXHTMLDocument parseWithXPP3Reader(Reader re) throws DocumentException, IOException {
-		XHTMLDocumentFactory factory = getXHTMLDocumentFactory();
-		XPP3Reader reader = new XPP3Reader(factory);
+		Queue<AgentXPP3Reader> pool = parserReuse ? getXPP3ReaderPool() : null;
+		AgentXPP3Reader reader = pool != null ? pool.poll() : null;
+		if (reader == null) {
+			reader = new AgentXPP3Reader(getXHTMLDocumentFactory());
+		}
+		reader.entityTable = builtinEntities;
+		AgentXHTMLDocument doc;
 		try {
-			return (AgentXHTMLDocument) reader.read(re);
+			// The input of the pull parser is reset at each read
+			doc = (AgentXHTMLDocument) reader.read(re);
 		} catch (XmlPullParserException e) {
 			throw new DocumentException(e);
 		}
+		if (pool != null) {
+			reader.release();
+			pool.offer(reader);
+		}
+		return doc;
+	}
+
+	/*
+	 * SAX reader whose content handler can replace the skipped entities from the
+	 * built-in table, and reports the entities of the table that were expanded by
+	 * the parser as text instead of entity nodes.
+	 */
+	private static class AgentSAXReader extends SAXReader {
+
+		/*
+		 * Handler that replaces the handlers of the last document in a pooled
+		 * parser.
+		 */
+		private static final DefaultHandler2 NO_HANDLER = new DefaultHandler2();
+
+		boolean entityTable = false;
+
+		AgentSAXReader(XHTMLDocumentFactory factory) {
+			super(factory);
+		}
+
+		/*
+		 * Remove the references that the parser keeps to the handlers of the last
+		 * document (and thus to the document), before the reader is pooled.
+		 */
+		void release() {
+			try {
+				XMLReader xmlReader = getXMLReader();
+				xmlReader.setContentHandler(NO_HANDLER);
+				xmlReader.setDTDHandler(NO_HANDLER);
+				setHandlerProperty(xmlReader, "http://xml.org/sax/properties/lexical-handler");
+				setHandlerProperty(xmlReader, "http://xml.org/sax/properties/declaration-handler");
+			} catch (SAXException e) {
+				// The reader was already created, so this does not happen
+			}
+		}
+
+		private static void setHandlerProperty(XMLReader xmlReader, String name) {
+			try {
+				xmlReader.setProperty(name, NO_HANDLER);
+			} catch (SAXNotRecognizedException | SAXNotSupportedException e) {
+				// The parser does not use that handler
+			}
+		}
+
+		@Override
+		protected SAXContentHandler createContentHandler(XMLReader reader) {
+			if (!entityTable) {
+				return super.createContentHandler(reader);
+			}
+			return new SAXContentHandler(getDocumentFactory(), getDispatchHandler()) {
+
+				@Override
+				public void skippedEntity(String name) throws SAXException {
+					String text = XHTMLEntities.getReplacementText(name);
+					if (text != null) {
+						characters(text.toCharArray(), 0, text.length());
+					} else {
+						super.skippedEntity(name);
+					}
+				}
+
+				@Override
+				public void startEntity(String name) throws SAXException {
+					if (!XHTMLEntities.isDeclaredEntity(name)) {
+						super.startEntity(name);
+					}
+				}
+
+				@Override
+				public void endEntity(String name) throws SAXException {
+					if (!XHTMLEntities.isDeclaredEntity(name)) {
+						super.endEntity(name);
+					}
+				}
+
+			};
+		}
+
+	}
+
+	/*
+	 * XPP3 reader that can define the entities of the built-in table.
+	 */
+	private static class AgentXPP3Reader extends XPP3Reader {
+
+		boolean entityTable = false;
+
+		AgentXPP3Reader(XHTMLDocumentFactory factory) {
+			super(factory);
+		}
+
+		/*
+		 * Remove the reference that the parser keeps to the input of the last
+		 * document, before the reader is pooled.
+		 */
+		void release() {
+			try {
+				getXPPParser().setInput(null);
+			} catch (XmlPullParserException e) {
+				// The parser was already created, so this does not happen
+			}
+		}
+
+		@Override
+		public Document read(Reader reader) throws DocumentException, IOException, XmlPullParserException {
+			if (!entityTable) {
+				return super.read(reader);
+			}
+			XmlPullParser parser = getXPPParser();
+			parser.setInput(reader);
+			// Entities must be defined after the input is set
+			Iterator<Map.Entry<String, String>> it = XHTMLEntities.entityIterator();
+			while (it.hasNext()) {
+				Map.Entry<String, String> entity = it.next();
+				parser.defineEntityReplacementText(entity.getKey(), entity.getValue());
+			}
+			return parseDocument();
+		}
+
+	}
+
+	private synchronized Queue<AgentSAXReader> getSAXReaderPool() {
+		if (saxReaderPool == null) {
+			saxReaderPool = new ArrayBlockingQueue<>(poolCapacity());
+		}
+		return saxReaderPool;
+	}
+
+	private synchronized Queue<AgentXPP3Reader> getXPP3ReaderPool() {
+		if (xpp3ReaderPool == null) {
+			xpp3ReaderPool = new ArrayBlockingQueue<>(poolCapacity());
+		}
+		return xpp3ReaderPool;
+	}
+
+	private static int poolCapacity() {
+		return Runtime.getRuntime().availableProcessors();
 	}
 
 	public XHTMLDocumentFactory getXHTMLDocumentFactory() {
@@ -39,13 +39,16 @@ class DocumentStyleEventAttribute extends DOMAttribute {
 
 	@Override
 	public void setValue(String value) {
-		super.setValue(value);
 		Element owner = getParent();
+		if (owner instanceof CSSStylableElement) {
+			((CSSStylableElement) owner).checkModifiable();
+		}
+		super.setValue(value);
 		if (owner != null) {
 			if (owner instanceof StyleDefinerElement) {
 				((StyleDefinerElement) owner).resetLinkedSheet();
-			} else if (owner instanceof CachedXHTMLElement) {
-				((CachedXHTMLElement) owner).onStyleModify();
+			} else if (owner instanceof CSSStylableElement) {
+				((CSSStylableElement) owner).onStyleModify();
 			}
 		}
 	}
@@ -41,6 +41,10 @@ class HrefAttribute extends DOMAttribute {
 
 	@Override
 	public void setValue(String value) {
+		Element parent = getParent();
+		if (parent instanceof CSSStylableElement) {
+			((CSSStylableElement) parent).checkModifiable();
+		}
 		super.setValue(value);
 		XHTMLDocument doc = (XHTMLDocument) getDocument();
 		org.w3c.dom.Element owner;
@@ -57,8 +61,8 @@ class HrefAttribute extends DOMAttribute {
 				}
 				onBaseModify(doc);
 			}
-			if (owner instanceof CachedXHTMLElement) {
-				((CachedXHTMLElement) owner).onStyleModify();
+			if (owner instanceof CSSStylableElement) {
+				((CSSStylableElement) owner).onStyleModify();
 			}
 		}
 	}
@@ -12,8 +12,19 @@
 package io.sf.carte.doc.dom4j;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.dom4j.Attribute;
+import org.dom4j.Node;
 import org.dom4j.QName;
 import org.w3c.dom.DOMException;
 
@@ -33,6 +44,14 @@ class LinkElement extends StyleDefinerElement {
 
 	private static final long serialVersionUID = 2L;
 
+	/*
+	 * The prefetched response for the linked sheet, and the URL that it was
+	 * retrieved from.
+	 */
+	private transient Future<LinkedSheetResponse> prefetch = null;
+
+	private transient URL prefetchURL = null;
+
 	LinkElement(String name) {
 		super(name);
 	}
@@ -108,6 +127,131 @@ class LinkElement extends StyleDefinerElement {
 		return linkedSheet;
 	}
 
+	@Override
+	protected void childAdded(Node node) {
+		super.childAdded(node);
+		if (node instanceof Attribute) {
+			prefetchStyleSheet();
+		}
+	}
+
+	/**
+	 * If the document factory has a style sheet executor, start retrieving the
+	 * linked sheet in the background.
+	 * <p>
+	 * The sheet is not parsed, and nothing is done if the link is not attached
+	 * to a document, lacks a {@code href}, or does not look like a CSS style
+	 * sheet link.
+	 * </p>
+	 */
+	void prefetchStyleSheet() {
+		if (!needsUpdate) {
+			return;
+		}
+		Executor executor = getDocumentFactory().getStyleSheetExecutor();
+		XHTMLDocument doc;
+		if (executor == null || (doc = getOwnerDocument()) == null) {
+			return;
+		}
+		String nsuri = getNamespaceURI();
+		if (nsuri != null && nsuri.length() != 0 && !nsuri.equals(XHTMLDocument.XHTML_NAMESPACE_URI)) {
+			return;
+		}
+		String href = attributeValue("href");
+		String rel = attributeValue("rel");
+		String type = attributeValue("type");
+		if (href == null || href.length() == 0 || rel == null || attributeValue("referrerpolicy") != null
+				|| (type != null && type.length() != 0 && !"text/css".equalsIgnoreCase(type))
+				|| AbstractCSSStyleSheet.parseRelAttribute(rel) == -1) {
+			return;
+		}
+		URL url;
+		try {
+			url = doc.getURL(href);
+		} catch (MalformedURLException | DOMException e) {
+			// Will be reported when the sheet is loaded
+			return;
+		}
+		if (prefetchURL != null && prefetchURL.toExternalForm().equals(url.toExternalForm())) {
+			// Already prefetching
+			return;
+		}
+		if (!doc.isAuthorizedOrigin(url)) {
+			return;
+		}
+		cancelPrefetch();
+		LinkedStyleSheetCache cache = getDocumentFactory().getLinkedStyleSheetCache();
+		try {
+			prefetch = CompletableFuture.supplyAsync(() -> {
+				try {
+					if (cache != null) {
+						return cache.prefetch(doc, url);
+					}
+					return LinkedSheetResponse.fetch(doc, url, null, null);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, executor);
+			prefetchURL = url;
+		} catch (RejectedExecutionException e) {
+			// The sheet shall be retrieved synchronously
+		}
+	}
+
+	/**
+	 * Cancel the prefetch of the linked sheet, if any.
+	 */
+	void cancelPrefetch() {
+		if (prefetch != null) {
+			prefetch.cancel(false);
+			prefetch = null;
+			prefetchURL = null;
+		}
+	}
+
+	private Future<LinkedSheetResponse> takePrefetch(URL url, String referrerPolicy) {
+		Future<LinkedSheetResponse> future = prefetch;
+		if (future != null) {
+			URL futureURL = prefetchURL;
+			prefetch = null;
+			prefetchURL = null;
+			if (referrerPolicy.length() != 0 || !futureURL.toExternalForm().equals(url.toExternalForm())) {
+				future.cancel(false);
+				future = null;
+			}
+		}
+		return future;
+	}
+
+	/**
+	 * Wait for a prefetched response.
+	 * 
+	 * @param future the prefetched response.
+	 * @return the response, or {@code null} if the prefetch was cancelled or there
+	 *         was nothing to retrieve.
+	 * @throws IOException if the sheet could not be retrieved.
+	 */
+	static LinkedSheetResponse awaitResponse(Future<LinkedSheetResponse> future) throws IOException {
+		try {
+			return future.get();
+		} catch (CancellationException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a style sheet.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
 	private void loadStyleSheet(String href, String title) {
 		String media = attributeValue("media");
 		MediaQueryList mediaList;
@@ -142,7 +286,17 @@ class LinkElement extends StyleDefinerElement {
 			URL url = getOwnerDocument().getURL(href);
 			if (getOwnerDocument().isAuthorizedOrigin(url)) {
 				linkedSheet.setHref(url.toExternalForm());
-				linkedSheet.loadStyleSheet(url, referrerPolicy);
+				Future<LinkedSheetResponse> future = takePrefetch(url, referrerPolicy);
+				LinkedStyleSheetCache cache = getDocumentFactory().getLinkedStyleSheetCache();
+				LinkedSheetResponse response;
+				if (cache != null && referrerPolicy.length() == 0) {
+					cache.loadStyleSheet(this, (DOM4JCSSStyleSheet) linkedSheet, url, future);
+				} else if (future != null && (response = awaitResponse(future)) != null
+						&& response.isStyleSheet()) {
+					LinkedStyleSheetCache.parse((DOM4JCSSStyleSheet) linkedSheet, response);
+				} else {
+					linkedSheet.loadStyleSheet(url, referrerPolicy);
+				}
 			} else {
 				getErrorHandler().policyError(this, "Unauthorized URL: " + url.toExternalForm());
 			}
@@ -0,0 +1,203 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import io.sf.carte.util.agent.AgentUtil;
+
+/**
+ * The response to a linked style sheet request, fully read into memory so it
+ * can be retrieved on a different thread than the one that parses it.
+ */
+class LinkedSheetResponse {
+
+	/**
+	 * The time when the request was made.
+	 */
+	final long requestTime;
+
+	/**
+	 * The HTTP response code, or {@code -1} if this is not an HTTP response.
+	 */
+	final int responseCode;
+
+	final String contentType;
+
+	final String contentEncoding;
+
+	final String etag;
+
+	final String lastModified;
+
+	final String cacheControl;
+
+	final long expiration;
+
+	final long date;
+
+	/*
+	 * The response body, or null if the response was 'Not Modified'.
+	 */
+	private final byte[] content;
+
+	private LinkedSheetResponse(URLConnection con, long requestTime, int responseCode, byte[] content) {
+		super();
+		this.requestTime = requestTime;
+		this.responseCode = responseCode;
+		this.contentType = con.getContentType();
+		this.contentEncoding = con.getContentEncoding();
+		this.etag = con.getHeaderField("ETag");
+		this.lastModified = con.getHeaderField("Last-Modified");
+		this.cacheControl = con.getHeaderField("Cache-Control");
+		this.expiration = con.getExpiration();
+		this.date = con.getDate();
+		this.content = content;
+	}
+
+	/**
+	 * Retrieve a style sheet.
+	 * 
+	 * @param doc          the document whose connections are to be used.
+	 * @param url          the URL of the sheet.
+	 * @param etag         the entity tag for a conditional request, or
+	 *                     {@code null}.
+	 * @param lastModified the last modification date for a conditional request,
+	 *                     or {@code null}.
+	 * @return the response.
+	 * @throws IOException if the sheet could not be retrieved.
+	 */
+	static LinkedSheetResponse fetch(XHTMLDocument doc, URL url, String etag, String lastModified)
+			throws IOException {
+		long now = System.currentTimeMillis();
+		URLConnection con = doc.openConnection(url);
+		if (etag != null) {
+			con.setRequestProperty("If-None-Match", etag);
+		}
+		if (lastModified != null) {
+			con.setRequestProperty("If-Modified-Since", lastModified);
+		}
+		con.connect();
+		try {
+			int responseCode = -1;
+			if (con instanceof HttpURLConnection) {
+				responseCode = ((HttpURLConnection) con).getResponseCode();
+				if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && (etag != null || lastModified != null)) {
+					return new LinkedSheetResponse(con, now, responseCode, null);
+				}
+			}
+			byte[] content;
+			try (InputStream is = con.getInputStream()) {
+				content = readAll(is);
+			}
+			return new LinkedSheetResponse(con, now, responseCode, content);
+		} finally {
+			if (con instanceof HttpURLConnection) {
+				((HttpURLConnection) con).disconnect();
+			}
+		}
+	}
+
+	private static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = is.read(buf)) != -1) {
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Check whether the server answered a conditional request with a
+	 * {@code 304 Not Modified} response.
+	 * 
+	 * @return {@code true} if the resource was not modified.
+	 */
+	boolean isNotModified() {
+		return content == null;
+	}
+
+	/**
+	 * Check whether the content type of the response is compatible with a CSS
+	 * style sheet.
+	 * 
+	 * @return {@code true} if the response has no content type, or it is
+	 *         {@code text/css}.
+	 */
+	boolean isStyleSheet() {
+		return contentType == null || contentType.toLowerCase(Locale.ROOT).startsWith("text/css");
+	}
+
+	/**
+	 * Open a reader for the content of the response.
+	 * 
+	 * @return the reader.
+	 * @throws IOException if the content could not be decoded.
+	 */
+	Reader openReader() throws IOException {
+		return AgentUtil.inputStreamToReader(new ByteArrayInputStream(content), contentType, contentEncoding,
+				StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Compute the freshness lifetime of the response.
+	 * 
+	 * @param defaultFreshness the lifetime to use if the response does not specify
+	 *                         one.
+	 * @return the freshness lifetime in milliseconds, or {@code -1} if the
+	 *         response must not be stored.
+	 */
+	long freshnessLifetime(long defaultFreshness) {
+		if (cacheControl != null) {
+			long maxAge = -1;
+			boolean noCache = false;
+			String[] directives = cacheControl.toLowerCase(Locale.ROOT).split(",");
+			for (String directive : directives) {
+				directive = directive.trim();
+				if ("no-store".equals(directive)) {
+					return -1;
+				} else if ("no-cache".equals(directive)) {
+					noCache = true;
+				} else if (directive.startsWith("max-age=")) {
+					try {
+						maxAge = Long.parseLong(directive.substring(8).trim());
+					} catch (NumberFormatException e) {
+						// Invalid max-age: treat the response as stale
+						maxAge = 0;
+					}
+				}
+			}
+			if (noCache) {
+				return 0;
+			}
+			if (maxAge >= 0) {
+				return maxAge * 1000;
+			}
+		}
+		if (expiration != 0) {
+			long responseDate = date != 0 ? date : requestTime;
+			return Math.max(0, expiration - responseDate);
+		}
+		return defaultFreshness;
+	}
+
+}
@@ -0,0 +1,290 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import io.sf.carte.doc.dom4j.XHTMLDocumentFactory.DOM4JCSSStyleSheetFactory;
+import io.sf.carte.doc.style.css.MediaQueryList;
+import io.sf.carte.doc.style.css.SheetErrorHandler;
+
+/**
+ * A cache of parsed linked style sheets, that can be shared by many documents.
+ * <p>
+ * The sheets are keyed by their resolved URL, their media and the parser flags
+ * of the style sheet factory that parsed them, and the least
+ * recently used entries are evicted when the cache is full. Cached sheets are
+ * fresh for the lifetime given by the {@code Cache-Control} ({@code max-age},
+ * {@code no-cache}, {@code no-store}) or {@code Expires} response headers, or for
+ * the default freshness lifetime if the response does not specify one. Once
+ * they are stale, the sheets are revalidated with the {@code ETag} and
+ * {@code Last-Modified} validators, and a {@code 304 Not Modified} response
+ * reuses the cached sheet.
+ * </p>
+ * <p>
+ * The cached sheets are never handed to the documents: each document that links
+ * to a cached sheet receives a copy of its rules, so the rules of the cached
+ * sheet remain immutable and modifying a rule through the CSSOM of one document
+ * does not affect the others. Copying the rules is much cheaper than retrieving
+ * and parsing the sheet again. Sheets that had errors when parsed are not
+ * cached, so the errors are reported to each document.
+ * </p>
+ * <p>
+ * The requests made by the cache do not carry a {@code Referer} header, and
+ * links that have a {@code referrerpolicy} attribute bypass the cache.
+ * </p>
+ * <p>
+ * Instances of this class are thread-safe.
+ * </p>
+ * 
+ * @see XHTMLDocumentFactory#setLinkedStyleSheetCache(LinkedStyleSheetCache)
+ */
+public final class LinkedStyleSheetCache {
+
+	private final int maxEntries;
+
+	private final Map<String, Entry> entries;
+
+	private volatile long defaultFreshness = 0;
+
+	/**
+	 * Construct a cache with the given maximum number of sheets.
+	 * 
+	 * @param maxEntries the maximum number of sheets in the cache.
+	 * @throws IllegalArgumentException if {@code maxEntries} is not positive.
+	 */
+	public LinkedStyleSheetCache(int maxEntries) {
+		super();
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("The maximum number of entries must be positive.");
+		}
+		this.maxEntries = maxEntries;
+		entries = new LinkedHashMap<String, Entry>(Math.min(maxEntries, 64), 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > LinkedStyleSheetCache.this.maxEntries;
+			}
+
+		};
+	}
+
+	/**
+	 * Gets the maximum number of sheets in the cache.
+	 * 
+	 * @return the maximum number of sheets.
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Gets the freshness lifetime of the sheets whose responses do not specify
+	 * one.
+	 * 
+	 * @return the default freshness lifetime, in milliseconds.
+	 */
+	public long getDefaultFreshness() {
+		return defaultFreshness;
+	}
+
+	/**
+	 * Sets the freshness lifetime of the sheets whose responses do not specify
+	 * one.
+	 * <p>
+	 * By default it is zero, so those sheets are revalidated each time that they
+	 * are used (if they have validators) or not cached at all (if they don't).
+	 * </p>
+	 * 
+	 * @param millis the default freshness lifetime, in milliseconds.
+	 */
+	public void setDefaultFreshness(long millis) {
+		defaultFreshness = millis;
+	}
+
+	/**
+	 * Gets the number of sheets in the cache.
+	 * 
+	 * @return the number of cached sheets.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Remove all the sheets from the cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	private synchronized Entry get(String key) {
+		return entries.get(key);
+	}
+
+	private synchronized void put(String key, Entry entry) {
+		entries.put(key, entry);
+	}
+
+	private synchronized void remove(String key) {
+		entries.remove(key);
+	}
+
+	/*
+	 * The URL must come first, as the prefetch looks the entries up by URL.
+	 */
+	private static String key(URL url, LinkElement link, MediaQueryList media) {
+		DOM4JCSSStyleSheetFactory factory = (DOM4JCSSStyleSheetFactory) link.getDocumentFactory()
+				.getStyleSheetFactory();
+		return url.toExternalForm() + ' ' + factory.parserFlagsKey + ' ' + media.getMedia();
+	}
+
+	/**
+	 * Retrieve the sheet located at the given URL, unless there is a fresh sheet
+	 * for that URL in the cache.
+	 * <p>
+	 * This is used to prefetch the sheets before their media is known, so any
+	 * entry for the URL is considered.
+	 * </p>
+	 * 
+	 * @param doc the document whose connections are to be used.
+	 * @param url the resolved URL of the sheet.
+	 * @return the response, or {@code null} if the cache has a fresh sheet for the
+	 *         URL.
+	 * @throws IOException if the sheet could not be retrieved.
+	 */
+	LinkedSheetResponse prefetch(XHTMLDocument doc, URL url) throws IOException {
+		String prefix = url.toExternalForm() + ' ';
+		long now = System.currentTimeMillis();
+		Entry validators = null;
+		synchronized (this) {
+			for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+				if (mapEntry.getKey().startsWith(prefix)) {
+					Entry entry = mapEntry.getValue();
+					if (now < entry.expires) {
+						return null;
+					}
+					validators = entry;
+				}
+			}
+		}
+		if (validators != null) {
+			return LinkedSheetResponse.fetch(doc, url, validators.etag, validators.lastModified);
+		}
+		return LinkedSheetResponse.fetch(doc, url, null, null);
+	}
+
+	/**
+	 * Load the rules of the sheet located at the given URL into the target sheet,
+	 * either from the cache or from the network.
+	 * 
+	 * @param link     the linking element.
+	 * @param target   the target sheet, owned by {@code link}.
+	 * @param url      the resolved URL of the sheet.
+	 * @param prefetch the prefetched response (see
+	 *                 {@link #prefetch(XHTMLDocument, URL)}), or {@code null}.
+	 * @throws IOException if the sheet could not be retrieved.
+	 */
+	void loadStyleSheet(LinkElement link, DOM4JCSSStyleSheet target, URL url, Future<LinkedSheetResponse> prefetch)
+			throws IOException {
+		String key = key(url, link, target.getMedia());
+		Entry entry = get(key);
+		if (entry != null && System.currentTimeMillis() < entry.expires) {
+			entry.sheet.cloneRulesTo(target);
+			return;
+		}
+		LinkedSheetResponse response = prefetch != null ? LinkElement.awaitResponse(prefetch) : null;
+		if (response == null || (response.isNotModified() && entry == null)) {
+			// No usable prefetched response
+			if (entry != null) {
+				response = LinkedSheetResponse.fetch(link.getOwnerDocument(), url, entry.etag, entry.lastModified);
+			} else {
+				response = LinkedSheetResponse.fetch(link.getOwnerDocument(), url, null, null);
+			}
+		}
+		if (response.isNotModified()) {
+			long lifetime = response.freshnessLifetime(defaultFreshness);
+			if (lifetime < 0) {
+				remove(key);
+			} else {
+				entry.expires = response.requestTime + lifetime;
+			}
+			entry.sheet.cloneRulesTo(target);
+			return;
+		}
+		if (!response.isStyleSheet()) {
+			// Not a style sheet: let the sheet apply its own checks and error handling
+			remove(key);
+			target.loadStyleSheet(url, "");
+			return;
+		}
+		long lifetime = response.freshnessLifetime(defaultFreshness);
+		if (lifetime < 0 || (lifetime == 0 && response.etag == null && response.lastModified == null)) {
+			// Cannot be cached, or would be useless in the cache
+			remove(key);
+			parse(target, response);
+			return;
+		}
+		/*
+		 * Parse in a sheet that is owned by the link only during the parse, so it
+		 * does not keep the document alive once it is in the cache.
+		 */
+		DOM4JCSSStyleSheet sheet = (DOM4JCSSStyleSheet) link.getDocumentFactory().createLinkedStyleSheet(link, null,
+				target.getMedia());
+		sheet.setHref(target.getHref());
+		parse(sheet, response);
+		SheetErrorHandler eh = sheet.getErrorHandler();
+		if (sheet.hasRuleErrorsOrWarnings() || eh.hasSacErrors() || eh.hasOMErrors()) {
+			// Parse again in the document's sheet, so the errors are reported there
+			remove(key);
+			parse(target, response);
+			return;
+		}
+		sheet.ownerNode = null;
+		put(key, new Entry(sheet, response.requestTime + lifetime, response.etag, response.lastModified));
+		sheet.cloneRulesTo(target);
+	}
+
+	static void parse(DOM4JCSSStyleSheet sheet, LinkedSheetResponse response) throws IOException {
+		try (Reader re = response.openReader()) {
+			sheet.parseStyleSheet(re);
+		}
+	}
+
+	private static class Entry {
+
+		final DOM4JCSSStyleSheet sheet;
+
+		volatile long expires;
+
+		final String etag;
+
+		final String lastModified;
+
+		Entry(DOM4JCSSStyleSheet sheet, long expires, String etag, String lastModified) {
+			super();
+			this.sheet = sheet;
+			this.expires = expires;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+	}
+
+}
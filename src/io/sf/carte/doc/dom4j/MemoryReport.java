@@ -0,0 +1,497 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.dom4j.Attribute;
+import org.dom4j.Element;
+import org.dom4j.Node;
+
+import io.sf.carte.doc.style.css.DocumentCSSStyleSheet;
+import io.sf.carte.doc.style.css.om.AbstractCSSRule;
+import io.sf.carte.doc.style.css.om.AbstractCSSStyleDeclaration;
+import io.sf.carte.doc.style.css.om.AbstractCSSStyleSheet;
+import io.sf.carte.doc.style.css.om.BaseCSSDeclarationRule;
+import io.sf.carte.doc.style.css.om.CSSRuleArrayList;
+import io.sf.carte.doc.style.css.om.ComputedCSSStyle;
+import io.sf.carte.doc.style.css.om.GroupingRule;
+import io.sf.carte.doc.style.css.om.StyleRule;
+
+/**
+ * Estimate of the memory retained by a document, broken down by the kind of
+ * object that retains it.
+ * <p>
+ * The figures are rough estimates computed from the number of objects of each
+ * kind and their contents, assuming a 64-bit virtual machine with compressed
+ * references. They are intended to compare documents and to find out which
+ * caches are worth their memory, not to account for every byte.
+ * </p>
+ * <p>
+ * Objects that are shared by several documents (like the rules of the
+ * style sheets that come from a template or from the linked sheet cache) are
+ * counted in each document that references them, while objects that are shared
+ * by several elements of the same document (like interned inline or computed
+ * styles) are counted once.
+ * </p>
+ * 
+ * @see XHTMLDocument#memoryReport()
+ */
+public final class MemoryReport {
+
+	/*
+	 * Estimated sizes, in bytes.
+	 */
+	private static final int ELEMENT_BYTES = 72;
+
+	private static final int CONTENT_LIST_BYTES = 40;
+
+	private static final int REFERENCE_BYTES = 4;
+
+	private static final int NODE_BYTES = 24;
+
+	private static final int STRING_BYTES = 40;
+
+	private static final int ATTRIBUTE_BYTES = 24;
+
+	private static final int DECLARATION_BYTES = 56;
+
+	private static final int PROPERTY_BYTES = 72;
+
+	private static final int MATCHER_BYTES = 40;
+
+	private static final int CHILD_INDEX_BYTES = 24;
+
+	private static final int ARRAY_BYTES = 16;
+
+	private static final int TABLE_ENTRY_BYTES = 56;
+
+	private static final int SHEET_BYTES = 120;
+
+	private static final int RULE_BYTES = 64;
+
+	private static final int SELECTOR_BYTES = 48;
+
+	private static final int INDEX_ENTRY_BYTES = 64;
+
+	private int elementCount = 0;
+
+	private long elementBytes = 0;
+
+	private long otherNodeBytes = 0;
+
+	private int attributeCount = 0;
+
+	private long attributeBytes = 0;
+
+	private int inlineStyleCount = 0;
+
+	private long inlineStyleBytes = 0;
+
+	private int selectorMatcherCount = 0;
+
+	private long selectorMatcherBytes = 0;
+
+	private int childIndexCount = 0;
+
+	private long childIndexBytes = 0;
+
+	private int computedStyleCount = 0;
+
+	private long computedStyleBytes = 0;
+
+	private int internedStyleCount = 0;
+
+	private long internedStyleTableBytes = 0;
+
+	private int styleSheetCount = 0;
+
+	private long styleSheetBytes = 0;
+
+	private long mergedStyleSheetBytes = 0;
+
+	private MemoryReport() {
+		super();
+	}
+
+	/**
+	 * Create the report for the given document.
+	 * 
+	 * @param document         the document.
+	 * @param mergedStyleSheet the merged style sheet of the document, or
+	 *                         {@code null} if it was not built.
+	 * @param internedStyles   the table of interned computed styles of the
+	 *                         document, or {@code null} if none.
+	 * @return the report.
+	 */
+	static MemoryReport create(XHTMLDocument document, DocumentCSSStyleSheet mergedStyleSheet,
+			ComputedStyleTable internedStyles) {
+		MemoryReport report = new MemoryReport();
+		report.addNodes(document, internedStyles);
+		report.addStyleSheets(document.linkedStyle);
+		report.addStyleSheets(document.embeddedStyle);
+		if (mergedStyleSheet != null) {
+			report.addMergedStyleSheet(mergedStyleSheet);
+		}
+		return report;
+	}
+
+	private void addNodes(XHTMLDocument document, ComputedStyleTable internedStyles) {
+		Set<AbstractCSSStyleDeclaration> inlineStyles = Collections.newSetFromMap(new IdentityHashMap<>());
+		Set<ComputedCSSStyle> computedStyles = Collections.newSetFromMap(new IdentityHashMap<>());
+		ArrayDeque<Element> stack = new ArrayDeque<>();
+		for (Node node : document.content()) {
+			if (node instanceof Element) {
+				stack.push((Element) node);
+			} else {
+				otherNodeBytes += nodeBytes(node);
+			}
+		}
+		while (!stack.isEmpty()) {
+			Element element = stack.pop();
+			elementCount++;
+			int nodeCount = element.nodeCount();
+			elementBytes += ELEMENT_BYTES;
+			if (nodeCount > 1) {
+				elementBytes += CONTENT_LIST_BYTES + REFERENCE_BYTES * nodeCount;
+			}
+			int attrCount = element.attributeCount();
+			if (attrCount > 1) {
+				elementBytes += CONTENT_LIST_BYTES + REFERENCE_BYTES * attrCount;
+			}
+			for (int i = 0; i < attrCount; i++) {
+				Attribute attr = element.attribute(i);
+				attributeCount++;
+				attributeBytes += ATTRIBUTE_BYTES + stringBytes(attr.getValue());
+				if (attr instanceof StyleAttribute) {
+					AbstractCSSStyleDeclaration style = ((StyleAttribute) attr).peekStyle();
+					if (style != null && inlineStyles.add(style)) {
+						inlineStyleCount++;
+						inlineStyleBytes += declarationBytes(style);
+					}
+				}
+			}
+			if (element instanceof CSSStylableElement) {
+				CSSStylableElement stylable = (CSSStylableElement) element;
+				if (stylable.hasSelectorMatcher()) {
+					selectorMatcherCount++;
+					selectorMatcherBytes += MATCHER_BYTES;
+				}
+				ChildElementIndex index = stylable.peekChildIndex();
+				if (index != null) {
+					childIndexCount++;
+					// The element array and the two int arrays
+					childIndexBytes += CHILD_INDEX_BYTES + 3 * ARRAY_BYTES + 3 * REFERENCE_BYTES * index.getLength();
+				}
+				addComputedStyle(stylable.peekCachedComputedStyle(), computedStyles);
+				Map<String, ComputedCSSStyle> pseudoStyles = stylable.peekCachedPseudoStyles();
+				if (pseudoStyles != null) {
+					for (ComputedCSSStyle style : pseudoStyles.values()) {
+						addComputedStyle(style, computedStyles);
+					}
+				}
+			}
+			for (int i = nodeCount - 1; i >= 0; i--) {
+				Node node = element.node(i);
+				if (node instanceof Element) {
+					stack.push((Element) node);
+				} else {
+					otherNodeBytes += nodeBytes(node);
+				}
+			}
+		}
+		if (internedStyles != null) {
+			// The canonical styles that are also cached by an element are counted once
+			for (ComputedCSSStyle style : internedStyles.styles()) {
+				internedStyleCount++;
+				addComputedStyle(style, computedStyles);
+			}
+			internedStyleTableBytes = CONTENT_LIST_BYTES
+					+ (TABLE_ENTRY_BYTES + STRING_BYTES) * (long) internedStyleCount + internedStyles.keyLength();
+		}
+	}
+
+	private void addComputedStyle(ComputedCSSStyle style, Set<ComputedCSSStyle> computedStyles) {
+		if (style != null && computedStyles.add(style)) {
+			computedStyleCount++;
+			computedStyleBytes += declarationBytes(style);
+		}
+	}
+
+	private void addStyleSheets(Set<StyleDefinerElement> definers) {
+		for (StyleDefinerElement definer : definers) {
+			AbstractCSSStyleSheet sheet = definer.linkedSheet;
+			if (sheet != null) {
+				styleSheetCount++;
+				styleSheetBytes += SHEET_BYTES + ruleListBytes(sheet.getCssRules());
+			}
+		}
+	}
+
+	private void addMergedStyleSheet(DocumentCSSStyleSheet mergedStyleSheet) {
+		// The rules belong to other sheets, the merged sheet only references them
+		mergedStyleSheetBytes = SHEET_BYTES + CONTENT_LIST_BYTES
+				+ REFERENCE_BYTES * mergedStyleSheet.getCssRules().getLength();
+		if (mergedStyleSheet instanceof DOM4JDocumentCSSStyleSheet) {
+			RuleIndex index = ((DOM4JDocumentCSSStyleSheet) mergedStyleSheet).peekRuleIndex();
+			if (index != null) {
+				mergedStyleSheetBytes += CONTENT_LIST_BYTES + INDEX_ENTRY_BYTES * index.getSelectorListCount();
+			}
+		}
+	}
+
+	private static long ruleListBytes(CSSRuleArrayList rules) {
+		long bytes = CONTENT_LIST_BYTES;
+		for (AbstractCSSRule rule : rules) {
+			bytes += REFERENCE_BYTES + RULE_BYTES;
+			if (rule instanceof BaseCSSDeclarationRule) {
+				bytes += declarationBytes(((BaseCSSDeclarationRule) rule).getStyle());
+				if (rule instanceof StyleRule) {
+					bytes += SELECTOR_BYTES * ((StyleRule) rule).getSelectorList().getLength();
+				}
+			} else if (rule instanceof GroupingRule) {
+				bytes += ruleListBytes(((GroupingRule) rule).getCssRules());
+			}
+		}
+		return bytes;
+	}
+
+	private static long declarationBytes(AbstractCSSStyleDeclaration style) {
+		return style == null ? 0 : DECLARATION_BYTES + PROPERTY_BYTES * style.getLength();
+	}
+
+	private static long nodeBytes(Node node) {
+		return NODE_BYTES + stringBytes(node.getText());
+	}
+
+	private static long stringBytes(String s) {
+		return s == null ? 0 : STRING_BYTES + s.length();
+	}
+
+	/**
+	 * Gets the number of elements in the document.
+	 * 
+	 * @return the number of elements.
+	 */
+	public int getElementCount() {
+		return elementCount;
+	}
+
+	/**
+	 * Gets the estimated memory retained by the element nodes, including the
+	 * lists of their child nodes and attributes.
+	 * 
+	 * @return the estimated bytes.
+	 */
+	public long getElementBytes() {
+		return elementBytes;
+	}
+
+	/**
+	 * Gets the estimated memory retained by the text, comment and other non-element
+	 * nodes.
+	 * 
+	 * @return the estimated bytes.
+	 */
+	public long getOtherNodeBytes() {
+		return otherNodeBytes;
+	}
+
+	/**
+	 * Gets the number of attributes in the document.
+	 * 
+	 * @return the number of attributes.
+	 */
+	public int getAttributeCount() {
+		return attributeCount;
+	}
+
+	/**
+	 * Gets the estimated memory retained by the attributes and their values.
+	 * 
+	 * @return the estimated bytes.
+	 */
+	public long getAttributeBytes() {
+		return attributeBytes;
+	}
+
+	/**
+	 * Gets the number of distinct parsed inline styles.
+	 * 
+	 * @return the number of parsed inline styles.
+	 */
+	public int getInlineStyleCount() {
+		return inlineStyleCount;
+	}
+
+	/**
+	 * Gets the estimated memory retained by the parsed inline styles.
+	 * 
+	 * @return the estimated bytes.
+	 */
+	public long getInlineStyleBytes() {
+		return inlineStyleBytes;
+	}
+
+	/**
+	 * Gets the number of selector matchers kept by the elements.
+	 * 
+	 * @return the number of selector matchers.
+	 */
+	public int getSelectorMatcherCount() {
+		return selectorMatcherCount;
+	}
+
+	/**
+	 * Gets the estimated memory retained by the selector matchers kept by the
+	 * elements.
+	 * 
+	 * @return the estimated bytes.
+	 */
+	public long getSelectorMatcherBytes() {
+		return selectorMatcherBytes;
+	}
+
+	/**
+	 * Gets the number of child element indexes kept by the elements.
+	 * 
+	 * @return the number of child element indexes.
+	 */
+	public int getChildIndexCount() {
+		return childIndexCount;
+	}
+
+	/**
+	 * Gets the estimated memory retained by the child element indexes kept by
+	 * the elements.
+	 * 
+	 * @return the estimated bytes.
+	 */
+	public long getChildIndexBytes() {
+		return childIndexBytes;
+	}
+
+	/**
+	 * Gets the number of distinct computed styles cached by the elements or
+	 * interned by the document, including the styles that are no longer valid but
+	 * were not released yet, and the styles of template elements that were not
+	 * copied yet.
+	 * 
+	 * @return the number of cached computed styles.
+	 */
+	public int getComputedStyleCount() {
+		return computedStyleCount;
+	}
+
+	/**
+	 * Gets the estimated memory retained by the computed styles cached by the
+	 * elements or interned by the document.
+	 * 
+	 * @return the estimated bytes.
+	 */
+	public long getComputedStyleBytes() {
+		return computedStyleBytes;
+	}
+
+	/**
+	 * Gets the number of canonical styles in the table of interned computed
+	 * styles.
+	 * 
+	 * @return the number of interned computed styles.
+	 */
+	public int getInternedStyleCount() {
+		return internedStyleCount;
+	}
+
+	/**
+	 * Gets the estimated memory retained by the table of interned computed
+	 * styles, including its keys but not the styles themselves (which are
+	 * counted in {@link #getComputedStyleBytes()}).
+	 * 
+	 * @return the estimated bytes.
+	 */
+	public long getInternedStyleTableBytes() {
+		return internedStyleTableBytes;
+	}
+
+	/**
+	 * Gets the number of style sheets of the <code>STYLE</code> and
+	 * <code>LINK</code> elements.
+	 * 
+	 * @return the number of linked and embedded sheets.
+	 */
+	public int getStyleSheetCount() {
+		return styleSheetCount;
+	}
+
+	/**
+	 * Gets the estimated memory retained by the style sheets of the
+	 * <code>STYLE</code> and <code>LINK</code> elements, including their rules.
+	 * 
+	 * @return the estimated bytes.
+	 */
+	public long getStyleSheetBytes() {
+		return styleSheetBytes;
+	}
+
+	/**
+	 * Gets the estimated memory retained by the merged style sheet and its rule
+	 * index.
+	 * <p>
+	 * The rules of the merged sheet are counted with the sheets that they come
+	 * from (or not at all, for the default sheet which belongs to the factory).
+	 * </p>
+	 * 
+	 * @return the estimated bytes, or zero if the merged sheet was not built.
+	 */
+	public long getMergedStyleSheetBytes() {
+		return mergedStyleSheetBytes;
+	}
+
+	/**
+	 * Gets the estimated memory retained by the document.
+	 * 
+	 * @return the estimated bytes.
+	 */
+	public long getTotalBytes() {
+		return elementBytes + otherNodeBytes + attributeBytes + inlineStyleBytes + selectorMatcherBytes
+				+ childIndexBytes + computedStyleBytes + internedStyleTableBytes + styleSheetBytes
+				+ mergedStyleSheetBytes;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder(512);
+		buf.append("Elements: ").append(elementCount).append(", ").append(elementBytes).append(" bytes\n");
+		buf.append("Other nodes: ").append(otherNodeBytes).append(" bytes\n");
+		buf.append("Attributes: ").append(attributeCount).append(", ").append(attributeBytes).append(" bytes\n");
+		buf.append("Inline styles: ").append(inlineStyleCount).append(", ").append(inlineStyleBytes)
+				.append(" bytes\n");
+		buf.append("Selector matchers: ").append(selectorMatcherCount).append(", ").append(selectorMatcherBytes)
+				.append(" bytes\n");
+		buf.append("Child indexes: ").append(childIndexCount).append(", ").append(childIndexBytes)
+				.append(" bytes\n");
+		buf.append("Computed styles: ").append(computedStyleCount).append(", ").append(computedStyleBytes)
+				.append(" bytes\n");
+		buf.append("Interned style table: ").append(internedStyleCount).append(", ")
+				.append(internedStyleTableBytes).append(" bytes\n");
+		buf.append("Style sheets: ").append(styleSheetCount).append(", ").append(styleSheetBytes).append(" bytes\n");
+		buf.append("Merged style sheet: ").append(mergedStyleSheetBytes).append(" bytes\n");
+		buf.append("Total: ").append(getTotalBytes()).append(" bytes");
+		return buf.toString();
+	}
+
+}
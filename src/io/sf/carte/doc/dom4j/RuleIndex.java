@@ -0,0 +1,589 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+
+import io.sf.carte.doc.style.css.nsac.AttributeCondition;
+import io.sf.carte.doc.style.css.nsac.CombinatorCondition;
+import io.sf.carte.doc.style.css.nsac.CombinatorSelector;
+import io.sf.carte.doc.style.css.nsac.Condition;
+import io.sf.carte.doc.style.css.nsac.ConditionalSelector;
+import io.sf.carte.doc.style.css.nsac.ElementSelector;
+import io.sf.carte.doc.style.css.nsac.Selector;
+import io.sf.carte.doc.style.css.nsac.Selector.SelectorType;
+import io.sf.carte.doc.style.css.nsac.SelectorList;
+import io.sf.carte.doc.style.css.nsac.SimpleSelector;
+import io.sf.carte.doc.style.css.om.AbstractCSSRule;
+import io.sf.carte.doc.style.css.om.CSSRuleArrayList;
+import io.sf.carte.doc.style.css.om.GroupingRule;
+import io.sf.carte.doc.style.css.om.StyleRule;
+
+/**
+ * Index of the style rules in a document style sheet, keyed by the identifier,
+ * class or tag name that the rightmost compound selector of each selector
+ * requires.
+ * <p>
+ * The cascade keeps visiting the rules in cascade order, but for each element
+ * the selector lists whose selectors all require an identifier, class or tag
+ * name that the element does not have are rejected without running the
+ * selector matcher.
+ * </p>
+ * <p>
+ * Rules that are added to the sheet after the index was built are not indexed,
+ * and are always fully matched. All comparisons are case-insensitive, so the
+ * index works the same in quirks and strict mode.
+ * </p>
+ * <p>
+ * While the rules are indexed, they are also scanned for selectors that would
+ * make unsafe to share computed styles between elements with identical
+ * attributes and identical ancestors (sibling combinators, structural or
+ * content-dependent pseudo-classes, and state pseudo-classes). Those flags
+ * only describe the indexed selectors, so before they are used the sheet must be
+ * checked with {@link #indexesAll(CSSRuleArrayList)}, as the selectors may
+ * have been modified through the object model without changing the number of
+ * rules.
+ * </p>
+ */
+final class RuleIndex {
+
+	/**
+	 * Flag for selectors that depend on siblings or contents.
+	 */
+	static final int SHARING_UNSAFE = 1;
+
+	/**
+	 * Flag for selectors with pseudo-classes that may depend on the state of the
+	 * canvas.
+	 */
+	static final int SHARING_STATE = 2;
+
+	/**
+	 * Flag for selectors that may be matched against any preceding sibling of the
+	 * element, and not only against the previous one (like chained sibling
+	 * combinators, or the <code>of S</code> argument of <code>:nth-child()</code>).
+	 */
+	static final int PRECEDING_SIBLINGS = 4;
+
+	/**
+	 * Flag for selectors that depend on the following siblings of the same type.
+	 */
+	static final int FOLLOWING_OF_TYPE = 8;
+
+	/*
+	 * Pseudo-classes that depend on the siblings or the contents of the element.
+	 */
+	private static final HashSet<String> unsafePseudoClasses = new HashSet<>(Arrays.asList("blank",
+			"default", "dir", "empty", "first-child", "first-of-type", "has", "last-child", "last-of-type",
+			"nth-child", "nth-last-child", "nth-last-of-type", "nth-of-type", "only-child", "only-of-type"));
+
+	/*
+	 * Pseudo-classes that depend on the following siblings of the same type.
+	 */
+	private static final HashSet<String> followingOfTypePseudoClasses = new HashSet<>(
+			Arrays.asList("last-of-type", "nth-last-of-type", "only-of-type"));
+
+	/*
+	 * Pseudo-classes that take selector arguments, whose own pseudo-classes are
+	 * checked separately.
+	 */
+	private static final HashSet<String> argumentPseudoClasses = new HashSet<>(
+			Arrays.asList("is", "matches", "not", "where"));
+
+	/*
+	 * Pseudo-classes that only depend on the attributes of the element and its
+	 * ancestors.
+	 */
+	private static final HashSet<String> attributePseudoClasses = new HashSet<>(Arrays.asList("any-link",
+			"checked", "defined", "disabled", "enabled", "lang", "link", "optional", "placeholder-shown",
+			"read-only", "read-write", "required", "root", "scope", "target", "visited"));
+
+	private static final byte KEY_ANY = 0;
+
+	private static final byte KEY_ID = 1;
+
+	private static final byte KEY_CLASS = 2;
+
+	private static final byte KEY_TAG = 3;
+
+	private static final String[] NO_CLASSES = new String[0];
+
+	/*
+	 * The keys of each selector in an indexed selector list, or null if any of
+	 * the selectors can match any element.
+	 */
+	private final IdentityHashMap<SelectorList, SelectorKey[]> selectorKeys = new IdentityHashMap<>();
+
+	private final int ruleCount;
+
+	private int sharingFlags = 0;
+
+	/*
+	 * Ancestor hashes required by each indexed selector, computed when first
+	 * requested and never modified afterwards.
+	 */
+	private volatile IdentityHashMap<Selector, int[]> ancestorHashes = null;
+
+	RuleIndex(CSSRuleArrayList rules) {
+		ruleCount = rules.getLength();
+		addRules(rules);
+	}
+
+	private void addRules(CSSRuleArrayList rules) {
+		for (AbstractCSSRule rule : rules) {
+			if (rule instanceof StyleRule) {
+				SelectorList selist = ((StyleRule) rule).getSelectorList();
+				if (selist != null && !selectorKeys.containsKey(selist)) {
+					selectorKeys.put(selist, selectorListKeys(selist));
+					sharingFlags |= selectorListSharingFlags(selist);
+				}
+			} else if (rule instanceof GroupingRule) {
+				addRules(((GroupingRule) rule).getCssRules());
+			}
+		}
+	}
+
+	/**
+	 * Get the number of top-level rules that the sheet had when this index was
+	 * built.
+	 * 
+	 * @return the number of rules.
+	 */
+	int getRuleCount() {
+		return ruleCount;
+	}
+
+	/**
+	 * Check whether all the selector lists in the given rules (including those
+	 * nested in grouping rules) are in this index.
+	 * <p>
+	 * The selector lists are compared by identity, so a selector that was set
+	 * after the index was built, or a rule that was inserted, is detected even if
+	 * the number of rules did not change.
+	 * </p>
+	 * 
+	 * @param rules the rules.
+	 * @return {@code true} if all the selector lists are indexed.
+	 */
+	boolean indexesAll(CSSRuleArrayList rules) {
+		for (AbstractCSSRule rule : rules) {
+			if (rule instanceof StyleRule) {
+				SelectorList selist = ((StyleRule) rule).getSelectorList();
+				if (selist != null && !selectorKeys.containsKey(selist)) {
+					return false;
+				}
+			} else if (rule instanceof GroupingRule) {
+				if (!indexesAll(((GroupingRule) rule).getCssRules())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the hashes that each indexed selector requires to be present among the
+	 * ancestors, to be shared by all the ancestor filters used with the sheet.
+	 * <p>
+	 * The table is computed the first time, and is never modified afterwards, so
+	 * it can be read by any number of threads.
+	 * </p>
+	 * 
+	 * @return the table of ancestor hashes.
+	 */
+	IdentityHashMap<Selector, int[]> getAncestorHashes() {
+		IdentityHashMap<Selector, int[]> hashes = ancestorHashes;
+		if (hashes == null) {
+			hashes = new IdentityHashMap<>(selectorKeys.size());
+			for (SelectorList selist : selectorKeys.keySet()) {
+				int len = selist.getLength();
+				for (int i = 0; i < len; i++) {
+					Selector selector = selist.item(i);
+					hashes.put(selector, AncestorFilter.requiredHashes(selector));
+				}
+			}
+			ancestorHashes = hashes;
+		}
+		return hashes;
+	}
+
+	/**
+	 * Get the number of selector lists in this index.
+	 * 
+	 * @return the number of selector lists.
+	 */
+	int getSelectorListCount() {
+		return selectorKeys.size();
+	}
+
+	/**
+	 * Check whether computed styles can be shared between elements that have
+	 * identical attributes and identical ancestors.
+	 * 
+	 * @param hasCanvas {@code true} if the document has a canvas that could make
+	 *                  state pseudo-classes match.
+	 * @return {@code true} if styles can be shared.
+	 */
+	boolean isStyleSharingSafe(boolean hasCanvas) {
+		return isStyleSharingSafe(sharingFlags, hasCanvas);
+	}
+
+	/**
+	 * Get the flags of the indexed selectors.
+	 * 
+	 * @return the flags ({@link #SHARING_UNSAFE}, {@link #SHARING_STATE},
+	 *         {@link #PRECEDING_SIBLINGS} and {@link #FOLLOWING_OF_TYPE}).
+	 */
+	int getSharingFlags() {
+		return sharingFlags;
+	}
+
+	static boolean isStyleSharingSafe(int flags, boolean hasCanvas) {
+		return (flags & SHARING_UNSAFE) == 0 && (!hasCanvas || (flags & SHARING_STATE) == 0);
+	}
+
+	/**
+	 * Compute the style sharing flags of the given rule list.
+	 * 
+	 * @param rules the rules.
+	 * @return the flags.
+	 */
+	static int sharingFlags(CSSRuleArrayList rules) {
+		int flags = 0;
+		for (AbstractCSSRule rule : rules) {
+			if (rule instanceof StyleRule) {
+				SelectorList selist = ((StyleRule) rule).getSelectorList();
+				if (selist != null) {
+					flags |= selectorListSharingFlags(selist);
+				}
+			} else if (rule instanceof GroupingRule) {
+				flags |= sharingFlags(((GroupingRule) rule).getCssRules());
+			}
+		}
+		return flags;
+	}
+
+	private static int selectorListSharingFlags(SelectorList selist) {
+		int flags = 0;
+		int len = selist.getLength();
+		for (int i = 0; i < len; i++) {
+			flags |= selectorSharingFlags(selist.item(i));
+		}
+		return flags;
+	}
+
+	private static int selectorSharingFlags(Selector selector) {
+		switch (selector.getSelectorType()) {
+		case DESCENDANT:
+		case CHILD:
+			CombinatorSelector comb = (CombinatorSelector) selector;
+			return selectorSharingFlags(comb.getSelector()) | selectorSharingFlags(comb.getSecondSelector());
+		case DIRECT_ADJACENT:
+			comb = (CombinatorSelector) selector;
+			Selector previous = comb.getSelector();
+			int flags = SHARING_UNSAFE | selectorSharingFlags(previous) | selectorSharingFlags(comb.getSecondSelector());
+			if (previous.getSelectorType() == SelectorType.DIRECT_ADJACENT) {
+				// Reaches beyond the previous sibling
+				flags |= PRECEDING_SIBLINGS;
+			}
+			return flags;
+		case SUBSEQUENT_SIBLING:
+			comb = (CombinatorSelector) selector;
+			return SHARING_UNSAFE | PRECEDING_SIBLINGS | selectorSharingFlags(comb.getSelector())
+					| selectorSharingFlags(comb.getSecondSelector());
+		case CONDITIONAL:
+			ConditionalSelector condsel = (ConditionalSelector) selector;
+			return selectorSharingFlags(condsel.getSimpleSelector())
+					| conditionSharingFlags(condsel.getCondition());
+		default:
+			// Type and universal selectors are safe, anything else is not
+			return selector instanceof ElementSelector ? 0 : SHARING_UNSAFE;
+		}
+	}
+
+	private static int conditionSharingFlags(Condition condition) {
+		switch (condition.getConditionType()) {
+		case AND:
+			CombinatorCondition comb = (CombinatorCondition) condition;
+			return conditionSharingFlags(comb.getFirstCondition()) | conditionSharingFlags(comb.getSecondCondition());
+		case ONLY_CHILD:
+			return SHARING_UNSAFE;
+		case ONLY_TYPE:
+			return SHARING_UNSAFE | FOLLOWING_OF_TYPE;
+		case POSITIONAL:
+			// The serialization is only checked for names and 'of' arguments
+			String serialized = condition.toString();
+			int flags = SHARING_UNSAFE | (serializedSharingFlags(serialized) & FOLLOWING_OF_TYPE);
+			if (serialized.contains(" of ")) {
+				flags |= PRECEDING_SIBLINGS;
+			}
+			return flags;
+		case PSEUDO_CLASS:
+		case SELECTOR_ARGUMENT:
+			return serializedSharingFlags(condition.toString());
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Compute the sharing flags from the serialization of a condition, looking at
+	 * its combinators and the names of its pseudo-classes.
+	 * 
+	 * @param serialized the serialized condition.
+	 * @return the flags.
+	 */
+	private static int serializedSharingFlags(String serialized) {
+		int flags = 0;
+		if (serialized.indexOf('+') != -1 || serialized.indexOf('~') != -1) {
+			flags = SHARING_UNSAFE | PRECEDING_SIBLINGS;
+		}
+		int len = serialized.length();
+		int i = serialized.indexOf(':');
+		while (i != -1) {
+			i++;
+			if (i < len && serialized.charAt(i) == ':') {
+				// Pseudo-element
+				i++;
+			} else {
+				int start = i;
+				while (i < len && isNameChar(serialized.charAt(i))) {
+					i++;
+				}
+				String name = serialized.substring(start, i).toLowerCase(Locale.ROOT);
+				if (unsafePseudoClasses.contains(name)) {
+					flags |= SHARING_UNSAFE;
+					if (followingOfTypePseudoClasses.contains(name)) {
+						flags |= FOLLOWING_OF_TYPE;
+					}
+				} else if (!attributePseudoClasses.contains(name) && !argumentPseudoClasses.contains(name)) {
+					flags |= SHARING_STATE;
+				}
+			}
+			i = serialized.indexOf(':', i);
+		}
+		return flags;
+	}
+
+	/*
+	 * Split a class attribute without regular expressions, reusing the attribute
+	 * value when it contains a single class.
+	 */
+	private static String[] splitClasses(String classAttr) {
+		int len = classAttr.length();
+		String[] list = NO_CLASSES;
+		int count = 0;
+		int i = 0;
+		while (i < len) {
+			while (i < len && isWhitespace(classAttr.charAt(i))) {
+				i++;
+			}
+			int start = i;
+			while (i < len && !isWhitespace(classAttr.charAt(i))) {
+				i++;
+			}
+			if (start < i) {
+				if (count == list.length) {
+					list = Arrays.copyOf(list, count + 2);
+				}
+				list[count++] = start == 0 && i == len ? classAttr : classAttr.substring(start, i);
+			}
+		}
+		return count == list.length ? list : Arrays.copyOf(list, count);
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	private static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '-' || c == '_';
+	}
+
+	private static SelectorKey[] selectorListKeys(SelectorList selist) {
+		int len = selist.getLength();
+		SelectorKey[] keys = new SelectorKey[len];
+		for (int i = 0; i < len; i++) {
+			SelectorKey key = selectorKey(selist.item(i));
+			if (key.kind == KEY_ANY) {
+				return null;
+			}
+			keys[i] = key;
+		}
+		return keys;
+	}
+
+	private static SelectorKey selectorKey(Selector selector) {
+		switch (selector.getSelectorType()) {
+		case DESCENDANT:
+		case CHILD:
+		case DIRECT_ADJACENT:
+		case SUBSEQUENT_SIBLING:
+			return compoundKey(((CombinatorSelector) selector).getSecondSelector());
+		case ELEMENT:
+		case CONDITIONAL:
+			return compoundKey((SimpleSelector) selector);
+		default:
+			return SelectorKey.ANY;
+		}
+	}
+
+	/**
+	 * Find the most selective key of a compound selector: the identifier, then a
+	 * class, then the tag name.
+	 * 
+	 * @param selector the compound selector.
+	 * @return the key.
+	 */
+	private static SelectorKey compoundKey(SimpleSelector selector) {
+		switch (selector.getSelectorType()) {
+		case ELEMENT:
+			String name = ((ElementSelector) selector).getLocalName();
+			if (name != null && !"*".equals(name)) {
+				return new SelectorKey(KEY_TAG, name);
+			}
+			break;
+		case CONDITIONAL:
+			ConditionalSelector condsel = (ConditionalSelector) selector;
+			SelectorKey key = conditionKey(condsel.getCondition());
+			if (key.kind == KEY_ANY) {
+				key = compoundKey(condsel.getSimpleSelector());
+			}
+			return key;
+		default:
+		}
+		return SelectorKey.ANY;
+	}
+
+	private static SelectorKey conditionKey(Condition condition) {
+		switch (condition.getConditionType()) {
+		case ID:
+			String value = ((AttributeCondition) condition).getValue();
+			if (value != null) {
+				return new SelectorKey(KEY_ID, value);
+			}
+			break;
+		case CLASS:
+			value = ((AttributeCondition) condition).getValue();
+			if (value != null) {
+				return new SelectorKey(KEY_CLASS, value);
+			}
+			break;
+		case AND:
+			CombinatorCondition comb = (CombinatorCondition) condition;
+			SelectorKey first = conditionKey(comb.getFirstCondition());
+			if (first.kind == KEY_ID) {
+				return first;
+			}
+			SelectorKey second = conditionKey(comb.getSecondCondition());
+			if (second.kind == KEY_ID || first.kind == KEY_ANY) {
+				return second;
+			}
+			return first;
+		default:
+		}
+		return SelectorKey.ANY;
+	}
+
+	/**
+	 * Create a filter for the given element.
+	 * <p>
+	 * The filter takes a snapshot of the identifier, classes and tag name of the
+	 * element, so it must be discarded once the style of the element is computed.
+	 * </p>
+	 * 
+	 * @param element the element.
+	 * @return the filter.
+	 */
+	ElementFilter createFilter(CSSStylableElement element) {
+		return new ElementFilter(element);
+	}
+
+	private static class SelectorKey {
+
+		static final SelectorKey ANY = new SelectorKey(KEY_ANY, null);
+
+		final byte kind;
+
+		final String value;
+
+		SelectorKey(byte kind, String value) {
+			this.kind = kind;
+			this.value = value;
+		}
+
+	}
+
+	/**
+	 * A filter that rejects the selector lists that cannot match an element.
+	 */
+	class ElementFilter {
+
+		private final String id;
+
+		private final String tagName;
+
+		private final String[] classes;
+
+		ElementFilter(CSSStylableElement element) {
+			super();
+			id = element.getId();
+			tagName = element.getName();
+			classes = splitClasses(element.getAttributeValue("class"));
+		}
+
+		/**
+		 * Check whether any of the selectors in the given list could match the
+		 * element.
+		 * 
+		 * @param selist the selector list.
+		 * @return {@code false} if none of the selectors can match the element,
+		 *         {@code true} if some selector could match or the list is not
+		 *         indexed.
+		 */
+		boolean mightMatch(SelectorList selist) {
+			SelectorKey[] keys = selectorKeys.get(selist);
+			if (keys == null) {
+				return true;
+			}
+			for (SelectorKey key : keys) {
+				if (accepts(key)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean accepts(SelectorKey key) {
+			switch (key.kind) {
+			case KEY_ID:
+				return key.value.equalsIgnoreCase(id);
+			case KEY_CLASS:
+				for (String className : classes) {
+					if (key.value.equalsIgnoreCase(className)) {
+						return true;
+					}
+				}
+				return false;
+			case KEY_TAG:
+				return key.value.equalsIgnoreCase(tagName);
+			default:
+				return true;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,44 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import io.sf.carte.doc.style.css.om.ComputedCSSStyle;
+
+/**
+ * Receives the computed styles produced by a {@link StyleStreamReader}.
+ */
+@FunctionalInterface
+public interface StreamedStyleConsumer {
+
+	/**
+	 * Accept the computed style of an element whose end tag was read.
+	 * <p>
+	 * If the style sheets contain selectors that depend on siblings, the style is
+	 * accepted once the following sibling (or the following sibling of the same
+	 * type, see {@link StyleStreamReader}) starts or the parent element ends.
+	 * Sibling elements are always accepted in document order, but in the latter
+	 * case the descendants of a sibling may be accepted first.
+	 * </p>
+	 * <p>
+	 * The element is only valid during this call: once it returns, its contents
+	 * (and possibly the element itself) are removed from the document.
+	 * </p>
+	 * 
+	 * @param path    the path of the element, like {@code /html[1]/body[1]/p[3]},
+	 *                where each index counts the preceding siblings with the same
+	 *                name, starting at 1.
+	 * @param element the element.
+	 * @param style   the computed style of {@code element}.
+	 */
+	void accept(String path, CSSStylableElement element, ComputedCSSStyle style);
+
+}
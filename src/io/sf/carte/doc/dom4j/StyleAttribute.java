@@ -15,8 +15,10 @@ import org.dom4j.Element;
 import org.dom4j.QName;
 import org.dom4j.dom.DOMAttribute;
 import org.w3c.dom.DOMException;
+import org.w3c.dom.Node;
 
 import io.sf.carte.doc.style.css.om.AbstractCSSStyleDeclaration;
+import io.sf.carte.doc.style.css.om.InlineStyle;
 
 /**
  * Style attribute.
@@ -28,6 +30,19 @@ class StyleAttribute extends DOMAttribute {
 
 	private AbstractCSSStyleDeclaration inlineStyle = null;
 
+	/*
+	 * Parsed style of the template attribute that this one was copied from, or
+	 * interned by the document factory. It is only read, and copied when the style
+	 * of this attribute is requested.
+	 */
+	private transient AbstractCSSStyleDeclaration sharedStyle = null;
+
+	/*
+	 * Set while the attribute value is being parsed into the inline style, so the
+	 * parsing is not taken as a modification made through the CSSOM.
+	 */
+	private transient boolean parsing = false;
+
 	private static final long serialVersionUID = 3L;
 
 	StyleAttribute(QName qname) {
@@ -62,42 +77,136 @@ class StyleAttribute extends DOMAttribute {
 
 	@Override
 	public void setValue(String value) {
+		Element parent = getParent();
+		if (parent instanceof CSSStylableElement) {
+			((CSSStylableElement) parent).checkModifiable();
+		}
 		super.setValue(value);
+		sharedStyle = null;
 		if (inlineStyle != null) {
 			setInlineStyle(value);
 		} else {
-			getStyle();
+			getStyleForReading();
 		}
 		// Style is being modified, notify parent element?
-		Element parent = getParent();
-		if (parent instanceof CachedXHTMLElement) {
-			((CachedXHTMLElement) parent).onStyleModify();
+		if (parent instanceof CSSStylableElement) {
+			((CSSStylableElement) parent).onStyleModify();
 		}
 	}
 
 	public AbstractCSSStyleDeclaration getStyle() {
 		if (inlineStyle == null) {
-			XHTMLDocumentFactory factory;
-			XHTMLDocument doc = getDocument();
-			if (doc != null) {
-				factory = doc.getDocumentFactory();
+			XHTMLDocumentFactory factory = getDocumentFactory();
+			if (sharedStyle instanceof InlineStyle) {
+				inlineStyle = factory.copyInlineStyle((InlineStyle) sharedStyle, this);
+				sharedStyle = null;
 			} else {
-				factory = XHTMLDocumentFactory.getInstance();
+				inlineStyle = factory.createInlineStyle(this);
+				setInlineStyle(super.getValue());
 			}
-			inlineStyle = factory.createInlineStyle(this);
-			setInlineStyle(super.getValue());
 		}
 		return inlineStyle;
 	}
 
-	void setInlineStyle(String value) {
+	private XHTMLDocumentFactory getDocumentFactory() {
+		XHTMLDocument doc = getDocument();
+		if (doc != null) {
+			return doc.getDocumentFactory();
+		}
+		return XHTMLDocumentFactory.getInstance();
+	}
+
+	/**
+	 * Gets the inline style for the purpose of reading it, without copying the
+	 * style shared with a template or interned by the document factory.
+	 * 
+	 * @return the inline style.
+	 */
+	AbstractCSSStyleDeclaration getStyleForReading() {
+		AbstractCSSStyleDeclaration style = inlineStyle;
+		if (style == null) {
+			style = sharedStyle;
+			if (style == null) {
+				XHTMLDocumentFactory factory = getDocumentFactory();
+				if (factory.isInlineStyleInterning()) {
+					style = internStyle(factory);
+				} else {
+					style = getStyle();
+				}
+			}
+		}
+		return style;
+	}
+
+	private AbstractCSSStyleDeclaration internStyle(XHTMLDocumentFactory factory) {
+		String value = super.getValue();
 		if (value == null) {
 			value = "";
 		}
+		InlineStyle style = factory.getInternedInlineStyle(value);
+		if (style != null) {
+			sharedStyle = style;
+			return style;
+		}
+		// Parse it as the style of this attribute, so errors are reported as usual
+		InlineStyle parsed = factory.createInlineStyle(this);
+		inlineStyle = parsed;
+		if (setInlineStyle(value)) {
+			factory.internInlineStyle(value, parsed);
+		}
+		return parsed;
+	}
+
+	/**
+	 * Gets the parsed style of this attribute, if any, without parsing it.
+	 * 
+	 * @return the style owned by this attribute, or the style that it shares, or
+	 *         {@code null} if the style was not parsed.
+	 */
+	AbstractCSSStyleDeclaration peekStyle() {
+		return inlineStyle != null ? inlineStyle : sharedStyle;
+	}
+
+	/**
+	 * Share the parsed style of the given template attribute, until the style of
+	 * this attribute is requested or modified.
+	 * 
+	 * @param template the attribute that this one was copied from.
+	 */
+	void shareStyle(StyleAttribute template) {
+		sharedStyle = template.getStyleForReading();
+	}
+
+	boolean setInlineStyle(String value) {
+		if (value == null) {
+			value = "";
+		}
+		parsing = true;
 		try {
 			inlineStyle.setCssText(value);
 		} catch (DOMException e) {
 			getDocument().getErrorHandler().inlineStyleError(getOwnerElement(), e, value);
+			return false;
+		} finally {
+			parsing = false;
+		}
+		return true;
+	}
+
+	/**
+	 * Notifies the style attribute that owns an inline style about a modification
+	 * of the style made through the CSSOM, so the cached computed styles are
+	 * invalidated.
+	 * 
+	 * @param owner the owner node of the inline style.
+	 */
+	static void onInlineStyleModify(Node owner) {
+		if (owner instanceof StyleAttribute) {
+			StyleAttribute attr = (StyleAttribute) owner;
+			Element parent = attr.getParent();
+			if (!attr.parsing && parent instanceof CSSStylableElement) {
+				((CSSStylableElement) parent).onStyleModify();
+			}
 		}
 	}
 
@@ -14,6 +14,7 @@ package io.sf.carte.doc.dom4j;
 import org.dom4j.Node;
 import org.dom4j.QName;
 
+import io.sf.carte.doc.dom4j.XHTMLDocumentFactory.DOM4JCSSStyleSheetFactory;
 import io.sf.carte.doc.style.css.ErrorHandler;
 import io.sf.carte.doc.style.css.LinkStyle;
 import io.sf.carte.doc.style.css.om.AbstractCSSRule;
@@ -81,4 +82,28 @@ abstract class StyleDefinerElement extends XHTMLElement implements LinkStyle<Abs
 		}
 	}
 
+	/**
+	 * Give this element a sheet that contains the rules of the sheet of the given
+	 * template element, so the sheet does not have to be parsed or loaded again.
+	 * <p>
+	 * The rules are shared with the sheet of the template. If that sheet is not up
+	 * to date, nothing is done and the sheet of this element is built as usual.
+	 * </p>
+	 * 
+	 * @param template the element that this one was copied from.
+	 */
+	void shareSheet(StyleDefinerElement template) {
+		if (template.needsUpdate || !(template.linkedSheet instanceof DOM4JCSSStyleSheet)) {
+			return;
+		}
+		DOM4JCSSStyleSheet tsheet = (DOM4JCSSStyleSheet) template.linkedSheet;
+		DOM4JCSSStyleSheet sheet = ((DOM4JCSSStyleSheetFactory) tsheet.getStyleSheetFactory())
+				.createCSSStyleSheet(tsheet.getTitle(), this, tsheet.getMedia(), null, tsheet.getOrigin());
+		sheet.setHref(tsheet.getHref());
+		tsheet.copyRulesTo(sheet);
+		sheet.setDisabled(tsheet.getDisabled());
+		linkedSheet = sheet;
+		needsUpdate = false;
+	}
+
 }
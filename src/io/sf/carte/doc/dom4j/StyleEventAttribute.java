@@ -0,0 +1,53 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import org.dom4j.Element;
+import org.dom4j.QName;
+import org.dom4j.dom.DOMAttribute;
+
+/**
+ * An attribute that fires a parent style modify event when changed, so the
+ * computed styles cached by the document elements are invalidated.
+ * 
+ * @author Carlos Amengual
+ *
+ */
+class StyleEventAttribute extends DOMAttribute {
+
+	private static final long serialVersionUID = 1L;
+
+	StyleEventAttribute(QName qname) {
+		super(qname);
+	}
+
+	StyleEventAttribute(QName qname, String value) {
+		super(qname, value);
+	}
+
+	StyleEventAttribute(Element parent, QName qname, String value) {
+		super(parent, qname, value);
+	}
+
+	@Override
+	public void setValue(String value) {
+		Element owner = getParent();
+		if (owner instanceof CSSStylableElement) {
+			((CSSStylableElement) owner).checkModifiable();
+		}
+		super.setValue(value);
+		if (owner instanceof CSSStylableElement) {
+			((CSSStylableElement) owner).onStyleModify();
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import org.dom4j.Attribute;
+
+import io.sf.carte.doc.style.css.om.ComputedCSSStyle;
+
+/**
+ * Small cache of recently styled elements, whose computed styles can be reused
+ * by siblings and cousins that have the same tag, the same attributes and
+ * ancestors with shared styles.
+ * <p>
+ * It is only safe to use when the style sheets have no selectors that depend on
+ * the siblings or the contents of the elements (see
+ * {@link RuleIndex#isStyleSharingSafe(boolean)}).
+ * </p>
+ */
+final class StyleSharingCache {
+
+	private static final int SIZE = 8;
+
+	private final Candidate[] candidates = new Candidate[SIZE];
+
+	private int next = 0;
+
+	/**
+	 * Check whether the style of the given element could be shared with other
+	 * elements.
+	 * 
+	 * @param element the element.
+	 * @return {@code true} if the element has a parent, no inline style and no
+	 *         override style.
+	 */
+	static boolean isShareable(CSSStylableElement element) {
+		if (element.getParent() == null || element.hasOverrideStyle(null)) {
+			return false;
+		}
+		int len = element.attributeCount();
+		for (int i = 0; i < len; i++) {
+			if ("style".equalsIgnoreCase(element.attribute(i).getName())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Find a style that can be shared by the given element.
+	 * 
+	 * @param element   the element, which must be shareable.
+	 * @param parentKey the sharing key of the parent element.
+	 * @return the matching candidate, or {@code null} if none.
+	 */
+	Candidate find(CSSStylableElement element, Object parentKey) {
+		for (Candidate candidate : candidates) {
+			if (candidate != null && candidate.parentKey == parentKey && candidate.matches(element)) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Add a new candidate, replacing the oldest one if the cache is full.
+	 * 
+	 * @param element   the element, which must be shareable.
+	 * @param style     the computed style of the element.
+	 * @param parentKey the sharing key of the parent element.
+	 */
+	void add(CSSStylableElement element, ComputedCSSStyle style, Object parentKey) {
+		candidates[next] = new Candidate(element, style, parentKey);
+		next = (next + 1) % SIZE;
+	}
+
+	static class Candidate {
+
+		private final CSSStylableElement element;
+
+		private final ComputedCSSStyle style;
+
+		private final Object parentKey;
+
+		Candidate(CSSStylableElement element, ComputedCSSStyle style, Object parentKey) {
+			super();
+			this.element = element;
+			this.style = style;
+			this.parentKey = parentKey;
+		}
+
+		/**
+		 * The key that identifies the style shared by this candidate, which is
+		 * the style that was computed by the cascade.
+		 * 
+		 * @return the sharing key.
+		 */
+		Object getShareKey() {
+			return style;
+		}
+
+		/**
+		 * Create a copy of the shared style for the given element.
+		 * 
+		 * @param owner       the element.
+		 * @param parentStyle the computed style of the parent of {@code owner}.
+		 * @return the computed style for {@code owner}.
+		 */
+		ComputedCSSStyle share(CSSStylableElement owner, ComputedCSSStyle parentStyle) {
+			DOM4JComputedStyle shared = (DOM4JComputedStyle) style.clone();
+			shared.setOwnerNode(owner);
+			shared.setParentComputedStyle(parentStyle);
+			return shared;
+		}
+
+		private boolean matches(CSSStylableElement other) {
+			if (other.getClass() != element.getClass() || !other.getQName().equals(element.getQName())) {
+				return false;
+			}
+			int len = element.attributeCount();
+			if (other.attributeCount() != len) {
+				return false;
+			}
+			for (int i = 0; i < len; i++) {
+				Attribute attr = element.attribute(i);
+				Attribute otherAttr = other.attribute(i);
+				if (!attr.getQName().equals(otherAttr.getQName()) || !attr.getValue().equals(otherAttr.getValue())) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+}
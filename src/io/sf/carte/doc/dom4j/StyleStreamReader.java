@@ -0,0 +1,621 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.ElementHandler;
+import org.dom4j.ElementPath;
+import org.dom4j.Node;
+import org.dom4j.io.SAXReader;
+import org.xml.sax.InputSource;
+
+import io.sf.carte.doc.style.css.om.AbstractCSSStyleSheet;
+import io.sf.carte.doc.style.css.om.ComputedCSSStyle;
+
+/**
+ * Reads a document and computes the style of each element as soon as its end
+ * tag is found, discarding the finished subtrees so that documents much larger
+ * than the available memory can be styled.
+ * <p>
+ * Only the chain of ancestors of the current element is kept in full, plus the
+ * style-defining elements (<code>STYLE</code> and <code>LINK</code>) and their
+ * ancestors. Each open element keeps running counters of its children (by
+ * position and by type), so positional pseudo-classes are matched without
+ * keeping the finished children. If the style sheets contain selectors that
+ * depend on siblings, the previous sibling of each open element is kept as a
+ * childless stub, for the {@code +} combinator. Only if there are selectors
+ * that may reach any preceding sibling (the {@code ~} combinator, chained
+ * {@code +} combinators or the <code>of S</code> argument of
+ * <code>:nth-child()</code>) all the finished elements are kept as stubs, and
+ * the memory used becomes proportional to the number of siblings of the
+ * ancestors.
+ * </p>
+ * <p>
+ * If the style sheets contain selectors that depend on siblings, the style of
+ * an element is reported when its next sibling starts or its parent ends, so it
+ * is known whether the element is the last child. If they contain
+ * <code>:last-of-type</code>, <code>:only-of-type</code> or
+ * <code>:nth-last-of-type()</code>, the report waits until the next sibling of
+ * the same type starts or the parent ends, and the siblings that follow wait
+ * for it so that siblings are always reported in document order (their
+ * descendants are not delayed).
+ * </p>
+ * <p>
+ * The non-element nodes that precede a child element are removed when the
+ * child is found, so elements without child elements reach the consumer with
+ * all their content, and the others only with the text that follows their last
+ * child element.
+ * </p>
+ * <p>
+ * The results are the same as those of
+ * {@link XHTMLDocument#computeStyles(ComputedStyleVisitor)} on the full
+ * document, with the following limitations:
+ * </p>
+ * <ul>
+ * <li><code>:nth-last-child()</code> and <code>:nth-last-of-type()</code> only
+ * count the following siblings that were read when the style is computed, so
+ * they are only exact for the elements that are reported when their parent
+ * ends.</li>
+ * <li>The style of an element that has child elements is computed when the
+ * first of its children is reported, and that style is both inherited by the
+ * children and reported for the element. As its following siblings were not
+ * read yet, the element is matched as if it were the last child of its parent
+ * (and the last of its type), and selectors like <code>:has()</code> or
+ * <code>:empty</code> only see the contents that were read at that moment.
+ * <code>:has()</code> never sees more than one level of descendants of a
+ * finished element.</li>
+ * <li>Style sheets are applied to the elements that are reported after their
+ * <code>STYLE</code> or <code>LINK</code> element was read, so style sheets
+ * that are not in the head of the document only apply to the rest of it.</li>
+ * </ul>
+ * <p>
+ * Instances of this class are not thread-safe.
+ * </p>
+ */
+public class StyleStreamReader {
+
+	private final SAXReader reader;
+
+	private boolean ancestorFilterEnabled = false;
+
+	/**
+	 * Construct a reader that creates its documents with the given factory.
+	 * 
+	 * @param factory the document factory.
+	 */
+	public StyleStreamReader(XHTMLDocumentFactory factory) {
+		super();
+		reader = new SAXReader(factory);
+	}
+
+	/**
+	 * Get the underlying SAX reader, for configuration purposes (like setting an
+	 * entity resolver).
+	 * <p>
+	 * The default handler of the SAX reader is set at each call to
+	 * {@link #read(InputSource, StreamedStyleConsumer)}.
+	 * </p>
+	 * 
+	 * @return the SAX reader.
+	 */
+	public SAXReader getSAXReader() {
+		return reader;
+	}
+
+	/**
+	 * Enable or disable the ancestor filter used when the styles are computed.
+	 * <p>
+	 * The filter is disabled by default (see
+	 * {@link XHTMLDocument#setAncestorFilterEnabled(boolean)}).
+	 * </p>
+	 * 
+	 * @param enabled {@code true} to enable the filter.
+	 */
+	public void setAncestorFilterEnabled(boolean enabled) {
+		ancestorFilterEnabled = enabled;
+	}
+
+	/**
+	 * Check whether the ancestor filter is enabled.
+	 * 
+	 * @return {@code true} if the ancestor filter is enabled.
+	 */
+	public boolean isAncestorFilterEnabled() {
+		return ancestorFilterEnabled;
+	}
+
+	/**
+	 * Read a document, computing the style of each element once its end tag (and,
+	 * if needed, the start of its following sibling) was read.
+	 * <p>
+	 * If the input source has a system identifier and the document has no
+	 * document URI, the system identifier is used as the document URI.
+	 * </p>
+	 * 
+	 * @param source   the input source.
+	 * @param consumer the consumer of the computed styles.
+	 * @return the pruned document, whose remaining elements are the root element
+	 *         and the style-defining elements with their ancestors.
+	 * @throws DocumentException if an error was found while parsing the
+	 *                           document.
+	 */
+	public XHTMLDocument read(InputSource source, StreamedStyleConsumer consumer) throws DocumentException {
+		StreamHandler handler = new StreamHandler(source.getSystemId(), consumer,
+				ancestorFilterEnabled ? new AncestorFilter() : null);
+		reader.setDefaultHandler(handler);
+		try {
+			return (XHTMLDocument) reader.read(source);
+		} finally {
+			reader.resetHandlers();
+		}
+	}
+
+	/*
+	 * Running index of the children of an open element, which counts all the
+	 * children that were read but only keeps those that may still be needed to
+	 * match selectors.
+	 */
+	private static class RunningChildIndex extends ChildElementIndex {
+
+		private CSSStylableElement[] window = new CSSStylableElement[4];
+
+		/*
+		 * One-based position of each kept element among the children of the same
+		 * type.
+		 */
+		private int[] windowTypePosition = new int[4];
+
+		/*
+		 * Position of the first kept element among all the children.
+		 */
+		private int start = 0;
+
+		private int windowLength = 0;
+
+		/*
+		 * Number of children of each type read so far.
+		 */
+		private final HashMap<String, int[]> typeCounts = new HashMap<>();
+
+		RunningChildIndex() {
+			super();
+		}
+
+		void append(CSSStylableElement element) {
+			String type = element.getName().toLowerCase(Locale.ROOT);
+			int[] counter = typeCounts.get(type);
+			if (counter == null) {
+				counter = new int[1];
+				typeCounts.put(type, counter);
+			}
+			counter[0]++;
+			if (windowLength == window.length) {
+				window = Arrays.copyOf(window, windowLength * 2);
+				windowTypePosition = Arrays.copyOf(windowTypePosition, windowLength * 2);
+			}
+			window[windowLength] = element;
+			windowTypePosition[windowLength] = counter[0];
+			element.childPositionHint = start + windowLength;
+			windowLength++;
+		}
+
+		/**
+		 * Get the position of the first kept element.
+		 * 
+		 * @return the zero-based position of the first kept element.
+		 */
+		int getStart() {
+			return start;
+		}
+
+		/**
+		 * Stop keeping the first kept element.
+		 * 
+		 * @return the element.
+		 */
+		CSSStylableElement removeFirst() {
+			CSSStylableElement element = window[0];
+			windowLength--;
+			System.arraycopy(window, 1, window, 0, windowLength);
+			System.arraycopy(windowTypePosition, 1, windowTypePosition, 0, windowLength);
+			window[windowLength] = null;
+			start++;
+			return element;
+		}
+
+		@Override
+		int getLength() {
+			return start + windowLength;
+		}
+
+		@Override
+		CSSStylableElement item(int index) {
+			index -= start;
+			return index >= 0 && index < windowLength ? window[index] : null;
+		}
+
+		@Override
+		int positionOf(CSSStylableElement element) {
+			int hint = element.childPositionHint - start;
+			if (hint >= 0 && hint < windowLength && window[hint] == element) {
+				return element.childPositionHint;
+			}
+			for (int i = windowLength - 1; i >= 0; i--) {
+				if (window[i] == element) {
+					element.childPositionHint = start + i;
+					return start + i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		int typePosition(int index) {
+			return windowTypePosition[index - start];
+		}
+
+		@Override
+		int typeCount(int index) {
+			return typeCounts.get(window[index - start].getName().toLowerCase(Locale.ROOT))[0];
+		}
+
+	}
+
+	private static class Frame {
+
+		final CSSStylableElement element;
+
+		final String path;
+
+		/*
+		 * Style of the element, used as parent style by its children and reported
+		 * for the element, computed when first needed.
+		 */
+		ComputedCSSStyle style = null;
+
+		/*
+		 * The sheet with which the style was computed.
+		 */
+		DOM4JDocumentCSSStyleSheet styleSheet = null;
+
+		/*
+		 * Number of children seen so far, by name.
+		 */
+		HashMap<String, Integer> childCounts = null;
+
+		/*
+		 * Running index of the children, created when the first child starts.
+		 */
+		RunningChildIndex children = null;
+
+		/*
+		 * Children that ended but were not reported yet, in document order.
+		 */
+		ArrayDeque<Frame> pending = null;
+
+		/*
+		 * Whether a following sibling that allows to report this (pending) element
+		 * has started.
+		 */
+		boolean resolved = false;
+
+		/*
+		 * Whether this element contains style-defining elements.
+		 */
+		boolean retained = false;
+
+		Frame(CSSStylableElement element, String path) {
+			this.element = element;
+			this.path = path;
+		}
+
+		String childPath(String name) {
+			if (childCounts == null) {
+				childCounts = new HashMap<>();
+			}
+			Integer count = childCounts.get(name);
+			int n = count == null ? 1 : count + 1;
+			childCounts.put(name, n);
+			StringBuilder buf = new StringBuilder(path.length() + name.length() + 5);
+			buf.append(path).append('/').append(name).append('[').append(n).append(']');
+			return buf.toString();
+		}
+
+		RunningChildIndex childIndex() {
+			if (children == null) {
+				children = new RunningChildIndex();
+			}
+			return children;
+		}
+
+		boolean hasPending() {
+			return pending != null && !pending.isEmpty();
+		}
+
+	}
+
+	private static class StreamHandler implements ElementHandler {
+
+		private final String systemId;
+
+		private final StreamedStyleConsumer consumer;
+
+		private final ArrayList<Frame> frames = new ArrayList<>();
+
+		/*
+		 * The ancestor filter, or null if it is not used.
+		 */
+		private final AncestorFilter filter;
+
+		/*
+		 * The sheet for which the flags were computed.
+		 */
+		private DOM4JDocumentCSSStyleSheet flagSheet = null;
+
+		/*
+		 * The selector flags of the sheet (see RuleIndex).
+		 */
+		private int flags = 0;
+
+		StreamHandler(String systemId, StreamedStyleConsumer consumer, AncestorFilter filter) {
+			super();
+			this.systemId = systemId;
+			this.consumer = consumer;
+			this.filter = filter;
+		}
+
+		@Override
+		public void onStart(ElementPath elementPath) {
+			CSSStylableElement element = (CSSStylableElement) elementPath.getCurrent();
+			int depth = frames.size();
+			String path;
+			if (depth == 0) {
+				XHTMLDocument doc = (XHTMLDocument) element.getDocument();
+				if (systemId != null && doc.getDocumentURI() == null) {
+					doc.setDocumentURI(systemId);
+				}
+				path = '/' + element.getName() + "[1]";
+			} else {
+				Frame parentFrame = frames.get(depth - 1);
+				removePrecedingNodes(parentFrame.element);
+				path = parentFrame.childPath(element.getName());
+				RunningChildIndex index = parentFrame.childIndex();
+				index.append(element);
+				parentFrame.element.setChildIndex(index);
+				if (parentFrame.hasPending()) {
+					/*
+					 * The previous siblings that were waiting for this one are reported
+					 * before it is pushed into the ancestor filter.
+					 */
+					DOM4JDocumentCSSStyleSheet css = getStyleSheet(element);
+					boolean ofType = (flags & RuleIndex.FOLLOWING_OF_TYPE) != 0;
+					for (Frame sibling : parentFrame.pending) {
+						if (!ofType || sibling.element.getName().equalsIgnoreCase(element.getName())) {
+							sibling.resolved = true;
+						}
+					}
+					Frame sibling;
+					while ((sibling = parentFrame.pending.peekFirst()) != null && sibling.resolved) {
+						parentFrame.pending.removeFirst();
+						report(css, sibling);
+					}
+					trim(parentFrame, index.getLength() - 1);
+				}
+			}
+			frames.add(new Frame(element, path));
+			if (filter != null) {
+				filter.push(element);
+			}
+		}
+
+		/*
+		 * Remove the non-element nodes that precede the last child of the given
+		 * element, which was just added. They cannot affect the matching of
+		 * selectors, as the element is no longer empty.
+		 */
+		private static void removePrecedingNodes(Element parent) {
+			List<Node> content = parent.content();
+			int i = content.size() - 2;
+			while (i >= 0 && !(content.get(i) instanceof Element)) {
+				content.remove(i);
+				i--;
+			}
+		}
+
+		@Override
+		public void onEnd(ElementPath elementPath) {
+			int depth = frames.size() - 1;
+			Frame frame = frames.get(depth);
+			CSSStylableElement element = frame.element;
+			DOM4JDocumentCSSStyleSheet css = getStyleSheet(element);
+			if (frame.hasPending()) {
+				// The last children know that they are the last
+				Frame child;
+				while ((child = frame.pending.pollFirst()) != null) {
+					report(css, child);
+				}
+			}
+			frames.remove(depth);
+			if (filter != null) {
+				filter.pop(element);
+			}
+			if (depth == 0) {
+				report(css, frame);
+				return;
+			}
+			Frame parentFrame = frames.get(depth - 1);
+			if ((flags & RuleIndex.SHARING_UNSAFE) != 0 || parentFrame.hasPending()) {
+				// Wait for the next sibling, or the end of the parent
+				if (parentFrame.pending == null) {
+					parentFrame.pending = new ArrayDeque<>();
+				}
+				parentFrame.pending.addLast(frame);
+			} else {
+				report(css, frame);
+				trim(parentFrame, parentFrame.children.getLength());
+			}
+		}
+
+		/*
+		 * Get the style sheet of the document, updating the selector flags if the
+		 * sheet changed.
+		 */
+		private DOM4JDocumentCSSStyleSheet getStyleSheet(CSSStylableElement element) {
+			XHTMLDocument doc = (XHTMLDocument) element.getDocument();
+			DOM4JDocumentCSSStyleSheet css = (DOM4JDocumentCSSStyleSheet) doc.getStyleSheet();
+			if (css != flagSheet) {
+				flags = selectorFlags(doc, css);
+				flagSheet = css;
+			}
+			return css;
+		}
+
+		/*
+		 * Compute the style of an element whose ancestors are the current frames,
+		 * report it and prune the element.
+		 */
+		private void report(DOM4JDocumentCSSStyleSheet css, Frame frame) {
+			/*
+			 * If the children inherited from a style that is still valid, that
+			 * style is reported for the element.
+			 */
+			ComputedCSSStyle style = computeAncestorStyles(css, frame);
+			consumer.accept(frame.path, frame.element, style);
+			prune(frame);
+		}
+
+		/*
+		 * Compute the styles of the ancestors and the given (last) frame that have
+		 * no style or whose style was computed with a different sheet, and return
+		 * the style of the last frame.
+		 */
+		private ComputedCSSStyle computeAncestorStyles(DOM4JDocumentCSSStyleSheet css, Frame last) {
+			ComputedCSSStyle parentStyle = null;
+			boolean recompute = false;
+			for (Frame frame : frames) {
+				recompute = updateStyle(frame, css, parentStyle, recompute);
+				parentStyle = frame.style;
+			}
+			updateStyle(last, css, parentStyle, recompute);
+			return last.style;
+		}
+
+		/*
+		 * Compute the style of the frame if it has none, if it was computed with a
+		 * different sheet or if the parent style was computed again, and return
+		 * whether the style was computed.
+		 */
+		private boolean updateStyle(Frame frame, DOM4JDocumentCSSStyleSheet css, ComputedCSSStyle parentStyle,
+				boolean parentComputed) {
+			if (parentComputed || frame.style == null || frame.styleSheet != css) {
+				frame.style = computeStyle(frame.element, css, parentStyle);
+				frame.styleSheet = css;
+				// The descendants inherit from the new style
+				return true;
+			}
+			return false;
+		}
+
+		private ComputedCSSStyle computeStyle(CSSStylableElement element, DOM4JDocumentCSSStyleSheet css,
+				ComputedCSSStyle parentStyle) {
+			/*
+			 * The filter may contain descendants of the element when computing the
+			 * style of an ancestor, but false positives are harmless.
+			 */
+			return css.getComputedStyle(element, null, parentStyle, filter);
+		}
+
+		/*
+		 * Remove the contents of a reported element, except the style definers. The
+		 * element itself is removed from its parent by trim().
+		 */
+		private void prune(Frame frame) {
+			CSSStylableElement element = frame.element;
+			if (element instanceof StyleDefinerElement) {
+				retain();
+				return;
+			}
+			if (frame.retained) {
+				retain();
+				// Keep the style definers and the elements that contain them
+				List<Node> content = element.content();
+				for (int i = content.size() - 1; i >= 0; i--) {
+					Node node = content.get(i);
+					if (!(node instanceof StyleDefinerElement)
+							&& (!(node instanceof Element) || ((Element) node).nodeCount() == 0)) {
+						content.remove(i);
+					}
+				}
+			} else {
+				element.clearContent();
+			}
+		}
+
+		private void retain() {
+			int depth = frames.size();
+			if (depth != 0) {
+				frames.get(depth - 1).retained = true;
+			}
+		}
+
+		/*
+		 * Remove from the tree and the running index the reported children that
+		 * precede the given position and cannot be needed by the selectors anymore,
+		 * except those that contain style definers.
+		 */
+		private void trim(Frame parentFrame, int end) {
+			if ((flags & RuleIndex.PRECEDING_SIBLINGS) != 0) {
+				// Keep all the stubs
+				return;
+			}
+			RunningChildIndex index = parentFrame.children;
+			if (parentFrame.hasPending()) {
+				end = index.positionOf(parentFrame.pending.peekFirst().element);
+			}
+			if ((flags & RuleIndex.SHARING_UNSAFE) != 0) {
+				// Keep the previous sibling
+				end--;
+			}
+			CSSStylableElement parent = parentFrame.element;
+			boolean removed = false;
+			while (index.getStart() < end) {
+				CSSStylableElement element = index.removeFirst();
+				if (!(element instanceof StyleDefinerElement) && element.nodeCount() == 0) {
+					parent.remove(element);
+					removed = true;
+				}
+			}
+			if (removed) {
+				parent.setChildIndex(index);
+			}
+		}
+
+		private static int selectorFlags(XHTMLDocument doc, DOM4JDocumentCSSStyleSheet css) {
+			int flags = css.getCurrentRuleIndex().getSharingFlags();
+			AbstractCSSStyleSheet important = doc.getDocumentFactory().getUserImportantStyleSheet();
+			if (important != null) {
+				flags |= RuleIndex.sharingFlags(important.getCssRules());
+			}
+			return flags;
+		}
+
+	}
+
+}
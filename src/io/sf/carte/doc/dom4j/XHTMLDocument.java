@@ -18,13 +18,21 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import org.dom4j.Attribute;
+import org.dom4j.Branch;
+import org.dom4j.DocumentFactory;
 import org.dom4j.dom.DOMDocument;
 import org.dom4j.dom.DOMDocumentType;
 import org.dom4j.dom.DOMElement;
@@ -52,6 +60,7 @@ import io.sf.carte.doc.style.css.nsac.InputSource;
 import io.sf.carte.doc.style.css.om.AbstractCSSStyleSheet;
 import io.sf.carte.doc.style.css.om.AbstractCSSStyleSheetFactory;
 import io.sf.carte.doc.style.css.om.BaseDocumentCSSStyleSheet;
+import io.sf.carte.doc.style.css.om.ComputedCSSStyle;
 import io.sf.carte.doc.style.css.om.DefaultErrorHandler;
 import io.sf.carte.doc.style.css.om.StyleSheetList;
 import io.sf.carte.doc.style.css.parser.ParseHelper;
@@ -76,6 +85,37 @@ public class XHTMLDocument extends DOMDocument implements CSSDocument {
 
 	private int styleCacheSerial = Integer.MIN_VALUE;
 
+	private boolean ancestorFilterEnabled = false;
+
+	private boolean styleSharingEnabled = false;
+
+	private boolean styleCacheOn = false;
+
+	private boolean computedStyleInterning = false;
+
+	private transient ComputedStyleTable internedStyles = null;
+
+	/*
+	 * Set to this document when it is frozen. The clones made by clone() refer to
+	 * the original document, so they are not frozen.
+	 * 
+	 * It is written after the frozen styles were set, so the threads that see the
+	 * document as frozen also see those styles.
+	 */
+	private transient volatile XHTMLDocument frozenDocument = null;
+
+	/*
+	 * Set when a computed style is first cached by an element of this document.
+	 * Until then, the elements do not notify their modifications.
+	 */
+	private transient boolean stylesCached = false;
+
+	/*
+	 * Serial number for the computed styles cached by the elements, increased by
+	 * one each time that a change could modify any computed style.
+	 */
+	private int computedStyleSerial = 0;
+
 	private Set<CSSPropertyDefinition> registeredPropertySet = null;
 
 	Set<StyleDefinerElement> linkedStyle = new LinkedHashSet<>(4);
@@ -252,11 +292,13 @@ public class XHTMLDocument extends DOMDocument implements CSSDocument {
 
 	@Override
 	public void registerProperty(CSSPropertyDefinition definition) {
+		checkModifiable();
 		if (registeredPropertySet == null) {
 			registeredPropertySet = new HashSet<>();
 		}
 		registeredPropertySet.add(definition);
 		mergedStyleSheet = null;
+		computedStyleSerial++;
 	}
 
 	/**
@@ -389,9 +431,12 @@ public class XHTMLDocument extends DOMDocument implements CSSDocument {
 				result = !mediaList.hasErrors();
 			}
 			getStyleSheet().addStyleSheet(sheet);
+			((DOM4JDocumentCSSStyleSheet) mergedStyleSheet).resetRuleIndex();
 			return result;
 		} else {
-			return getStyleSheet().parseStyleSheet(cssSrc.getCharacterStream());
+			boolean result = getStyleSheet().parseStyleSheet(cssSrc.getCharacterStream());
+			((DOM4JDocumentCSSStyleSheet) mergedStyleSheet).resetRuleIndex();
+			return result;
 		}
 	}
 
@@ -470,6 +515,7 @@ public class XHTMLDocument extends DOMDocument implements CSSDocument {
 	 */
 	@Override
 	public void setSelectedStyleSheetSet(String name) {
+		checkModifiable();
 		if (name == null || (name.length() > 0 && !getStyleSheetSets().contains(name))) {
 			return;
 		}
@@ -513,6 +559,7 @@ public class XHTMLDocument extends DOMDocument implements CSSDocument {
 	 */
 	@Override
 	public void enableStyleSheetsForSet(String name) {
+		checkModifiable();
 		if (name == null || name.length() == 0) {
 			return;
 		}
@@ -535,6 +582,7 @@ public class XHTMLDocument extends DOMDocument implements CSSDocument {
 	void onLinkStyleAdd(LinkStyle<?> element) {
 		if (element instanceof LinkElement) {
 			linkedStyle.add((LinkElement) element);
+			((LinkElement) element).prefetchStyleSheet();
 		} else if (element instanceof StyleElement) {
 			embeddedStyle.add((StyleElement) element);
 		}
@@ -545,6 +593,7 @@ public class XHTMLDocument extends DOMDocument implements CSSDocument {
 		boolean removed;
 		if (element instanceof LinkElement) {
 			removed = linkedStyle.remove(element);
+			((LinkElement) element).cancelPrefetch();
 		} else if (element instanceof StyleElement) {
 			removed = embeddedStyle.remove(element);
 		} else {
@@ -569,13 +618,84 @@ public class XHTMLDocument extends DOMDocument implements CSSDocument {
 	 * 
 	 */
 	void onStyleModify() {
+		checkModifiable();
 		if (mergedStyleSheet != null) {
 			mergedStyleSheet = null;
 			styleCacheSerial++;
 		}
+		computedStyleSerial++;
 		sheets.setNeedsUpdate(true);
 	}
 
+	/**
+	 * Notifies the document about a change that may modify the computed styles,
+	 * but not the style sheets.
+	 */
+	void onComputedStyleModify() {
+		computedStyleSerial++;
+	}
+
+	@Override
+	protected void addNode(org.dom4j.Node node) {
+		checkModifiable();
+		super.addNode(node);
+	}
+
+	@Override
+	protected void addNode(int index, org.dom4j.Node node) {
+		checkModifiable();
+		super.addNode(index, node);
+	}
+
+	@Override
+	protected boolean removeNode(org.dom4j.Node node) {
+		checkModifiable();
+		return super.removeNode(node);
+	}
+
+	@Override
+	public void clearContent() {
+		checkModifiable();
+		super.clearContent();
+	}
+
+	@Override
+	public void setContent(List<org.dom4j.Node> content) {
+		checkModifiable();
+		super.setContent(content);
+	}
+
+	@Override
+	public void setDocType(org.dom4j.DocumentType docType) {
+		checkModifiable();
+		super.setDocType(docType);
+	}
+
+	@Override
+	protected void rootElementAdded(org.dom4j.Element element) {
+		super.rootElementAdded(element);
+		if (stylesCached) {
+			computedStyleSerial++;
+			if (element instanceof CSSStylableElement) {
+				((CSSStylableElement) element).setStyleCacheInUse();
+			}
+		}
+	}
+
+	/**
+	 * Notifies the document that computed styles are going to be cached by its
+	 * elements, so that the elements start notifying their modifications.
+	 */
+	void onStyleCacheUse() {
+		if (!stylesCached) {
+			stylesCached = true;
+			org.dom4j.Element root = getRootElement();
+			if (root instanceof CSSStylableElement) {
+				((CSSStylableElement) root).setStyleCacheInUse();
+			}
+		}
+	}
+
 	/**
 	 * Gets the serial number for the document-wide merged style sheet.
 	 * <p>
@@ -588,6 +708,597 @@ public class XHTMLDocument extends DOMDocument implements CSSDocument {
 		return styleCacheSerial;
 	}
 
+	/**
+	 * Gets the serial number for the computed styles cached by the elements.
+	 * <p>
+	 * The serial number changes each time that the document or its style sheets
+	 * are modified in a way that could change any computed style.
+	 * </p>
+	 * 
+	 * @return the serial number for the cached computed styles.
+	 */
+	int getComputedStyleSerial() {
+		return computedStyleSerial;
+	}
+
+	/**
+	 * Enable or disable the caching of computed styles by the elements of this
+	 * document.
+	 * <p>
+	 * When the cache is enabled, the computed styles obtained from
+	 * {@link CSSStylableElement#getComputedStyle(String)} and from
+	 * {@link #computeStyles(ComputedStyleVisitor)} are kept by the elements, and
+	 * reused until the document or its style sheets are modified. The
+	 * pseudo-element styles are cached as well.
+	 * </p>
+	 * <p>
+	 * The initial value is taken from the document factory (see
+	 * {@link XHTMLDocumentFactory#setStyleCache(boolean)}).
+	 * </p>
+	 * 
+	 * @param onOff {@code true} to enable the cache, {@code false} to disable it.
+	 */
+	public void setStyleCache(boolean onOff) {
+		styleCacheOn = onOff;
+		computedStyleSerial++;
+	}
+
+	/**
+	 * Check whether the computed styles are cached by the elements of this
+	 * document.
+	 * <p>
+	 * A frozen document does not use the cache (see {@link #freeze()}).
+	 * </p>
+	 * 
+	 * @return {@code true} if the computed style cache is enabled and this
+	 *         document is not frozen.
+	 */
+	public boolean isStyleCacheOn() {
+		return styleCacheOn && !isFrozen();
+	}
+
+	/**
+	 * Freeze this document, making it read-only so that it can be queried from
+	 * several threads at the same time without synchronization.
+	 * <p>
+	 * This method builds the merged style sheet with its rule index, the canvas
+	 * for the current target medium, and the objects that the elements create
+	 * lazily (selector matchers, child element indexes, inline styles, and the
+	 * content and attribute lists, which are trimmed to their size).
+	 * </p>
+	 * <p>
+	 * Once the document is frozen, adding or removing nodes, changing attribute
+	 * values, registering properties, selecting style sheet sets or changing the
+	 * target medium throw a {@link DOMException} with the
+	 * {@code NO_MODIFICATION_ALLOWED_ERR} code. The text of text nodes is not
+	 * checked, and must not be changed either.
+	 * </p>
+	 * <p>
+	 * The computed styles of the elements are computed by this method, and
+	 * {@link CSSStylableElement#getComputedStyle()} returns them without any
+	 * further computation. Those styles are read-only and shared by all the
+	 * callers. The computed styles of pseudo-elements are computed when first
+	 * requested, and then shared in the same way.
+	 * </p>
+	 * <p>
+	 * The computed styles, the {@code matches} methods and the read-only
+	 * navigation of the tree can then be used from any thread. The style
+	 * declarations obtained from
+	 * {@link CSSStylableElement#getStyle()} must not be modified, and override
+	 * styles cannot be created.
+	 * </p>
+	 * <p>
+	 * This method must be called before the document is handed to other threads.
+	 * A frozen document cannot be unfrozen, but {@link #cloneTemplate()} gives a
+	 * modifiable copy. The frozen state is not serialized.
+	 * </p>
+	 */
+	public void freeze() {
+		if (isFrozen()) {
+			return;
+		}
+		DOM4JDocumentCSSStyleSheet css = (DOM4JDocumentCSSStyleSheet) getStyleSheet();
+		css.getRuleIndex();
+		getCanvas();
+		getInternedStyles(computedStyleSerial);
+		CSSStylableElement.trimToSize(contentList());
+		org.dom4j.Element root = getRootElement();
+		if (root instanceof CSSStylableElement) {
+			prepareConcurrentStyling((CSSStylableElement) root);
+			boolean cacheOn = isStyleCacheOn();
+			int serial = computedStyleSerial;
+			// Each style is computed once, with the style of its parent
+			ArrayDeque<StyleFrame> stack = new ArrayDeque<>();
+			stack.push(new StyleFrame((CSSStylableElement) root, null, null, 0));
+			while (!stack.isEmpty()) {
+				StyleFrame frame = stack.pop();
+				CSSStylableElement element = frame.element;
+				ComputedCSSStyle style = cacheOn ? element.getCachedComputedStyle(null, serial) : null;
+				if (style == null) {
+					style = css.getComputedStyle(element, null, frame.parentStyle);
+				}
+				element.freeze(style);
+				ChildElementIndex index = element.getChildIndex();
+				for (int i = index.getLength() - 1; i >= 0; i--) {
+					stack.push(new StyleFrame(index.item(i), style, null, 0));
+				}
+			}
+		}
+		frozenDocument = this;
+	}
+
+	/**
+	 * Check whether this document is frozen.
+	 * 
+	 * @return {@code true} if this document was frozen.
+	 * @see #freeze()
+	 */
+	public boolean isFrozen() {
+		return frozenDocument == this;
+	}
+
+	private void checkModifiable() throws DOMException {
+		if (isFrozen()) {
+			throw new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR, "The document is frozen");
+		}
+	}
+
+	/**
+	 * Compute the style of every element in this document, in document order.
+	 * <p>
+	 * Each element's style is computed exactly once, and the style of its parent
+	 * is handed explicitly to the computation of its children, so the cost is
+	 * linear in the number of elements instead of depending on the depth of the
+	 * tree.
+	 * </p>
+	 * <p>
+	 * If the ancestor filter is enabled (see
+	 * {@link #setAncestorFilterEnabled(boolean)}), the walk keeps track of the
+	 * ancestors of the element being styled, so selectors that require absent
+	 * ancestors are quickly rejected.
+	 * </p>
+	 * <p>
+	 * If style sharing is enabled (see {@link #setStyleSharingEnabled(boolean)}),
+	 * elements that are identical to a recently styled sibling or cousin may
+	 * receive a copy of its style instead of going through the cascade.
+	 * </p>
+	 * <p>
+	 * If the style cache is enabled (see {@link #setStyleCache(boolean)}), the
+	 * valid cached styles are used, and the computed ones are cached.
+	 * </p>
+	 * <p>
+	 * The document should not be modified while this method runs.
+	 * </p>
+	 * 
+	 * @param visitor the visitor that receives each element with its computed
+	 *                style.
+	 */
+	public void computeStyles(ComputedStyleVisitor visitor) {
+		org.dom4j.Element root = getRootElement();
+		if (!(root instanceof CSSStylableElement)) {
+			return;
+		}
+		DOM4JDocumentCSSStyleSheet css = (DOM4JDocumentCSSStyleSheet) getStyleSheet();
+		AncestorFilter filter = ancestorFilterEnabled ? new AncestorFilter(css.getRuleIndex().getAncestorHashes())
+				: null;
+		StyleSharingCache sharingCache = styleSharingEnabled && isStyleSharingSafe(css) ? new StyleSharingCache()
+				: null;
+		boolean cacheOn = isStyleCacheOn();
+		if (cacheOn) {
+			onStyleCacheUse();
+		}
+		int serial = computedStyleSerial;
+		ComputedStyleTable internTable = getInternedStyles(serial);
+		ArrayList<CSSStylableElement> ancestors = new ArrayList<>();
+		ArrayDeque<StyleFrame> stack = new ArrayDeque<>();
+		stack.push(new StyleFrame((CSSStylableElement) root, null, null, null, 0));
+		while (!stack.isEmpty()) {
+			StyleFrame frame = stack.pop();
+			CSSStylableElement element = frame.element;
+			// Leave the subtrees that were already processed
+			int depth = frame.depth;
+			while (ancestors.size() > depth) {
+				CSSStylableElement ancestor = ancestors.remove(ancestors.size() - 1);
+				if (filter != null) {
+					filter.pop(ancestor);
+				}
+			}
+			ComputedCSSStyle style = cacheOn ? element.getCachedComputedStyle(null, serial) : null;
+			Object shareKey = null;
+			boolean shareable = false;
+			if (style == null) {
+				if (sharingCache != null && StyleSharingCache.isShareable(element)) {
+					StyleSharingCache.Candidate candidate = sharingCache.find(element, frame.parentShareKey);
+					if (candidate != null) {
+						style = candidate.share(element, frame.parentStyle);
+						shareKey = candidate.getShareKey();
+					} else {
+						shareable = true;
+					}
+				}
+				if (style == null) {
+					style = css.getComputedStyle(element, null, frame.parentStyle, filter);
+				}
+				if (shareKey == null) {
+					shareKey = style;
+					if (shareable) {
+						sharingCache.add(element, style, frame.parentShareKey);
+					}
+				}
+				if (cacheOn) {
+					element.cacheComputedStyle(null, style, serial);
+				}
+			} else {
+				shareKey = style;
+			}
+			ComputedCSSStyle canonical = style;
+			if (internTable != null) {
+				/*
+				 * The canonical style may belong to another element, so it is only
+				 * given to the visitor, and the children inherit from the own style.
+				 */
+				canonical = internTable.intern(style, frame.canonicalParentStyle);
+			}
+			visitor.visit(element, canonical);
+			// Push the children in reverse order, so they are visited in document order
+			boolean hasChildren = false;
+			depth++;
+			for (int i = element.nodeCount() - 1; i >= 0; i--) {
+				org.dom4j.Node node = element.node(i);
+				if (node instanceof CSSStylableElement) {
+					stack.push(new StyleFrame((CSSStylableElement) node, style, canonical, shareKey, depth));
+					hasChildren = true;
+				}
+			}
+			if (hasChildren) {
+				ancestors.add(element);
+				if (filter != null) {
+					filter.push(element);
+				}
+			}
+		}
+	}
+
+	private static class StyleFrame {
+
+		final CSSStylableElement element;
+
+		final ComputedCSSStyle parentStyle;
+
+		/*
+		 * The canonical instance of the parent style, if the styles are interned.
+		 */
+		final ComputedCSSStyle canonicalParentStyle;
+
+		/*
+		 * The computed style from which the parent style was shared, or the parent
+		 * style itself if it was not shared.
+		 */
+		final Object parentShareKey;
+
+		final int depth;
+
+		StyleFrame(CSSStylableElement element, ComputedCSSStyle parentStyle, Object parentShareKey, int depth) {
+			this(element, parentStyle, parentStyle, parentShareKey, depth);
+		}
+
+		StyleFrame(CSSStylableElement element, ComputedCSSStyle parentStyle, ComputedCSSStyle canonicalParentStyle,
+				Object parentShareKey, int depth) {
+			this.element = element;
+			this.parentStyle = parentStyle;
+			this.canonicalParentStyle = canonicalParentStyle;
+			this.parentShareKey = parentShareKey;
+			this.depth = depth;
+		}
+
+	}
+
+	/**
+	 * Compute the style of every element in this document, using the given
+	 * fork-join pool to process independent subtrees in parallel.
+	 * <p>
+	 * As with {@link #computeStyles(ComputedStyleVisitor)}, the style of each
+	 * element is computed once and handed to the computation of its children, but
+	 * the elements are not visited in document order, and the visitor is called
+	 * concurrently from the threads of the pool, so it must be thread-safe.
+	 * </p>
+	 * <p>
+	 * Before the parallel phase, the objects that would otherwise be lazily created
+	 * (the merged style sheet, the canvas, the selector matchers, the child element
+	 * indexes and the inline styles) are created in the calling thread. After that,
+	 * the styling only reads the document, the style sheets, and the computed
+	 * styles of the ancestors, so the document must not be modified until this
+	 * method returns.
+	 * </p>
+	 * <p>
+	 * If the ancestor filter is enabled (see
+	 * {@link #setAncestorFilterEnabled(boolean)}), each subtree that is handed to
+	 * another task receives its own copy of the filter. Style sharing is not used
+	 * in this mode.
+	 * </p>
+	 * 
+	 * @param visitor the thread-safe visitor that receives each element with its
+	 *                computed style.
+	 * @param pool    the fork-join pool.
+	 */
+	public void computeStyles(ComputedStyleVisitor visitor, ForkJoinPool pool) {
+		org.dom4j.Element root = getRootElement();
+		if (!(root instanceof CSSStylableElement)) {
+			return;
+		}
+		DOM4JDocumentCSSStyleSheet css = (DOM4JDocumentCSSStyleSheet) getStyleSheet();
+		css.getRuleIndex();
+		getCanvas();
+		prepareConcurrentStyling((CSSStylableElement) root);
+		AncestorFilter filter = ancestorFilterEnabled ? new AncestorFilter(css.getRuleIndex().getAncestorHashes())
+				: null;
+		boolean cacheOn = isStyleCacheOn();
+		if (cacheOn) {
+			onStyleCacheUse();
+		}
+		ComputedStyleTable internTable = getInternedStyles(computedStyleSerial);
+		pool.invoke(new StyleTask(css, visitor, (CSSStylableElement) root, null, null, filter, internTable,
+				cacheOn, computedStyleSerial));
+	}
+
+	/**
+	 * Create the lazily-created objects that the cascade is going to use, so the
+	 * tree can be styled concurrently.
+	 * 
+	 * @param root the root element.
+	 */
+	private static void prepareConcurrentStyling(CSSStylableElement root) {
+		ArrayDeque<CSSStylableElement> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			CSSStylableElement element = stack.pop();
+			element.getSelectorMatcher();
+			element.attributeCount();
+			element.getInlineStyleForReading();
+			ChildElementIndex index = element.getChildIndex();
+			for (int i = index.getLength() - 1; i >= 0; i--) {
+				stack.push(index.item(i));
+			}
+		}
+	}
+
+	private static class StyleTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/*
+		 * Do not fork more tasks when the local queue has more than this number of
+		 * tasks that could be stolen.
+		 */
+		private static final int SURPLUS_THRESHOLD = 3;
+
+		private final DOM4JDocumentCSSStyleSheet css;
+
+		private final ComputedStyleVisitor visitor;
+
+		private final CSSStylableElement element;
+
+		private final ComputedCSSStyle parentStyle;
+
+		private final ComputedCSSStyle canonicalParentStyle;
+
+		/*
+		 * Filter with the ancestors of the element, or null if the filter is not
+		 * used. Shared with the subtasks that are run in the same thread.
+		 */
+		private final AncestorFilter filter;
+
+		private final ComputedStyleTable internTable;
+
+		private final boolean cacheOn;
+
+		private final int serial;
+
+		StyleTask(DOM4JDocumentCSSStyleSheet css, ComputedStyleVisitor visitor, CSSStylableElement element,
+				ComputedCSSStyle parentStyle, ComputedCSSStyle canonicalParentStyle, AncestorFilter filter,
+				ComputedStyleTable internTable, boolean cacheOn, int serial) {
+			super();
+			this.css = css;
+			this.visitor = visitor;
+			this.element = element;
+			this.parentStyle = parentStyle;
+			this.canonicalParentStyle = canonicalParentStyle;
+			this.filter = filter;
+			this.internTable = internTable;
+			this.cacheOn = cacheOn;
+			this.serial = serial;
+		}
+
+		@Override
+		protected void compute() {
+			ComputedCSSStyle style;
+			if (!cacheOn) {
+				style = css.getComputedStyle(element, null, parentStyle, filter);
+			} else if ((style = element.getCachedComputedStyle(null, serial)) == null) {
+				style = css.getComputedStyle(element, null, parentStyle, filter);
+				element.cacheComputedStyle(null, style, serial);
+			}
+			ComputedCSSStyle canonical = style;
+			if (internTable != null) {
+				// Only the visitor receives the canonical style
+				canonical = internTable.intern(style, canonicalParentStyle);
+			}
+			visitor.visit(element, canonical);
+			ChildElementIndex index = element.getChildIndex();
+			int len = index.getLength();
+			if (len == 0) {
+				return;
+			}
+			if (filter != null) {
+				filter.push(element);
+			}
+			ArrayList<StyleTask> forked = null;
+			for (int i = 0; i < len; i++) {
+				CSSStylableElement child = index.item(i);
+				if (child.nodeCount() != 0 && getSurplusQueuedTaskCount() <= SURPLUS_THRESHOLD) {
+					// The forked task may run in another thread, so it needs its own filter
+					AncestorFilter taskFilter = filter != null ? filter.copy() : null;
+					StyleTask task = new StyleTask(css, visitor, child, style, canonical, taskFilter, internTable,
+							cacheOn, serial);
+					task.fork();
+					if (forked == null) {
+						forked = new ArrayList<>(len - i);
+					}
+					forked.add(task);
+				} else {
+					new StyleTask(css, visitor, child, style, canonical, filter, internTable, cacheOn, serial)
+							.compute();
+				}
+			}
+			if (filter != null) {
+				filter.pop(element);
+			}
+			if (forked != null) {
+				for (StyleTask task : forked) {
+					task.join();
+				}
+			}
+		}
+
+	}
+
+	private boolean isStyleSharingSafe(DOM4JDocumentCSSStyleSheet css) {
+		boolean hasCanvas = getCanvas() != null;
+		if (!css.getCurrentRuleIndex().isStyleSharingSafe(hasCanvas)) {
+			return false;
+		}
+		AbstractCSSStyleSheet important = getDocumentFactory().getUserImportantStyleSheet();
+		return important == null
+				|| RuleIndex.isStyleSharingSafe(RuleIndex.sharingFlags(important.getCssRules()), hasCanvas);
+	}
+
+	/**
+	 * Enable or disable style sharing in
+	 * {@link #computeStyles(ComputedStyleVisitor)}.
+	 * <p>
+	 * When enabled, an element with the same tag name and attributes as a
+	 * recently styled sibling or cousin (whose ancestors also share their styles),
+	 * and no inline or override style, receives a copy of the style of that
+	 * element instead of running the cascade again.
+	 * </p>
+	 * <p>
+	 * Sharing is automatically skipped if the style sheets contain selectors that
+	 * depend on the siblings or the contents of the elements, like sibling
+	 * combinators or structural pseudo-classes, or state pseudo-classes while a
+	 * canvas is in use. It is disabled by default.
+	 * </p>
+	 * 
+	 * @param enabled {@code true} to enable style sharing.
+	 */
+	public void setStyleSharingEnabled(boolean enabled) {
+		this.styleSharingEnabled = enabled;
+	}
+
+	/**
+	 * Check whether style sharing is enabled.
+	 * 
+	 * @return {@code true} if style sharing is enabled.
+	 */
+	public boolean isStyleSharingEnabled() {
+		return styleSharingEnabled;
+	}
+
+	/**
+	 * Enable or disable the interning of the styles computed by
+	 * {@link #computeStyles(ComputedStyleVisitor)} and
+	 * {@link #computeStyles(ComputedStyleVisitor, ForkJoinPool)}.
+	 * <p>
+	 * When enabled, the visitor receives a single, canonical instance of the
+	 * style for all the elements whose computed styles have the same declarations
+	 * and the same parent style (as is common with text containers that only
+	 * inherit), held in a table that belongs to this document. That greatly
+	 * reduces the memory used by applications that keep the computed styles of
+	 * large documents.
+	 * </p>
+	 * <p>
+	 * Computed styles are read-only, but the owner node of a canonical style is
+	 * the first element for which it was computed (and its parent style is the
+	 * style of that element's parent), so the methods of the styles received by
+	 * the visitor that depend on the owner node or the parent style (like
+	 * {@link ComputedCSSStyle#getOwnerNode()} or
+	 * {@link ComputedCSSStyle#getText()}) should not be used.
+	 * </p>
+	 * <p>
+	 * The canonical styles are only handed to the visitor. Each element still
+	 * gets its own style, which is the one that its children inherit from and, if
+	 * the style cache is enabled, the one that it caches, so the styles obtained
+	 * from the elements are correct. Interning thus only reduces the memory used
+	 * by the styles that the visitor keeps: with the style cache enabled, the
+	 * elements keep as many styles as without interning.
+	 * </p>
+	 * <p>
+	 * To find the canonical instance, each computed style is serialized with
+	 * {@link ComputedCSSStyle#getCssText()} and looked up in the table, which adds
+	 * to the time needed to compute the styles. Interning is thus worthwhile when
+	 * the memory used by the styles matters more than the time to compute them.
+	 * The table is discarded when the document or its style
+	 * sheets are modified. Interning is disabled by default.
+	 * </p>
+	 * 
+	 * @param enabled {@code true} to enable the interning of computed styles.
+	 */
+	public void setComputedStyleInterning(boolean enabled) {
+		this.computedStyleInterning = enabled;
+		internedStyles = null;
+	}
+
+	/**
+	 * Check whether the computed styles are interned.
+	 * 
+	 * @return {@code true} if the computed styles are interned.
+	 */
+	public boolean isComputedStyleInterning() {
+		return computedStyleInterning;
+	}
+
+	/**
+	 * Gets the table of interned computed styles for the given serial.
+	 * 
+	 * @param serial the current computed style serial.
+	 * @return the table, or {@code null} if the computed styles are not interned.
+	 */
+	private ComputedStyleTable getInternedStyles(int serial) {
+		if (!computedStyleInterning) {
+			return null;
+		}
+		ComputedStyleTable table = internedStyles;
+		if (table == null || table.getSerial() != serial) {
+			table = new ComputedStyleTable(serial);
+			internedStyles = table;
+		}
+		return table;
+	}
+
+	/**
+	 * Enable or disable the ancestor filter used by
+	 * {@link #computeStyles(ComputedStyleVisitor)}.
+	 * <p>
+	 * The filter is a small Bloom filter with the tag names, identifiers and
+	 * classes of the ancestors of the element being styled, and allows to reject
+	 * most descendant and child selectors without walking up the tree. It is
+	 * disabled by default.
+	 * </p>
+	 * 
+	 * @param enabled {@code true} to enable the filter.
+	 */
+	public void setAncestorFilterEnabled(boolean enabled) {
+		this.ancestorFilterEnabled = enabled;
+	}
+
+	/**
+	 * Check whether the ancestor filter is enabled.
+	 * 
+	 * @return {@code true} if the ancestor filter is enabled.
+	 */
+	public boolean isAncestorFilterEnabled() {
+		return ancestorFilterEnabled;
+	}
+
 	/**
 	 * Gets the style database currently used to apply specific styles to this
 	 * document.
@@ -627,6 +1338,7 @@ public class XHTMLDocument extends DOMDocument implements CSSDocument {
 	 */
 	@Override
 	public void setTargetMedium(String medium) throws CSSMediaException {
+		checkModifiable();
 		if ("all".equalsIgnoreCase(medium)) {
 			targetMedium = null;
 		} else {
@@ -663,11 +1375,202 @@ public class XHTMLDocument extends DOMDocument implements CSSDocument {
 		return canvas;
 	}
 
+	/**
+	 * Estimate the memory retained by this document.
+	 * <p>
+	 * The report breaks down the estimate by element nodes, attributes, parsed
+	 * inline styles, selector matchers, child element indexes, cached and interned
+	 * computed styles, linked and embedded style sheets and the merged style
+	 * sheet. Nothing is built or parsed
+	 * to produce it, so it reflects the current state of the lazily created
+	 * objects.
+	 * </p>
+	 * <p>
+	 * The document should not be modified while the report is produced.
+	 * </p>
+	 * 
+	 * @return the memory report.
+	 */
+	public MemoryReport memoryReport() {
+		return MemoryReport.create(this, mergedStyleSheet, internedStyles);
+	}
+
+	/**
+	 * Create a copy of this document, using it as a template.
+	 * <p>
+	 * The node structure is copied, but the state that this document obtained
+	 * from parsing and styling is shared with the copy instead of being built
+	 * again:
+	 * </p>
+	 * <ul>
+	 * <li>The parsed inline styles are shared, and copied only when the style of
+	 * an attribute in the copy is requested or modified.</li>
+	 * <li>The sheets of the <code>STYLE</code> and <code>LINK</code> elements
+	 * share their rules with the sheets of this document, so they are not parsed
+	 * nor loaded again.</li>
+	 * <li>The merged style sheet and its rule index are shared.</li>
+	 * <li>If the style cache is enabled, the computed styles that this document
+	 * has cached are copied to the elements of the copy when they are first
+	 * requested, unless the copy was modified by then.</li>
+	 * </ul>
+	 * <p>
+	 * To get the most out of it, the template document should be styled (for
+	 * example with {@link #computeStyles(ComputedStyleVisitor)}) before being
+	 * copied, and the rules of the shared sheets should not be modified through
+	 * the object model of either document.
+	 * </p>
+	 * 
+	 * @return the copy.
+	 */
+	public XHTMLDocument cloneTemplate() {
+		XHTMLDocumentFactory factory = getDocumentFactory();
+		XHTMLDocument doc;
+		org.dom4j.DocumentType docType = getDocType();
+		if (docType != null) {
+			DOMDocumentType documentType = new DOMDocumentType(docType.getElementName(), docType.getPublicID(),
+					docType.getSystemID());
+			if (docType.getInternalDeclarations() != null) {
+				documentType.setInternalDeclarations(new ArrayList<>(docType.getInternalDeclarations()));
+			}
+			doc = factory.createDocument(documentType);
+		} else {
+			doc = factory.createDocument();
+		}
+		doc.documentURI = documentURI;
+		doc.baseURL = baseURL;
+		doc.targetMedium = targetMedium;
+		doc.ancestorFilterEnabled = ancestorFilterEnabled;
+		doc.styleSharingEnabled = styleSharingEnabled;
+		doc.styleCacheOn = styleCacheOn;
+		doc.computedStyleInterning = computedStyleInterning;
+		if (registeredPropertySet != null) {
+			doc.registeredPropertySet = new HashSet<>(registeredPropertySet);
+		}
+		doc.metaDefaultStyleSet = metaDefaultStyleSet;
+		doc.metaReferrerPolicy = metaReferrerPolicy;
+		doc.lastStyleSheetSet = lastStyleSheetSet;
+		// Copy the nodes
+		for (org.dom4j.Node node : content()) {
+			if (node instanceof CSSStylableElement) {
+				copyElement((CSSStylableElement) node, doc, factory);
+			} else {
+				doc.add((org.dom4j.Node) node.clone());
+			}
+		}
+		// The style sheet lists must be up to date before the merged sheet is set
+		doc.getStyleSheets();
+		if (mergedStyleSheet instanceof DOM4JDocumentCSSStyleSheet) {
+			doc.mergedStyleSheet = ((DOM4JDocumentCSSStyleSheet) mergedStyleSheet).copyForDocument(doc);
+			if (doc.registeredPropertySet != null) {
+				for (CSSPropertyDefinition def : doc.registeredPropertySet) {
+					doc.mergedStyleSheet.registerProperty(def);
+				}
+			}
+			org.dom4j.Element root = getRootElement();
+			org.dom4j.Element docRoot = doc.getRootElement();
+			if (styleCacheOn && doc.styleCacheOn && root instanceof CSSStylableElement
+					&& docRoot instanceof CSSStylableElement) {
+				doc.onStyleCacheUse();
+				shareComputedStyles((CSSStylableElement) root, computedStyleSerial, (CSSStylableElement) docRoot,
+						doc.computedStyleSerial);
+			}
+		}
+		return doc;
+	}
+
+	private static void copyElement(CSSStylableElement template, Branch parent, XHTMLDocumentFactory factory) {
+		CSSStylableElement element = factory.createElement(template.getQName(), template.attributeCount());
+		Iterator<Attribute> it = template.attributeIterator();
+		while (it.hasNext()) {
+			Attribute attr = it.next();
+			Attribute copy = factory.createAttribute(element, attr.getQName(), attr.getValue());
+			if (attr instanceof StyleAttribute && copy instanceof StyleAttribute) {
+				((StyleAttribute) copy).shareStyle((StyleAttribute) attr);
+			}
+			element.add(copy);
+		}
+		if (template instanceof StyleDefinerElement) {
+			/*
+			 * Adding content to a style definer resets its sheet, so the content is
+			 * copied first, then the sheet is shared, and finally the element is
+			 * attached and registered by the document.
+			 */
+			copyContent(template, element, factory);
+			if (element instanceof StyleDefinerElement) {
+				((StyleDefinerElement) element).shareSheet((StyleDefinerElement) template);
+			}
+			parent.add(element);
+		} else {
+			// Attach first, so the descendant style definers are registered
+			parent.add(element);
+			copyContent(template, element, factory);
+		}
+	}
+
+	private static void copyContent(CSSStylableElement template, CSSStylableElement element,
+			XHTMLDocumentFactory factory) {
+		for (org.dom4j.Node node : template.content()) {
+			if (node instanceof CSSStylableElement) {
+				copyElement((CSSStylableElement) node, element, factory);
+			} else {
+				element.add((org.dom4j.Node) node.clone());
+			}
+		}
+	}
+
+	/**
+	 * Hand the valid computed styles cached by the elements of a template to the
+	 * corresponding elements of its copy.
+	 * 
+	 * @param template       the root element of the template.
+	 * @param templateSerial the computed style serial of the template document.
+	 * @param copy           the root element of the copy.
+	 * @param serial         the computed style serial of the copy.
+	 */
+	private static void shareComputedStyles(CSSStylableElement template, int templateSerial,
+			CSSStylableElement copy, int serial) {
+		ArrayDeque<CSSStylableElement> stack = new ArrayDeque<>();
+		stack.push(template);
+		stack.push(copy);
+		while (!stack.isEmpty()) {
+			CSSStylableElement element = stack.pop();
+			CSSStylableElement tmplElement = stack.pop();
+			ComputedCSSStyle style = tmplElement.getCachedComputedStyle(null, templateSerial);
+			if (style instanceof DOM4JComputedStyle) {
+				element.setTemplateComputedStyle((DOM4JComputedStyle) style, serial);
+			}
+			ChildElementIndex tmplIndex = tmplElement.getChildIndex();
+			ChildElementIndex index = element.getChildIndex();
+			int len = Math.min(tmplIndex.getLength(), index.getLength());
+			for (int i = len - 1; i >= 0; i--) {
+				stack.push(tmplIndex.item(i));
+				stack.push(index.item(i));
+			}
+		}
+	}
+
 	@Override
 	public void rebuildCascade() {
 		onStyleModify();
 	}
 
+	/**
+	 * Sets the document factory.
+	 * <p>
+	 * If the factory is a {@link XHTMLDocumentFactory}, the computed style cache of
+	 * this document is enabled or disabled according to the factory setting.
+	 * </p>
+	 * 
+	 * @param documentFactory the document factory.
+	 */
+	@Override
+	public void setDocumentFactory(DocumentFactory documentFactory) {
+		super.setDocumentFactory(documentFactory);
+		if (documentFactory instanceof XHTMLDocumentFactory) {
+			setStyleCache(((XHTMLDocumentFactory) documentFactory).isStyleCacheOn());
+		}
+	}
+
 	@Override
 	protected XHTMLDocumentFactory getDocumentFactory() {
 		return (XHTMLDocumentFactory) super.getDocumentFactory();
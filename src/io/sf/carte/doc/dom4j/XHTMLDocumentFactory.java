@@ -11,11 +11,17 @@
 
 package io.sf.carte.doc.dom4j;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 import org.dom4j.Attribute;
 import org.dom4j.Element;
+import org.dom4j.Namespace;
 import org.dom4j.QName;
 import org.dom4j.dom.DOMDocumentFactory;
 import org.dom4j.dom.DOMDocumentType;
@@ -45,13 +51,17 @@ import io.sf.carte.doc.style.css.om.InlineStyle;
  * This factory creates XHTMLDocuments and other objects with support for CSS
  * style sheets.
  * <p>
- * It is possible to produce elements with the ability to cache its own computed
- * style, if you call <code>setStyleCache(true)</code>. Although the performance
- * benefit is generally not noticeable, in some corner cases it could enhance
- * performance for applications that may call the
- * <code>getComputedStyle()</code> method of a single stylable element many
- * times. Due to the generally negligible performance gain, cache is off by
- * default.
+ * It is possible to produce documents whose elements cache their own computed
+ * styles, if you call <code>setStyleCache(true)</code>. That can enhance
+ * performance for applications that call the <code>getComputedStyle()</code>
+ * method of the same elements many times, but the cached styles take memory, so
+ * the cache is off by default. The cache can also be switched on or off for
+ * each document, see {@link XHTMLDocument#setStyleCache(boolean)}.
+ * <p>
+ * The classes of the elements and attributes are chosen according to their
+ * names, and custom classes can be registered with
+ * {@link #registerElementCreator(String, ElementCreator)} and
+ * {@link #registerAttributeCreator(String, AttributeCreator)}.
  * 
  * @author Carlos Amengual
  * 
@@ -64,6 +74,81 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 
 	private boolean styleCacheOn = false;
 
+	private boolean flyweightMatchers = false;
+
+	private boolean inlineStyleInterning = false;
+
+	private transient LinkedStyleSheetCache linkedSheetCache = null;
+
+	private transient Executor styleSheetExecutor = null;
+
+	/*
+	 * The built-in element and attribute creators, by lower-case name.
+	 */
+	private static final HashMap<String, ElementCreator> defaultElementCreators = new HashMap<>();
+
+	private static final HashMap<String, AttributeCreator> defaultAttributeCreators = new HashMap<>();
+
+	static {
+		defaultElementCreators.put("base", BaseURLElement::new);
+		defaultElementCreators.put("style", StyleElement::new);
+		defaultElementCreators.put("link", LinkElement::new);
+		defaultElementCreators.put("head", HeadElement::new);
+		defaultElementCreators.put("img", ImgElement::new);
+		defaultElementCreators.put("font", FontElement::new);
+		defaultElementCreators.put("basefont", FontElement::new);
+		defaultElementCreators.put("td", TableCellElement::new);
+		defaultElementCreators.put("th", TableCellElement::new);
+		defaultElementCreators.put("tr", TableRowElement::new);
+		defaultElementCreators.put("table", TableElement::new);
+		defaultAttributeCreators.put("href", HrefAttribute::new);
+		defaultAttributeCreators.put("style", StyleAttribute::new);
+		defaultAttributeCreators.put("xml:base", BaseAttribute::new);
+		defaultAttributeCreators.put("type", DocumentStyleEventAttribute::new);
+		defaultAttributeCreators.put("media", DocumentStyleEventAttribute::new);
+		defaultAttributeCreators.put("rel", DocumentStyleEventAttribute::new);
+		defaultAttributeCreators.put("title", DocumentStyleEventAttribute::new);
+	}
+
+	/*
+	 * Maximum number of qualified names whose creators are remembered.
+	 */
+	private static final int MAX_QNAME_CREATORS = 4096;
+
+	/*
+	 * The element and attribute creators by lower-case name, and the creators
+	 * already found for each qualified name, so that the names do not have to be
+	 * lower-cased for each new node.
+	 */
+	private transient ConcurrentHashMap<String, ElementCreator> elementCreators;
+
+	private transient ConcurrentHashMap<QName, ElementCreator> qnameElementCreators;
+
+	private transient ConcurrentHashMap<String, AttributeCreator> attributeCreators;
+
+	private transient ConcurrentHashMap<QName, AttributeCreator> qnameAttributeCreators;
+
+	/*
+	 * Maximum number of remembered lower-case element names.
+	 */
+	private static final int MAX_LOWER_CASE_NAMES = 4096;
+
+	/*
+	 * The interned lower-case version of each element local name, so that the
+	 * selector matchers do not have to compute it each time.
+	 */
+	private transient ConcurrentHashMap<String, String> lowerCaseNames;
+
+	/*
+	 * Maximum number of interned inline styles.
+	 */
+	private static final int MAX_INTERNED_INLINE_STYLES = 4096;
+
+	/*
+	 * The parsed inline styles by their text, when interning is enabled.
+	 */
+	private transient ConcurrentHashMap<String, InlineStyle> internedInlineStyles;
+
 	private static final XHTMLDocumentFactory singleton = new XHTMLDocumentFactory();
 
 	protected XHTMLDocumentFactory() {
@@ -73,6 +158,58 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 	public XHTMLDocumentFactory(EnumSet<Flag> enumSet) {
 		super();
 		cssFactory = new DOM4JCSSStyleSheetFactory(enumSet);
+		initCreators();
+		internedInlineStyles = new ConcurrentHashMap<>();
+	}
+
+	private void initCreators() {
+		elementCreators = new ConcurrentHashMap<>(defaultElementCreators);
+		qnameElementCreators = new ConcurrentHashMap<>();
+		attributeCreators = new ConcurrentHashMap<>(defaultAttributeCreators);
+		qnameAttributeCreators = new ConcurrentHashMap<>();
+		lowerCaseNames = new ConcurrentHashMap<>();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		// Custom creators are not serializable
+		initCreators();
+		internedInlineStyles = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Creates the elements with a given name.
+	 */
+	@FunctionalInterface
+	public interface ElementCreator {
+
+		/**
+		 * Create an element.
+		 * 
+		 * @param qname          the qualified name of the element.
+		 * @param attributeCount the expected number of attributes, or zero if not
+		 *                       known.
+		 * @return the new element.
+		 */
+		CSSStylableElement createElement(QName qname, int attributeCount);
+
+	}
+
+	/**
+	 * Creates the attributes with a given name.
+	 */
+	@FunctionalInterface
+	public interface AttributeCreator {
+
+		/**
+		 * Create an attribute.
+		 * 
+		 * @param qname the qualified name of the attribute.
+		 * @param value the attribute value.
+		 * @return the new attribute.
+		 */
+		Attribute createAttribute(QName qname, String value);
+
 	}
 
 	/**
@@ -97,6 +234,14 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 		return cssFactory.createInlineStyle(owner);
 	}
 
+	InlineStyle copyInlineStyle(InlineStyle style, Node owner) {
+		return cssFactory.copyInlineStyle(style, owner);
+	}
+
+	AbstractCSSStyleSheet getUserImportantStyleSheet() {
+		return cssFactory.getUserImportantStyleSheet();
+	}
+
 	BaseCSSStyleSheet createLinkedStyleSheet(Node ownerNode, String title, MediaQueryList mediaList) {
 		return cssFactory.createLinkedStyleSheet(ownerNode, title, mediaList);
 	}
@@ -106,8 +251,8 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 	}
 
 	/**
-	 * Indicates whether the stylable elements currently produced by this factory
-	 * are cache-enabled or not.
+	 * Indicates whether the documents currently produced by this factory have the
+	 * per-element style cache enabled or not.
 	 * 
 	 * @return <code>true</code> if the per-element cache is enabled,
 	 *         <code>false</code> otherwise.
@@ -118,11 +263,16 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 
 	/**
 	 * Can turn on or off the per-Element style caching capability (by default is
-	 * off).
+	 * off) of the documents created afterwards by this factory.
 	 * <p>
 	 * Only applications that repeatedly call the
 	 * {@link CSSStylableElement#getComputedStyle()} method on the same Element
 	 * should turn it on.
+	 * </p>
+	 * <p>
+	 * The setting of an existing document can be changed with
+	 * {@link XHTMLDocument#setStyleCache(boolean)}.
+	 * </p>
 	 * 
 	 * @param onOff set to true to turn on the cache capability, to false to turn it
 	 *              off.
@@ -131,6 +281,159 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 		this.styleCacheOn = onOff;
 	}
 
+	/**
+	 * Indicates whether the elements created by this factory use flyweight
+	 * selector matchers.
+	 * 
+	 * @return <code>true</code> if the selector matchers are flyweight,
+	 *         <code>false</code> if each element keeps its own matcher.
+	 */
+	public boolean isFlyweightSelectorMatchers() {
+		return flyweightMatchers;
+	}
+
+	/**
+	 * Can turn on or off the flyweight selector matchers (by default off).
+	 * <p>
+	 * By default, each element creates a selector matcher the first time that it
+	 * is matched against a selector, and keeps it. With flyweight matchers, the
+	 * elements do not keep a matcher, and a short-lived one is created for each
+	 * matching operation instead. That saves one object per element in documents
+	 * that are styled once, at the cost of more allocations when the same
+	 * elements are matched many times.
+	 * </p>
+	 * <p>
+	 * Either way, the computation of styles and the
+	 * {@link CSSStylableElement#matches(io.sf.carte.doc.style.css.nsac.SelectorList, io.sf.carte.doc.style.css.nsac.Condition)
+	 * matches(SelectorList, Condition)} method use a matcher of their own, so they
+	 * can be called concurrently on a document that is not being modified.
+	 * </p>
+	 * 
+	 * @param onOff set to true to use flyweight matchers, to false to keep one
+	 *              matcher per element.
+	 */
+	public void setFlyweightSelectorMatchers(boolean onOff) {
+		this.flyweightMatchers = onOff;
+	}
+
+	/**
+	 * Indicates whether the parsed inline styles are interned by their text.
+	 * 
+	 * @return <code>true</code> if the inline styles are interned.
+	 */
+	public boolean isInlineStyleInterning() {
+		return inlineStyleInterning;
+	}
+
+	/**
+	 * Can turn on or off the interning of parsed inline styles (by default off).
+	 * <p>
+	 * Generated documents often repeat the same few <code>style</code> attribute
+	 * values across many elements. With interning, a style text is parsed once,
+	 * and the elements with the same text share the parsed declaration when their
+	 * styles are computed. An element gets a copy of its own when its inline style
+	 * is requested with {@link CSSStylableElement#getStyle()}, so the shared
+	 * declarations are never modified.
+	 * </p>
+	 * <p>
+	 * Up to 4096 style texts are interned per factory, and the texts that contain
+	 * URLs are not interned as they may depend on the base URL of the document.
+	 * Turning interning off discards the interned styles.
+	 * </p>
+	 * 
+	 * @param onOff set to true to intern the inline styles, to false to parse them
+	 *              for each element.
+	 */
+	public void setInlineStyleInterning(boolean onOff) {
+		this.inlineStyleInterning = onOff;
+		if (!onOff) {
+			internedInlineStyles.clear();
+		}
+	}
+
+	/**
+	 * Gets the interned inline style for the given text.
+	 * 
+	 * @param cssText the text of the <code>style</code> attribute.
+	 * @return the interned style, or {@code null} if that text was not interned.
+	 */
+	InlineStyle getInternedInlineStyle(String cssText) {
+		return internedInlineStyles.get(cssText);
+	}
+
+	/**
+	 * Intern a copy of the given inline style, if there is room for it.
+	 * 
+	 * @param cssText the text of the <code>style</code> attribute.
+	 * @param style   the style that was parsed from the text.
+	 */
+	void internInlineStyle(String cssText, InlineStyle style) {
+		if (internedInlineStyles.size() < MAX_INTERNED_INLINE_STYLES
+				&& cssText.toLowerCase(Locale.ROOT).indexOf("url(") == -1) {
+			internedInlineStyles.putIfAbsent(cssText, copyInlineStyle(style, null));
+		}
+	}
+
+	/**
+	 * Gets the cache of linked style sheets used by the documents created by this
+	 * factory.
+	 * 
+	 * @return the linked style sheet cache, or {@code null} if linked sheets are
+	 *         not cached.
+	 */
+	public LinkedStyleSheetCache getLinkedStyleSheetCache() {
+		return linkedSheetCache;
+	}
+
+	/**
+	 * Sets a cache of parsed linked style sheets, to be used by the documents
+	 * created by this factory.
+	 * <p>
+	 * When many documents link to the same style sheets, the cache avoids fetching
+	 * and parsing those sheets for each document. The same cache can be shared by
+	 * several factories, even if they use different parser flags: sheets parsed
+	 * with different flags are cached separately.
+	 * </p>
+	 * 
+	 * @param cache the linked style sheet cache, or {@code null} to disable the
+	 *              caching of linked sheets (the default).
+	 */
+	public void setLinkedStyleSheetCache(LinkedStyleSheetCache cache) {
+		this.linkedSheetCache = cache;
+	}
+
+	/**
+	 * Gets the executor used to prefetch the linked style sheets.
+	 * 
+	 * @return the executor, or {@code null} if linked sheets are retrieved
+	 *         synchronously.
+	 */
+	public Executor getStyleSheetExecutor() {
+		return styleSheetExecutor;
+	}
+
+	/**
+	 * Sets an executor to prefetch the linked style sheets of the documents
+	 * created by this factory.
+	 * <p>
+	 * If an executor is set, the download of a linked style sheet starts as soon as
+	 * its {@code link} element is attached to a document (for example, while the
+	 * document is being parsed), so several sheets can be downloaded in parallel
+	 * while the rest of the document is still parsed. The sheets are parsed later,
+	 * when the style sheet list of the document is first updated, waiting only for
+	 * the downloads that are still outstanding.
+	 * </p>
+	 * <p>
+	 * Links that have a {@code referrerpolicy} attribute are not prefetched.
+	 * </p>
+	 * 
+	 * @param executor the executor, or {@code null} to retrieve the linked sheets
+	 *                 synchronously (the default).
+	 */
+	public void setStyleSheetExecutor(Executor executor) {
+		this.styleSheetExecutor = executor;
+	}
+
 	@Override
 	public CSSStylableElement createElement(String name) {
 		return (CSSStylableElement) super.createElement(name);
@@ -143,86 +446,98 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 
 	@Override
 	public CSSStylableElement createElement(QName qname) {
-		String name = qname.getName().toLowerCase(Locale.ROOT);
-		if ("base".equals(name)) {
-			return new BaseURLElement(qname);
-		} else if ("style".equals(name)) {
-			return new StyleElement(qname);
-		} else if ("link".equals(name)) {
-			return new LinkElement(qname);
-		} else if ("head".equals(name)) {
-			return new HeadElement(qname);
-		} else if ("img".equals(name)) {
-			return new ImgElement(qname);
-		} else if ("title".equals(name) || "meta".equals(name)) {
-			return new XHTMLElement(qname);
-		} else if ("font".equals(name) || "basefont".equals(name)) {
-			return new FontElement(qname);
-		} else if (styleCacheOn) {
-			if ("td".equals(name) || "th".equals(name)) {
-				return new CachedTableCellElement(qname);
-			} else if ("tr".equals(name)) {
-				return new CachedTableRowElement(qname);
-			} else if ("table".equals(name)) {
-				return new CachedTableElement(qname);
-			} else {
-				// Produce a cached element
-				return new CachedXHTMLElement(qname);
-			}
-		} else {
-			if ("td".equals(name) || "th".equals(name)) {
-				return new TableCellElement(qname);
-			} else if ("tr".equals(name)) {
-				return new TableRowElement(qname);
-			} else if ("table".equals(name)) {
-				return new TableElement(qname);
-			} else {
-				// Produce a regular XHTML element
-				return new XHTMLElement(qname);
-			}
-		}
+		return elementCreator(qname).createElement(qname, 0);
 	}
 
 	@Override
 	public CSSStylableElement createElement(QName qname, int attributeCount) {
-		String name = qname.getName().toLowerCase(Locale.ROOT);
-		if ("base".equals(name)) {
-			return new BaseURLElement(qname, attributeCount);
-		} else if ("style".equals(name)) {
-			return new StyleElement(qname, attributeCount);
-		} else if ("link".equals(name)) {
-			return new LinkElement(qname, attributeCount);
-		} else if ("head".equals(name)) {
-			return new HeadElement(qname, attributeCount);
-		} else if ("img".equals(name)) {
-			return new ImgElement(qname, attributeCount);
-		} else if ("title".equals(name) || "meta".equals(name)) {
-			return new XHTMLElement(qname, attributeCount);
-		} else if ("font".equals(name) || "basefont".equals(name)) {
-			return new FontElement(qname, attributeCount);
-		} else if (styleCacheOn) {
-			if ("td".equals(name) || "th".equals(name)) {
-				return new CachedTableCellElement(qname, attributeCount);
-			} else if ("tr".equals(name)) {
-				return new CachedTableRowElement(qname, attributeCount);
-			} else if ("table".equals(name)) {
-				return new CachedTableElement(qname, attributeCount);
-			} else {
-				// Produce a cached element
-				return new CachedXHTMLElement(qname, attributeCount);
+		return elementCreator(qname).createElement(qname, attributeCount);
+	}
+
+	/**
+	 * Get the lower-case version of an element local name, as used by the selector
+	 * matchers.
+	 * 
+	 * @param localName the local name.
+	 * @return the interned lower-case local name.
+	 */
+	String lowerCaseLocalName(String localName) {
+		String name = lowerCaseNames.get(localName);
+		if (name == null) {
+			name = localName.toLowerCase(Locale.ROOT).intern();
+			if (lowerCaseNames.size() < MAX_LOWER_CASE_NAMES) {
+				lowerCaseNames.put(localName, name);
 			}
-		} else {
-			if ("td".equals(name) || "th".equals(name)) {
-				return new TableCellElement(qname, attributeCount);
-			} else if ("tr".equals(name)) {
-				return new TableRowElement(qname, attributeCount);
-			} else if ("table".equals(name)) {
-				return new TableElement(qname, attributeCount);
-			} else {
-				// Produce a regular XHTML element
-				return new XHTMLElement(qname, attributeCount);
+		}
+		return name;
+	}
+
+	private ElementCreator elementCreator(QName qname) {
+		ElementCreator creator = qnameElementCreators.get(qname);
+		if (creator == null) {
+			creator = elementCreators.get(qname.getName().toLowerCase(Locale.ROOT));
+			if (creator == null) {
+				creator = XHTMLElement::new;
+			}
+			if (qnameElementCreators.size() < MAX_QNAME_CREATORS) {
+				qnameElementCreators.put(qname, creator);
 			}
 		}
+		return creator;
+	}
+
+	/**
+	 * Register the creator of the elements with the given local name, in any
+	 * namespace.
+	 * <p>
+	 * This allows the creation of custom element subclasses, or the replacement of
+	 * the classes that this factory uses for elements like {@code style} or
+	 * {@code link} (in which case the new classes should extend the original
+	 * ones). Registrations should be made before the factory is used to create
+	 * documents.
+	 * </p>
+	 * 
+	 * @param localName the local name of the elements, case-insensitive.
+	 * @param creator   the element creator, or {@code null} to restore the default
+	 *                  creator for {@code localName}.
+	 */
+	public void registerElementCreator(String localName, ElementCreator creator) {
+		String name = localName.toLowerCase(Locale.ROOT);
+		if (creator == null) {
+			creator = defaultElementCreators.get(name);
+		}
+		if (creator == null) {
+			elementCreators.remove(name);
+		} else {
+			elementCreators.put(name, creator);
+		}
+		qnameElementCreators.clear();
+	}
+
+	/**
+	 * Register the creator of the attributes with the given name.
+	 * <p>
+	 * Registrations should be made before the factory is used to create
+	 * documents.
+	 * </p>
+	 * 
+	 * @param name    the local name of the attributes, case-insensitive. Attributes
+	 *                in the XML namespace must be registered with the {@code xml}
+	 *                prefix, like {@code xml:base}.
+	 * @param creator the attribute creator, or {@code null} to restore the default
+	 *                creator for {@code name}.
+	 */
+	public void registerAttributeCreator(String name, AttributeCreator creator) {
+		name = name.toLowerCase(Locale.ROOT);
+		if (creator == null) {
+			creator = defaultAttributeCreators.get(name);
+		}
+		if (creator == null) {
+			attributeCreators.remove(name);
+		} else {
+			attributeCreators.put(name, creator);
+		}
+		qnameAttributeCreators.clear();
 	}
 
 	@Override
@@ -266,19 +581,25 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 
 	@Override
 	public Attribute createAttribute(Element owner, QName qname, String value) {
-		String name = qname.getName().toLowerCase(Locale.ROOT);
-		if (name.equals("href")) {
-			return new HrefAttribute(qname, value);
-		} else if (name.equals("style")) {
-			return new StyleAttribute(qname, value);
-		} else if (name.equals("xml:base")) {
-			return new BaseAttribute(qname, value);
-		} else if (name.equals("type") || name.equals("media") || name.equals("rel")
-				|| name.equals("title")) {
-			return new DocumentStyleEventAttribute(qname, value);
-		} else {
-			return super.createAttribute(owner, qname, value);
+		return attributeCreator(qname).createAttribute(qname, value);
+	}
+
+	private AttributeCreator attributeCreator(QName qname) {
+		AttributeCreator creator = qnameAttributeCreators.get(qname);
+		if (creator == null) {
+			String name = qname.getName().toLowerCase(Locale.ROOT);
+			if (Namespace.XML_NAMESPACE.getURI().equals(qname.getNamespaceURI())) {
+				name = "xml:" + name;
+			}
+			creator = attributeCreators.get(name);
+			if (creator == null) {
+				creator = StyleEventAttribute::new;
+			}
+			if (qnameAttributeCreators.size() < MAX_QNAME_CREATORS) {
+				qnameAttributeCreators.put(qname, creator);
+			}
 		}
+		return creator;
 	}
 
 	@Deprecated
@@ -310,8 +631,14 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 		 */
 		private BaseDocumentCSSStyleSheet uaQStyleSheet = null;
 
+		/**
+		 * The parser flags, as a string that identifies them in cache keys.
+		 */
+		final String parserFlagsKey;
+
 		public DOM4JCSSStyleSheetFactory(EnumSet<Flag> enumSet) {
 			super(enumSet);
+			parserFlagsKey = enumSet == null ? "[]" : enumSet.toString();
 		}
 
 		@Override
@@ -400,6 +727,23 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 			return style;
 		}
 
+		/**
+		 * Create a copy of an inline style, for a different owner node.
+		 * 
+		 * @param style the style to copy.
+		 * @param owner the owner node of the copy.
+		 * @return the copy.
+		 */
+		InlineStyle copyInlineStyle(InlineStyle style, Node owner) {
+			InlineStyle copy;
+			if (style instanceof CompatInlineStyle) {
+				copy = new MyCompatInlineStyle((CompatInlineStyle) style, owner);
+			} else {
+				copy = new MyInlineStyle(style, owner);
+			}
+			return copy;
+		}
+
 		class MyInlineStyle extends InlineStyle {
 
 			private static final long serialVersionUID = 1L;
@@ -413,6 +757,11 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 				super(copiedObject);
 			}
 
+			MyInlineStyle(InlineStyle copiedObject, Node owner) {
+				super(copiedObject);
+				setOwnerNode(owner);
+			}
+
 			@Override
 			protected AbstractCSSStyleSheetFactory getStyleSheetFactory() {
 				return DOM4JCSSStyleSheetFactory.this;
@@ -423,6 +772,25 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 				return new MyInlineStyle(this);
 			}
 
+			@Override
+			public void setCssText(String cssText) throws DOMException {
+				super.setCssText(cssText);
+				StyleAttribute.onInlineStyleModify(getOwnerNode());
+			}
+
+			@Override
+			public void setProperty(String propertyName, String value, String priority) throws DOMException {
+				super.setProperty(propertyName, value, priority);
+				StyleAttribute.onInlineStyleModify(getOwnerNode());
+			}
+
+			@Override
+			public String removeProperty(String propertyName) throws DOMException {
+				String value = super.removeProperty(propertyName);
+				StyleAttribute.onInlineStyleModify(getOwnerNode());
+				return value;
+			}
+
 		}
 
 		class MyCompatInlineStyle extends CompatInlineStyle {
@@ -438,6 +806,11 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 				super(copiedObject);
 			}
 
+			MyCompatInlineStyle(CompatInlineStyle copiedObject, Node owner) {
+				super(copiedObject);
+				setOwnerNode(owner);
+			}
+
 			@Override
 			protected AbstractCSSStyleSheetFactory getStyleSheetFactory() {
 				return DOM4JCSSStyleSheetFactory.this;
@@ -448,6 +821,25 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 				return new MyCompatInlineStyle(this);
 			}
 
+			@Override
+			public void setCssText(String cssText) throws DOMException {
+				super.setCssText(cssText);
+				StyleAttribute.onInlineStyleModify(getOwnerNode());
+			}
+
+			@Override
+			public void setProperty(String propertyName, String value, String priority) throws DOMException {
+				super.setProperty(propertyName, value, priority);
+				StyleAttribute.onInlineStyleModify(getOwnerNode());
+			}
+
+			@Override
+			public String removeProperty(String propertyName) throws DOMException {
+				String value = super.removeProperty(propertyName);
+				StyleAttribute.onInlineStyleModify(getOwnerNode());
+				return value;
+			}
+
 		}
 
 		class MyDOM4JComputedStyle extends DOM4JComputedStyle {
@@ -488,7 +880,7 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 		 * @return the user agent style sheet.
 		 */
 		@Override
-		public BaseDocumentCSSStyleSheet getUserAgentStyleSheet(CSSDocument.ComplianceMode mode) {
+		public synchronized BaseDocumentCSSStyleSheet getUserAgentStyleSheet(CSSDocument.ComplianceMode mode) {
 			if (mode == CSSDocument.ComplianceMode.STRICT) {
 				if (uaStyleSheet == null) {
 					// Create an empty one
@@ -503,8 +895,12 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 			return uaQStyleSheet;
 		}
 
+		/*
+		 * Synchronized, as documents can be created concurrently by the same
+		 * factory (for example, by DOM4JUserAgent.readURLs).
+		 */
 		@Override
-		protected BaseDocumentCSSStyleSheet getDefaultStyleSheet(CSSDocument.ComplianceMode mode) {
+		protected synchronized BaseDocumentCSSStyleSheet getDefaultStyleSheet(CSSDocument.ComplianceMode mode) {
 			if (defStyleSheet == null) {
 				mergeUserSheets();
 			}
@@ -531,7 +927,7 @@ public class XHTMLDocumentFactory extends DOMDocumentFactory {
 		 * Sets a default HTML default style sheet as the user agent style sheet.
 		 */
 		@Override
-		public void setDefaultHTMLUserAgentSheet() {
+		public synchronized void setDefaultHTMLUserAgentSheet() {
 			uaStyleSheet = htmlDefaultSheet();
 			uaQStyleSheet = htmlQuirksDefaultSheet();
 			defStyleSheet = null;
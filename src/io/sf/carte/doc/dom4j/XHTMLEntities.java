@@ -0,0 +1,244 @@
+/*
+
+ Copyright (c) 2026, Carlos Amengual.
+
+ Licensed under a BSD-style License. You can find the license here:
+ https://css4j.github.io/LICENSE.txt
+
+ */
+
+// SPDX-License-Identifier: BSD-2-Clause OR BSD-3-Clause
+
+package io.sf.carte.doc.dom4j;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.EntityResolver2;
+
+/**
+ * The named character entities of HTML 4.01 and XHTML 1.x (the
+ * {@code xhtml-lat1}, {@code xhtml-symbol} and {@code xhtml-special} sets),
+ * plus an entity resolver that replaces the standard (X)HTML DTDs with the
+ * declarations of those entities.
+ */
+final class XHTMLEntities {
+
+	/*
+	 * The xhtml-lat1 entities, for code points 160 to 255.
+	 */
+	private static final String[] LATIN1 = { "nbsp", "iexcl", "cent", "pound", "curren", "yen", "brvbar",
+			"sect", "uml", "copy", "ordf", "laquo", "not", "shy", "reg", "macr", "deg", "plusmn", "sup2", "sup3",
+			"acute", "micro", "para", "middot", "cedil", "sup1", "ordm", "raquo", "frac14", "frac12", "frac34",
+			"iquest", "Agrave", "Aacute", "Acirc", "Atilde", "Auml", "Aring", "AElig", "Ccedil", "Egrave",
+			"Eacute", "Ecirc", "Euml", "Igrave", "Iacute", "Icirc", "Iuml", "ETH", "Ntilde", "Ograve", "Oacute",
+			"Ocirc", "Otilde", "Ouml", "times", "Oslash", "Ugrave", "Uacute", "Ucirc", "Uuml", "Yacute", "THORN",
+			"szlig", "agrave", "aacute", "acirc", "atilde", "auml", "aring", "aelig", "ccedil", "egrave", "eacute",
+			"ecirc", "euml", "igrave", "iacute", "icirc", "iuml", "eth", "ntilde", "ograve", "oacute", "ocirc",
+			"otilde", "ouml", "divide", "oslash", "ugrave", "uacute", "ucirc", "uuml", "yacute", "thorn", "yuml" };
+
+	/*
+	 * The Greek letters of xhtml-symbol, for code points 913 to 937 and 945 to
+	 * 969 (930 is unassigned, and 962 is the final sigma).
+	 */
+	private static final String[] GREEK = { "Alpha", "Beta", "Gamma", "Delta", "Epsilon", "Zeta", "Eta", "Theta",
+			"Iota", "Kappa", "Lambda", "Mu", "Nu", "Xi", "Omicron", "Pi", "Rho", null, "Sigma", "Tau", "Upsilon",
+			"Phi", "Chi", "Psi", "Omega" };
+
+	/*
+	 * The rest of the entities, as name and code point pairs.
+	 */
+	private static final Object[] OTHER = { "quot", 34, "amp", 38, "apos", 39, "lt", 60, "gt", 62, "OElig", 338,
+			"oelig", 339, "Scaron", 352, "scaron", 353, "Yuml", 376, "fnof", 402, "circ", 710, "tilde", 732,
+			"sigmaf", 962, "thetasym", 977, "upsih", 978, "piv", 982, "ensp", 8194, "emsp", 8195, "thinsp", 8201,
+			"zwnj", 8204, "zwj", 8205, "lrm", 8206, "rlm", 8207, "ndash", 8211, "mdash", 8212, "lsquo", 8216,
+			"rsquo", 8217, "sbquo", 8218, "ldquo", 8220, "rdquo", 8221, "bdquo", 8222, "dagger", 8224, "Dagger",
+			8225, "bull", 8226, "hellip", 8230, "permil", 8240, "prime", 8242, "Prime", 8243, "lsaquo", 8249,
+			"rsaquo", 8250, "oline", 8254, "frasl", 8260, "euro", 8364, "image", 8465, "weierp", 8472, "real",
+			8476, "trade", 8482, "alefsym", 8501, "larr", 8592, "uarr", 8593, "rarr", 8594, "darr", 8595, "harr",
+			8596, "crarr", 8629, "lArr", 8656, "uArr", 8657, "rArr", 8658, "dArr", 8659, "hArr", 8660, "forall",
+			8704, "part", 8706, "exist", 8707, "empty", 8709, "nabla", 8711, "isin", 8712, "notin", 8713, "ni",
+			8715, "prod", 8719, "sum", 8721, "minus", 8722, "lowast", 8727, "radic", 8730, "prop", 8733, "infin",
+			8734, "ang", 8736, "and", 8743, "or", 8744, "cap", 8745, "cup", 8746, "int", 8747, "there4", 8756,
+			"sim", 8764, "cong", 8773, "asymp", 8776, "ne", 8800, "equiv", 8801, "le", 8804, "ge", 8805, "sub",
+			8834, "sup", 8835, "nsub", 8836, "sube", 8838, "supe", 8839, "oplus", 8853, "otimes", 8855, "perp",
+			8869, "sdot", 8901, "lceil", 8968, "rceil", 8969, "lfloor", 8970, "rfloor", 8971, "lang", 9001, "rang",
+			9002, "loz", 9674, "spades", 9824, "clubs", 9827, "hearts", 9829, "diams", 9830 };
+
+	/*
+	 * Public identifiers of the DTDs whose entities are all in the table.
+	 */
+	private static final HashSet<String> publicIds = new HashSet<>(Arrays.asList(
+			"-//W3C//DTD XHTML 1.0 Strict//EN", "-//W3C//DTD XHTML 1.0 Transitional//EN",
+			"-//W3C//DTD XHTML 1.0 Frameset//EN", "-//W3C//DTD XHTML 1.1//EN", "-//W3C//DTD XHTML Basic 1.0//EN",
+			"-//W3C//DTD XHTML Basic 1.1//EN", "-//W3C//DTD HTML 4.01//EN", "-//W3C//DTD HTML 4.01 Transitional//EN",
+			"-//W3C//DTD HTML 4.01 Frameset//EN"));
+
+	private static final HashMap<String, String> entities = createEntityMap();
+
+	/*
+	 * The external subset that declares the entities, created when first needed.
+	 */
+	private static volatile String declarations = null;
+
+	private XHTMLEntities() {
+	}
+
+	private static HashMap<String, String> createEntityMap() {
+		HashMap<String, String> map = new HashMap<>(512);
+		for (int i = 0; i < LATIN1.length; i++) {
+			map.put(LATIN1[i], String.valueOf((char) (160 + i)));
+		}
+		for (int i = 0; i < GREEK.length; i++) {
+			String name = GREEK[i];
+			if (name != null) {
+				map.put(name, String.valueOf((char) (913 + i)));
+				map.put(name.toLowerCase(Locale.ROOT), String.valueOf((char) (945 + i)));
+			}
+		}
+		for (int i = 0; i < OTHER.length; i += 2) {
+			map.put((String) OTHER[i], String.valueOf((char) ((Integer) OTHER[i + 1]).intValue()));
+		}
+		return map;
+	}
+
+	/**
+	 * Get the replacement text of a named entity.
+	 * 
+	 * @param name the entity name.
+	 * @return the replacement text, or {@code null} if the entity is not in the
+	 *         table.
+	 */
+	static String getReplacementText(String name) {
+		return entities.get(name);
+	}
+
+	/**
+	 * Get an iterator over the entities in the table.
+	 * 
+	 * @return the iterator.
+	 */
+	static Iterator<Map.Entry<String, String>> entityIterator() {
+		return entities.entrySet().iterator();
+	}
+
+	/**
+	 * Get an external DTD subset that declares the entities in the table, except
+	 * the five predefined XML entities.
+	 * 
+	 * @return the entity declarations.
+	 */
+	static String getEntityDeclarations() {
+		String decl = declarations;
+		if (decl == null) {
+			StringBuilder buf = new StringBuilder(entities.size() * 28);
+			for (Map.Entry<String, String> entry : entities.entrySet()) {
+				String name = entry.getKey();
+				if (!isPredefined(name)) {
+					buf.append("<!ENTITY ").append(name).append(" \"&#").append((int) entry.getValue().charAt(0))
+							.append(";\">\n");
+				}
+			}
+			decl = buf.toString();
+			declarations = decl;
+		}
+		return decl;
+	}
+
+	private static boolean isPredefined(String name) {
+		return "amp".equals(name) || "lt".equals(name) || "gt".equals(name) || "quot".equals(name)
+				|| "apos".equals(name);
+	}
+
+	/**
+	 * Check whether the name is that of an entity in the table that is not one
+	 * of the predefined XML entities.
+	 * 
+	 * @param name the entity name.
+	 * @return {@code true} if the entity is declared by the
+	 *         {@link #getEntityDeclarations() declarations}.
+	 */
+	static boolean isDeclaredEntity(String name) {
+		return entities.containsKey(name) && !isPredefined(name);
+	}
+
+	/**
+	 * Check whether the DTD with the given public identifier only declares
+	 * entities that are in the table.
+	 * 
+	 * @param publicId the public identifier.
+	 * @return {@code true} if the DTD can be skipped.
+	 */
+	static boolean isKnownPublicId(String publicId) {
+		return publicId != null && publicIds.contains(publicId);
+	}
+
+	/**
+	 * Entity resolver that replaces the standard (X)HTML DTDs (including the
+	 * implicit DTD of the {@code <!DOCTYPE html>} declaration) with a generated
+	 * one that only declares the entities of the table, and delegates the other
+	 * entities to another resolver.
+	 * <p>
+	 * The entities are thus expanded by the parser, also in attribute values. If
+	 * the parser does not load the external subset, they are reported as skipped
+	 * entities instead, and can only be replaced in character content.
+	 * </p>
+	 */
+	static class SkipDTDResolver implements EntityResolver2 {
+
+		private final EntityResolver delegate;
+
+		SkipDTDResolver(EntityResolver delegate) {
+			super();
+			this.delegate = delegate;
+		}
+
+		@Override
+		public InputSource getExternalSubset(String name, String baseURI) throws SAXException, IOException {
+			if ("html".equalsIgnoreCase(name)) {
+				return declarationSource(null);
+			}
+			if (delegate instanceof EntityResolver2) {
+				return ((EntityResolver2) delegate).getExternalSubset(name, baseURI);
+			}
+			return null;
+		}
+
+		@Override
+		public InputSource resolveEntity(String name, String publicId, String baseURI, String systemId)
+				throws SAXException, IOException {
+			if (isKnownPublicId(publicId)) {
+				return declarationSource(systemId);
+			}
+			if (delegate instanceof EntityResolver2) {
+				return ((EntityResolver2) delegate).resolveEntity(name, publicId, baseURI, systemId);
+			}
+			return resolveEntity(publicId, systemId);
+		}
+
+		@Override
+		public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+			if (isKnownPublicId(publicId)) {
+				return declarationSource(systemId);
+			}
+			return delegate != null ? delegate.resolveEntity(publicId, systemId) : null;
+		}
+
+		private static InputSource declarationSource(String systemId) {
+			InputSource source = new InputSource(new StringReader(getEntityDeclarations()));
+			source.setSystemId(systemId);
+			return source;
+		}
+
+	}
+
+}
@@ -34,6 +34,22 @@
  * String propertyValue = style.getPropertyValue("display");
  * </pre>
  * <p>
+ * If you need the styles of all the elements in the document, it is much
+ * cheaper to compute them in a single pass:
+ * </p>
+ * 
+ * <pre>
+ * ((XHTMLDocument) document).computeStyles((element, style) -&gt; {
+ *     String display = style.getPropertyValue("display");
+ *     ...
+ * });
+ * </pre>
+ * <p>
+ * Documents that are too large to be kept in memory can be styled while they
+ * are read, with a {@link io.sf.carte.doc.dom4j.StyleStreamReader
+ * StyleStreamReader}.
+ * </p>
+ * <p>
  * Please read the documentation of the individual classes for information on
  * additional capabilities, like caching or the use of customized style sheets.
  * </p>